@@ -0,0 +1,135 @@
+package de.cech12.vis.benchmark;
+
+import de.cech12.vis.pipeline.ConversionPipeline;
+import de.cech12.vis.service.GoogleCloudService;
+import de.cech12.vis.service.OCRResult;
+import de.cech12.vis.service.PreprocessingOCRService;
+import de.cech12.vis.service.SpeechStream;
+import de.cech12.vis.service.StreamingTTSService;
+import de.cech12.vis.utils.ConfigUtils;
+import de.cech12.vis.utils.ExecutorUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single stages and the whole conversion against the in-process fake backend (no network, no credentials).
+ * The caches are not used, so every call reaches the backend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ConversionBenchmark {
+
+    @Param({"0", "50"})
+    public long latencyMillis;
+
+    @Param({"200"})
+    public int words;
+
+    @Param({"65536"})
+    public int audioBytes;
+
+    @Param({"1920x1080"})
+    public String resolution;
+
+    private FakeGoogleBackend backend;
+    private GoogleCloudService googleCloudService;
+    private StreamingTTSService streamingTtsService;
+    private ExecutorService executor;
+    private ConversionPipeline pipeline;
+    private BufferedImage image;
+    private OCRResult ocrResult;
+
+    @Setup
+    public void setUp() throws Exception {
+        File configDir = Files.createTempDirectory("vis-benchmark").toFile();
+        ConfigUtils.initConfig(configDir);
+        ConfigUtils.setProperty(GoogleCloudService.CONFIG_WARM_UP, "false");
+        ConfigUtils.setProperty(GoogleCloudService.CONFIG_PROJECT_ID, "benchmark");
+        ConfigUtils.setProperty(GoogleCloudService.CONFIG_LANGUAGE, "en-US");
+
+        backend = new FakeGoogleBackend(latencyMillis, words, audioBytes);
+        googleCloudService = new GoogleCloudService(configDir, null, backend.getChannelProvider());
+        streamingTtsService = new StreamingTTSService(googleCloudService);
+        executor = ExecutorUtils.createExecutor(ExecutorUtils.CACHED, "vis-benchmark");
+        pipeline = new ConversionPipeline(new PreprocessingOCRService(googleCloudService), googleCloudService, streamingTtsService, executor);
+        image = Screenshots.create(resolution);
+        ocrResult = googleCloudService.getTextFromImage(image);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        streamingTtsService.close();
+        googleCloudService.close();
+        backend.close();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public OCRResult ocr() throws Exception {
+        return googleCloudService.getTextFromImage(image);
+    }
+
+    @Benchmark
+    public String translation() throws Exception {
+        return ConversionPipeline.translate(ocrResult, "en-US", googleCloudService);
+    }
+
+    @Benchmark
+    public int tts() throws Exception {
+        try (InputStream speech = googleCloudService.getSpeechFromText(ocrResult.text())) {
+            return speech.readAllBytes().length;
+        }
+    }
+
+    @Benchmark
+    public int endToEnd() throws Exception {
+        return readAll(pipeline.run(image, true, false).join());
+    }
+
+    @Benchmark
+    public int endToEndStreaming() throws Exception {
+        return readAll(pipeline.run(image, true, true).join());
+    }
+
+    /**
+     * Measures the time until the first chunk of the speech could be played.
+     */
+    @Benchmark
+    public int timeToFirstChunk() throws Exception {
+        try (SpeechStream speech = pipeline.run(image, true, true).join()) {
+            return speech.next().readAllBytes().length;
+        }
+    }
+
+    private static int readAll(SpeechStream speech) throws Exception {
+        int bytes = 0;
+        try (speech) {
+            for (InputStream chunk = speech.next(); chunk != null; chunk = speech.next()) {
+                bytes += chunk.readAllBytes().length;
+            }
+        }
+        return bytes;
+    }
+
+}
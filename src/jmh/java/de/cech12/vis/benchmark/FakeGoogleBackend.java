@@ -0,0 +1,243 @@
+package de.cech12.vis.benchmark;
+
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.cloud.texttospeech.v1.ListVoicesRequest;
+import com.google.cloud.texttospeech.v1.ListVoicesResponse;
+import com.google.cloud.texttospeech.v1.SynthesizeSpeechRequest;
+import com.google.cloud.texttospeech.v1.SynthesizeSpeechResponse;
+import com.google.cloud.texttospeech.v1.Voice;
+import com.google.cloud.translate.v3.GetSupportedLanguagesRequest;
+import com.google.cloud.translate.v3.SupportedLanguage;
+import com.google.cloud.translate.v3.SupportedLanguages;
+import com.google.cloud.translate.v3.TranslateTextRequest;
+import com.google.cloud.translate.v3.TranslateTextResponse;
+import com.google.cloud.translate.v3.Translation;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BatchAnnotateImagesRequest;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.cloud.vision.v1.Block;
+import com.google.cloud.vision.v1.Page;
+import com.google.cloud.vision.v1.Paragraph;
+import com.google.cloud.vision.v1.Symbol;
+import com.google.cloud.vision.v1.TextAnnotation;
+import com.google.cloud.vision.v1.Word;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * In-process gRPC server, which fakes the Vision, Text-To-Speech and Translation endpoints of Google Cloud.
+ * Every call waits the configured latency. The OCR result contains the configured number of (German) words and
+ * the speech the configured number of bytes. Optionally, each image gets an own text (see {@link #setTextPerImage(boolean)}).
+ */
+public class FakeGoogleBackend implements AutoCloseable {
+
+    private static final int WORDS_PER_BLOCK = 25;
+    private static final String[] VOCABULARY = {"Das", "Bild", "enth\u00e4lt", "einen", "langen", "Text", "mit", "vielen",
+            "W\u00f6rtern", "und", "S\u00e4tzen", "der", "vorgelesen", "werden", "soll."};
+
+    private final long latencyMillis;
+    private final TextAnnotation textAnnotation;
+    private final ByteString audio;
+    private final Server server;
+    private final ManagedChannel channel;
+    private volatile boolean textPerImage = false;
+
+    public FakeGoogleBackend(long latencyMillis, int words, int audioBytes) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.textAnnotation = createTextAnnotation(words);
+        byte[] audioData = new byte[audioBytes];
+        new Random(42).nextBytes(audioData);
+        this.audio = ByteString.copyFrom(audioData);
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .addService(createImageAnnotator())
+                .addService(createTextToSpeech())
+                .addService(createTranslationService())
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    public TransportChannelProvider getChannelProvider() {
+        return FixedTransportChannelProvider.create(GrpcTransportChannel.create(channel));
+    }
+
+    public TextAnnotation getTextAnnotation() {
+        return textAnnotation;
+    }
+
+    /**
+     * @param textPerImage adds a number derived from the image content to the text, so different images get different
+     *                     texts (and their translation and speech are not cached)
+     */
+    public void setTextPerImage(boolean textPerImage) {
+        this.textPerImage = textPerImage;
+    }
+
+    private static TextAnnotation withImageNumber(TextAnnotation annotation, int number) {
+        String numberText = Integer.toUnsignedString(number);
+        Word.Builder word = Word.newBuilder();
+        for (int c = 0; c < numberText.length(); c++) {
+            word.addSymbols(Symbol.newBuilder().setText(String.valueOf(numberText.charAt(c))));
+        }
+        Page page = annotation.getPages(0).toBuilder()
+                .addBlocks(Block.newBuilder().addParagraphs(Paragraph.newBuilder().addWords(word)).setConfidence(0.95f))
+                .build();
+        return annotation.toBuilder().setPages(0, page).setText(annotation.getText() + numberText + "\n").build();
+    }
+
+    private static TextAnnotation createTextAnnotation(int words) {
+        TextAnnotation.DetectedLanguage german = TextAnnotation.DetectedLanguage.newBuilder().setLanguageCode("de").setConfidence(0.9f).build();
+        TextAnnotation.DetectedBreak space = TextAnnotation.DetectedBreak.newBuilder().setType(TextAnnotation.DetectedBreak.BreakType.SPACE).build();
+        Page.Builder page = Page.newBuilder()
+                .setProperty(TextAnnotation.TextProperty.newBuilder().addDetectedLanguages(german))
+                .setConfidence(0.95f);
+        StringBuilder text = new StringBuilder();
+        for (int start = 0; start < words; start += WORDS_PER_BLOCK) {
+            Paragraph.Builder paragraph = Paragraph.newBuilder();
+            for (int i = start; i < Math.min(words, start + WORDS_PER_BLOCK); i++) {
+                String wordText = VOCABULARY[i % VOCABULARY.length];
+                Word.Builder word = Word.newBuilder();
+                for (int c = 0; c < wordText.length(); c++) {
+                    Symbol.Builder symbol = Symbol.newBuilder().setText(String.valueOf(wordText.charAt(c)));
+                    if (c == wordText.length() - 1) {
+                        symbol.setProperty(TextAnnotation.TextProperty.newBuilder().setDetectedBreak(space));
+                    }
+                    word.addSymbols(symbol);
+                }
+                paragraph.addWords(word);
+                text.append(wordText).append(' ');
+            }
+            page.addBlocks(Block.newBuilder().addParagraphs(paragraph).setConfidence(0.95f));
+            text.append('\n');
+        }
+        return TextAnnotation.newBuilder().addPages(page).setText(text.toString()).build();
+    }
+
+    private void simulateLatency() {
+        if (latencyMillis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        channel.shutdownNow();
+        server.shutdownNow();
+        try {
+            server.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The service definitions are built directly from the protobuf messages, so no generated gRPC stubs are needed.
+     */
+    private static <Q extends Message, R extends Message> MethodDescriptor<Q, R> method(String service, String method, Q request, R response) {
+        return MethodDescriptor.<Q, R>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName(MethodDescriptor.generateFullMethodName(service, method))
+                .setRequestMarshaller(ProtoUtils.marshaller(request))
+                .setResponseMarshaller(ProtoUtils.marshaller(response))
+                .build();
+    }
+
+    private static <Q, R> ServerCallHandler<Q, R> handler(Function<Q, R> function) {
+        return ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+            responseObserver.onNext(function.apply(request));
+            responseObserver.onCompleted();
+        });
+    }
+
+    private ServerServiceDefinition createImageAnnotator() {
+        String service = "google.cloud.vision.v1.ImageAnnotator";
+        return ServerServiceDefinition.builder(service)
+                .addMethod(method(service, "BatchAnnotateImages", BatchAnnotateImagesRequest.getDefaultInstance(), BatchAnnotateImagesResponse.getDefaultInstance()),
+                        handler(this::batchAnnotateImages))
+                .build();
+    }
+
+    private ServerServiceDefinition createTextToSpeech() {
+        String service = "google.cloud.texttospeech.v1.TextToSpeech";
+        return ServerServiceDefinition.builder(service)
+                .addMethod(method(service, "ListVoices", ListVoicesRequest.getDefaultInstance(), ListVoicesResponse.getDefaultInstance()),
+                        handler(this::listVoices))
+                .addMethod(method(service, "SynthesizeSpeech", SynthesizeSpeechRequest.getDefaultInstance(), SynthesizeSpeechResponse.getDefaultInstance()),
+                        handler(this::synthesizeSpeech))
+                .build();
+    }
+
+    private ServerServiceDefinition createTranslationService() {
+        String service = "google.cloud.translation.v3.TranslationService";
+        return ServerServiceDefinition.builder(service)
+                .addMethod(method(service, "GetSupportedLanguages", GetSupportedLanguagesRequest.getDefaultInstance(), SupportedLanguages.getDefaultInstance()),
+                        handler(this::getSupportedLanguages))
+                .addMethod(method(service, "TranslateText", TranslateTextRequest.getDefaultInstance(), TranslateTextResponse.getDefaultInstance()),
+                        handler(this::translateText))
+                .build();
+    }
+
+    private BatchAnnotateImagesResponse batchAnnotateImages(BatchAnnotateImagesRequest request) {
+        simulateLatency();
+        BatchAnnotateImagesResponse.Builder response = BatchAnnotateImagesResponse.newBuilder();
+        for (int i = 0; i < request.getRequestsCount(); i++) {
+            TextAnnotation annotation = textPerImage
+                    ? withImageNumber(textAnnotation, request.getRequests(i).getImage().getContent().hashCode())
+                    : textAnnotation;
+            response.addResponses(AnnotateImageResponse.newBuilder().setFullTextAnnotation(annotation));
+        }
+        return response.build();
+    }
+
+    private ListVoicesResponse listVoices(ListVoicesRequest request) {
+        simulateLatency();
+        return ListVoicesResponse.newBuilder()
+                .addVoices(Voice.newBuilder().setName("en-US-Standard-A").addLanguageCodes("en-US"))
+                .addVoices(Voice.newBuilder().setName("de-DE-Standard-A").addLanguageCodes("de-DE"))
+                .build();
+    }
+
+    private SynthesizeSpeechResponse synthesizeSpeech(SynthesizeSpeechRequest request) {
+        simulateLatency();
+        return SynthesizeSpeechResponse.newBuilder().setAudioContent(audio).build();
+    }
+
+    private SupportedLanguages getSupportedLanguages(GetSupportedLanguagesRequest request) {
+        simulateLatency();
+        return SupportedLanguages.newBuilder()
+                .addLanguages(SupportedLanguage.newBuilder().setLanguageCode("en"))
+                .addLanguages(SupportedLanguage.newBuilder().setLanguageCode("de"))
+                .build();
+    }
+
+    private TranslateTextResponse translateText(TranslateTextRequest request) {
+        simulateLatency();
+        TranslateTextResponse.Builder response = TranslateTextResponse.newBuilder();
+        for (String content : request.getContentsList()) {
+            response.addTranslations(Translation.newBuilder().setTranslatedText(content).setDetectedLanguageCode("de"));
+        }
+        return response.build();
+    }
+
+}
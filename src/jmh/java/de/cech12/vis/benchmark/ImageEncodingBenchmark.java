@@ -0,0 +1,78 @@
+package de.cech12.vis.benchmark;
+
+import de.cech12.vis.utils.BufferPool;
+import de.cech12.vis.utils.ImageUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local image work before the OCR request: encoding of the clipboard image, preprocessing and hashing for the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ImageEncodingBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    private BufferedImage image;
+
+    @Setup
+    public void setUp() {
+        image = Screenshots.create(resolution);
+    }
+
+    @Benchmark
+    public byte[] encodePng() throws Exception {
+        return ImageUtils.encodePng(image);
+    }
+
+    /**
+     * Encoding into a reused buffer, like it is done before an upload. Compare the allocation with "-prof gc".
+     */
+    @Benchmark
+    public int encodePngPooled() throws Exception {
+        try (BufferPool.Buffer buffer = ImageUtils.ENCODING_BUFFERS.acquire()) {
+            ImageUtils.encodePng(image, buffer);
+            return buffer.size();
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeJpeg() throws Exception {
+        return ImageUtils.encode(image, ImageUtils.FORMAT_JPEG, 6);
+    }
+
+    @Benchmark
+    public byte[] preprocessAndEncodePng() throws Exception {
+        BufferedImage processed = ImageUtils.trimBorders(ImageUtils.toGrayscale(image), 8, 4);
+        return ImageUtils.encode(ImageUtils.limitSize(processed, 3000, 0.6), ImageUtils.FORMAT_PNG, 6);
+    }
+
+    @Benchmark
+    public long pixelHash() {
+        return ImageUtils.pixelHash(image);
+    }
+
+    @Benchmark
+    public long[] perceptualHash() {
+        return ImageUtils.perceptualHash(image);
+    }
+
+}
@@ -0,0 +1,193 @@
+package de.cech12.vis.benchmark;
+
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.server.VisServer;
+import de.cech12.vis.service.CachingOCRService;
+import de.cech12.vis.service.CachingTTSService;
+import de.cech12.vis.service.GoogleCloudService;
+import de.cech12.vis.service.GoogleCloudServiceProvider;
+import de.cech12.vis.service.IOCRService;
+import de.cech12.vis.service.ITTSService;
+import de.cech12.vis.service.ITranslationService;
+import de.cech12.vis.service.PreprocessingOCRService;
+import de.cech12.vis.service.RoutingOCRService;
+import de.cech12.vis.service.RoutingTTSService;
+import de.cech12.vis.service.RoutingTranslationService;
+import de.cech12.vis.service.StreamingTTSService;
+import de.cech12.vis.service.TranslationMemoryService;
+import de.cech12.vis.utils.ConfigUtils;
+import de.cech12.vis.utils.ImageUtils;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends concurrent requests to the server mode and reports the throughput and the latency percentiles.
+ * Without "--url", a server with the service chain of the application (caches, preprocessing and provider routing)
+ * in front of the fake Google backend is started in-process. Every image gets its own text from the fake backend, so
+ * the first request of an image passes the whole chain and only repeated images are answered by the caches.
+ * Options: --url, --endpoint (/convert), --clients (32), --requests (1000), --images (500 different images),
+ * --providers (2 providers in front of the fake backend, so the requests are hedged), --latency (fake backend latency in ms, 50).
+ * <pre>./gradlew loadtest -PloadArgs="--clients 64 --requests 5000"</pre>
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(Map.of(
+                "--endpoint", "/convert", "--clients", "32", "--requests", "1000", "--images", "500", "--providers", "2", "--latency", "50"));
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        int clients = Integer.parseInt(options.get("--clients"));
+        int requests = Integer.parseInt(options.get("--requests"));
+        long createStart = System.nanoTime();
+        List<byte[]> images = createImages(Integer.parseInt(options.get("--images")));
+        System.out.printf("Created %d different images in %d ms%n", images.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createStart));
+
+        List<AutoCloseable> resources = new ArrayList<>();
+        String url = options.get("--url");
+        if (url == null) {
+            url = startLocalServer(Long.parseLong(options.get("--latency")), Integer.parseInt(options.get("--providers")), resources);
+        }
+        URI uri = URI.create(url + options.get("--endpoint"));
+
+        HttpClient client = HttpClient.newBuilder().build();
+        long[] latencies = new long[requests];
+        LongAdder errors = new LongAdder();
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        System.out.printf("Sending %d requests with %d clients to %s%n", requests, clients, uri);
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            futures.add(executor.submit(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < requests) {
+                    HttpRequest request = HttpRequest.newBuilder(uri)
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(images.get(index % images.size())))
+                            .build();
+                    long requestStart = System.nanoTime();
+                    try {
+                        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                        if (response.statusCode() != 200) {
+                            errors.increment();
+                        }
+                    } catch (Exception ex) {
+                        errors.increment();
+                    }
+                    latencies[index] = System.nanoTime() - requestStart;
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long nanos = System.nanoTime() - start;
+        executor.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("Requests: %d, errors: %d, duration: %d ms, throughput: %.1f requests/s%n",
+                requests, errors.sum(), TimeUnit.NANOSECONDS.toMillis(nanos), requests * 1e9 / nanos);
+        System.out.printf("Latency: mean %.1f ms, p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                Arrays.stream(latencies).average().orElse(0) / 1e6, percentile(latencies, 0.5) / 1e6,
+                percentile(latencies, 0.95) / 1e6, percentile(latencies, 0.99) / 1e6, latencies[requests - 1] / 1e6);
+        if (!resources.isEmpty()) {
+            System.out.println(Metrics.format());
+        }
+        for (int i = resources.size() - 1; i >= 0; i--) {
+            resources.get(i).close();
+        }
+    }
+
+    private static long percentile(long[] sortedValues, double percentile) {
+        return sortedValues[Math.max(0, (int) Math.ceil(percentile * sortedValues.length) - 1)];
+    }
+
+    /**
+     * Starts the server with the same service chain as the application, but in front of the fake backend.
+     * @param providers number of providers, which are routed to the fake backend
+     * @return url of the server
+     */
+    private static String startLocalServer(long latencyMillis, int providers, List<AutoCloseable> resources) throws Exception {
+        File configDir = Files.createTempDirectory("vis-loadtest").toFile();
+        ConfigUtils.initConfig(configDir);
+        ConfigUtils.setProperty(GoogleCloudService.CONFIG_WARM_UP, "false");
+        ConfigUtils.setProperty(GoogleCloudService.CONFIG_PROJECT_ID, "loadtest");
+        ConfigUtils.setProperty(GoogleCloudService.CONFIG_LANGUAGE, "en-US");
+
+        FakeGoogleBackend backend = new FakeGoogleBackend(latencyMillis, 200, 65536);
+        backend.setTextPerImage(true);
+        resources.add(backend);
+        GoogleCloudService googleCloudService = new GoogleCloudService(configDir, null, backend.getChannelProvider());
+        resources.add(googleCloudService);
+        ExecutorService routingExecutor = Executors.newCachedThreadPool();
+        resources.add(routingExecutor::shutdownNow);
+        //all providers use the same backend, like several accounts of one cloud
+        Map<String, IOCRService> ocrProviders = new LinkedHashMap<>();
+        Map<String, ITranslationService> translationProviders = new LinkedHashMap<>();
+        Map<String, ITTSService> ttsProviders = new LinkedHashMap<>();
+        for (int i = 1; i <= Math.max(1, providers); i++) {
+            String name = i == 1 ? GoogleCloudServiceProvider.NAME : GoogleCloudServiceProvider.NAME + i;
+            ocrProviders.put(name, googleCloudService);
+            translationProviders.put(name, googleCloudService);
+            ttsProviders.put(name, googleCloudService);
+        }
+        RoutingOCRService routingOcrService = new RoutingOCRService(ocrProviders, routingExecutor);
+        RoutingTranslationService routingTranslationService = new RoutingTranslationService(translationProviders, routingExecutor);
+        RoutingTTSService routingTtsService = new RoutingTTSService(ttsProviders, routingExecutor);
+        CachingOCRService ocrService = new CachingOCRService(new PreprocessingOCRService(routingOcrService), new File(configDir, "cache/ocr.cache"));
+        resources.add(ocrService);
+        TranslationMemoryService translationService = new TranslationMemoryService(routingTranslationService, new File(configDir, "cache/translation.memory"));
+        resources.add(translationService);
+        StreamingTTSService ttsService = new StreamingTTSService(new CachingTTSService(routingTtsService, new File(configDir, "cache/tts")));
+        resources.add(ttsService);
+        VisServer server = new VisServer(ocrService, translationService, ttsService);
+        server.start(0);
+        resources.add(server);
+        return "http://127.0.0.1:" + server.getPort();
+    }
+
+    /**
+     * @return PNG encoded screenshots, which differ by marks in the title bar (the bits of their number)
+     */
+    private static List<byte[]> createImages(int count) throws Exception {
+        List<byte[]> images = new ArrayList<>();
+        BufferedImage screenshot = Screenshots.create("1280x720");
+        for (int i = 0; i < count; i++) {
+            BufferedImage image = new BufferedImage(screenshot.getWidth(), screenshot.getHeight(), screenshot.getType());
+            Graphics2D graphics = image.createGraphics();
+            graphics.drawImage(screenshot, 0, 0, null);
+            graphics.setColor(Color.WHITE);
+            for (int bit = 0; bit < 32; bit++) {
+                if ((i >>> bit & 1) != 0) {
+                    graphics.fillRect(8 + bit * 12, 8, 8, 8);
+                }
+            }
+            graphics.dispose();
+            //the fastest compression, the server encodes the image again anyway
+            images.add(ImageUtils.encode(image, ImageUtils.FORMAT_PNG, 1));
+        }
+        return images;
+    }
+
+}
@@ -0,0 +1,93 @@
+package de.cech12.vis.benchmark;
+
+import com.google.cloud.texttospeech.v1.AudioConfig;
+import com.google.cloud.texttospeech.v1.AudioEncoding;
+import com.google.cloud.texttospeech.v1.SynthesisInput;
+import com.google.cloud.texttospeech.v1.SynthesizeSpeechRequest;
+import com.google.cloud.texttospeech.v1.VoiceSelectionParams;
+import com.google.cloud.translate.v3.TranslateTextRequest;
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.BatchAnnotateImagesRequest;
+import com.google.cloud.vision.v1.Feature;
+import com.google.cloud.vision.v1.Image;
+import com.google.protobuf.UnsafeByteOperations;
+import de.cech12.vis.utils.ImageUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and serializing the protobuf requests, like the Google Cloud service does it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RequestBuildingBenchmark {
+
+    @Param({"1920x1080"})
+    public String resolution;
+
+    @Param({"20"})
+    public int sentences;
+
+    private byte[] png;
+    private String text;
+    private List<String> texts;
+
+    @Setup
+    public void setUp() throws Exception {
+        png = ImageUtils.encodePng(Screenshots.create(resolution));
+        texts = new ArrayList<>();
+        for (int i = 0; i < sentences; i++) {
+            texts.add("Das ist der " + i + ". Satz des Textes, der im Bild gefunden wurde.");
+        }
+        text = String.join(" ", texts);
+    }
+
+    @Benchmark
+    public byte[] visionRequest() throws Exception {
+        AnnotateImageRequest request = AnnotateImageRequest.newBuilder()
+                .addFeatures(Feature.newBuilder().setType(Feature.Type.DOCUMENT_TEXT_DETECTION).build())
+                .setImage(Image.newBuilder().setContent(UnsafeByteOperations.unsafeWrap(ByteBuffer.wrap(png).asReadOnlyBuffer())).build())
+                .build();
+        return BatchAnnotateImagesRequest.newBuilder().addRequests(request).build().toByteArray();
+    }
+
+    @Benchmark
+    public byte[] ttsRequest() {
+        return SynthesizeSpeechRequest.newBuilder()
+                .setInput(SynthesisInput.newBuilder().setText(text))
+                .setVoice(VoiceSelectionParams.newBuilder().setLanguageCode("en-US").setName("en-US-Standard-A"))
+                .setAudioConfig(AudioConfig.newBuilder().setAudioEncoding(AudioEncoding.MP3).setSpeakingRate(1).setPitch(0))
+                .build()
+                .toByteArray();
+    }
+
+    @Benchmark
+    public byte[] translationRequest() {
+        return TranslateTextRequest.newBuilder()
+                .setParent("projects/benchmark/locations/global")
+                .setMimeType("text/plain")
+                .setTargetLanguageCode("en-US")
+                .addAllContents(texts)
+                .build()
+                .toByteArray();
+    }
+
+}
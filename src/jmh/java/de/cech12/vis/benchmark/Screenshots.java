@@ -0,0 +1,52 @@
+package de.cech12.vis.benchmark;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Creates images, which look like screenshots of an application window: a title bar, a side bar and
+ * anti-aliased text lines on a light background.
+ */
+final class Screenshots {
+
+    private static final String LINE = "Lorem ipsum dolor sit amet, consetetur sadipscing elitr, sed diam nonumy eirmod tempor invidunt ut labore.";
+
+    private Screenshots() {}
+
+    /**
+     * @param resolution e.g. "1920x1080"
+     */
+    static BufferedImage create(String resolution) {
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HRGB);
+            graphics.setColor(new Color(245, 245, 245));
+            graphics.fillRect(0, 0, width, height);
+            graphics.setColor(new Color(40, 60, 90));
+            graphics.fillRect(0, 0, width, 32);
+            graphics.setColor(new Color(225, 228, 232));
+            graphics.fillRect(0, 32, width / 6, height - 32);
+
+            Random random = new Random(42);
+            graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 14));
+            int lineHeight = graphics.getFontMetrics().getHeight() + 4;
+            for (int y = 60; y < height - lineHeight; y += lineHeight) {
+                graphics.setColor(random.nextInt(10) == 0 ? new Color(0, 90, 180) : Color.DARK_GRAY);
+                int length = LINE.length() / 2 + random.nextInt(LINE.length() / 2);
+                graphics.drawString(LINE.substring(0, length), width / 6 + 20, y);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+}
@@ -1,42 +1,81 @@
 package de.cech12.vis;
 
-import de.cech12.vis.service.GoogleCloudService;
+import de.cech12.vis.audio.SpeechPlayer;
+import de.cech12.vis.batch.BatchConverter;
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.metrics.MetricsDialog;
+import de.cech12.vis.metrics.Span;
+import de.cech12.vis.pipeline.ClipboardWatcher;
+import de.cech12.vis.pipeline.ConversionPipeline;
+import de.cech12.vis.pipeline.IncrementalReader;
+import de.cech12.vis.pipeline.ReadQueue;
+import de.cech12.vis.server.VisServer;
+import de.cech12.vis.service.CachingOCRService;
+import de.cech12.vis.service.CancellationToken;
+import de.cech12.vis.service.CachingTTSService;
 import de.cech12.vis.service.IOCRService;
 import de.cech12.vis.service.ITTSService;
 import de.cech12.vis.service.ITranslationService;
+import de.cech12.vis.service.PreprocessingOCRService;
+import de.cech12.vis.service.RoutingOCRService;
+import de.cech12.vis.service.RoutingTTSService;
+import de.cech12.vis.service.RoutingTranslationService;
+import de.cech12.vis.service.ServiceRegistry;
+import de.cech12.vis.service.SpeechStream;
+import de.cech12.vis.service.StreamingTTSService;
+import de.cech12.vis.service.TranslationMemoryService;
 import de.cech12.vis.utils.ConfigUtils;
-import javazoom.jl.decoder.JavaLayerException;
-import javazoom.jl.player.Player;
+import de.cech12.vis.utils.ExecutorUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.UnsupportedFlavorException;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 
 public class Main {
 
     public static final String APPLICATION_NAME = "VIS";
     public static final Logger LOGGER = LogManager.getLogger(Main.class);
 
+    public static final String BATCH_ARGUMENT = "--batch";
+    public static final String SERVER_ARGUMENT = "--server";
+    /** System property, which lets the application exit when the first window is shown (training and measuring of the startup) */
+    public static final String STARTUP_EXIT_PROPERTY = "vis.startup.exit";
+
     public static final String CONFIG_TRANSLATION_ACTIVE = "main.translation.active";
+    public static final String CONFIG_STREAMING_ACTIVE = "main.streaming.active";
+    public static final String CONFIG_EXECUTOR = "main.executor";
+    public static final String CONFIG_OCR_TIMEOUT = "main.ocr.timeout.ms";
 
     private static IOCRService ocrService;
     private static ITranslationService translationService;
     private static ITTSService ttsService;
 
     private static JButton button;
+    private static JButton pauseButton;
+    private static JButton skipButton;
+    private static JButton stopButton;
+    private static DefaultListModel<ReadQueue.Item> queueModel;
+    private static JList<ReadQueue.Item> queueList;
     private static JLabel uiMessage;
-    private static Thread speechThread = null;
-    private static Player player = null;
+    private static ExecutorService executor;
+    private static ConversionPipeline pipeline;
+    private static IncrementalReader incrementalReader;
+    private static SpeechPlayer speechPlayer;
+    private static ClipboardWatcher clipboardWatcher;
+    private static ReadQueue readQueue;
 
 
     public static void main(String[] args) {
@@ -48,21 +87,106 @@ public class Main {
                 return;
             }
             ConfigUtils.initConfig(configDir);
-            GoogleCloudService gcs = new GoogleCloudService(configDir);
-            ocrService = gcs;
-            translationService = gcs;
-            ttsService = gcs;
-            createWindow();
+            Metrics.startExport(new File(configDir, "metrics.tsv"));
+            ConfigUtils.getBooleanPropertyOrDefault(CONFIG_STREAMING_ACTIVE, true);
+            ConfigUtils.getBooleanPropertyOrDefault(CONFIG_TRANSLATION_ACTIVE, false);
+            ConfigUtils.getIntPropertyOrDefault(CONFIG_OCR_TIMEOUT, 20000);
+            executor = ExecutorUtils.createExecutor(ConfigUtils.getPropertyOrDefault(CONFIG_EXECUTOR, ExecutorUtils.VIRTUAL), "vis-main");
+            ServiceRegistry registry = new ServiceRegistry(configDir);
+            RoutingOCRService routingOcrService = new RoutingOCRService(registry.getServices(IOCRService.class), executor);
+            RoutingTranslationService routingTranslationService = new RoutingTranslationService(registry.getServices(ITranslationService.class), executor);
+            RoutingTTSService routingTtsService = new RoutingTTSService(registry.getServices(ITTSService.class), executor);
+            CachingOCRService cachingOcrService = new CachingOCRService(new PreprocessingOCRService(routingOcrService), new File(configDir, "cache/ocr.cache"));
+            TranslationMemoryService translationMemoryService = new TranslationMemoryService(routingTranslationService, new File(configDir, "cache/translation.memory"));
+            StreamingTTSService streamingTtsService = new StreamingTTSService(new CachingTTSService(routingTtsService, new File(configDir, "cache/tts")));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                streamingTtsService.close();
+                cachingOcrService.close();
+                translationMemoryService.close();
+                registry.close();
+            }, "vis-shutdown"));
+            ocrService = cachingOcrService;
+            translationService = translationMemoryService;
+            ttsService = streamingTtsService;
+            incrementalReader = new IncrementalReader();
+            pipeline = new ConversionPipeline(ocrService, translationService, ttsService, executor, incrementalReader);
+            speechPlayer = new SpeechPlayer(executor, ttsService::getPlaybackSpeed);
+            clipboardWatcher = new ClipboardWatcher(Main::readClipboardImage, ocrService, translationService, ttsService, executor,
+                    () -> ConfigUtils.getBooleanProperty(CONFIG_TRANSLATION_ACTIVE), () -> ConfigUtils.getBooleanProperty(CONFIG_STREAMING_ACTIVE),
+                    () -> ConfigUtils.getIntProperty(CONFIG_OCR_TIMEOUT), () -> runOnEdt(Main::autoRead));
+            readQueue = new ReadQueue(Main::runImageToSpeechConversion, speechPlayer, executor, () -> runOnEdt(Main::updateQueueControls),
+                    Main::showErrorMessage);
+            if (args.length > 0 && BATCH_ARGUMENT.equals(args[0])) {
+                runBatch(args);
+                return;
+            }
+            if (args.length > 0 && SERVER_ARGUMENT.equals(args[0])) {
+                runServer(args);
+                return;
+            }
+            if (GraphicsEnvironment.isHeadless()) {
+                LOGGER.error("No display available. Use {} or {} without a display.", BATCH_ARGUMENT, SERVER_ARGUMENT);
+            } else {
+                createWindow();
+            }
         } catch (Exception ex) {
+            //no startup is reported, so a training or measuring run fails
             LOGGER.error("Failed to initialize.", ex);
+            return;
+        }
+        LOGGER.info("{} started in {} ms.", APPLICATION_NAME, ManagementFactory.getRuntimeMXBean().getUptime());
+        if (GraphicsEnvironment.isHeadless() && Boolean.getBoolean(STARTUP_EXIT_PROPERTY)) {
+            //without a window, the startup is measured up to the point where the window would be created
+            reportStartup("initialized (headless, no window)");
+        }
+    }
+
+    /**
+     * Logs the time since the start of the JVM (parsed by the startup report of the build).
+     * @return true, if the application was started to train or to measure the startup and should end now
+     * (see {@link #STARTUP_EXIT_PROPERTY})
+     */
+    private static boolean reportStartup(String milestone) {
+        long millis = ManagementFactory.getRuntimeMXBean().getUptime();
+        int classes = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+        LOGGER.info("Startup: {} after {} ms, {} classes loaded.", milestone, millis, classes);
+        return Boolean.getBoolean(STARTUP_EXIT_PROPERTY);
+    }
+
+    private static void runBatch(String[] args) throws Exception {
+        if (args.length < 3) {
+            LOGGER.error("Usage: " + BATCH_ARGUMENT + " <input directory> <output directory>");
+            System.exit(2);
+        }
+        boolean translationActive = ConfigUtils.getBooleanPropertyOrDefault(CONFIG_TRANSLATION_ACTIVE, false);
+        BatchConverter converter = new BatchConverter(ocrService, translationService, ttsService, translationActive);
+        boolean success = converter.run(Path.of(args[1]), Path.of(args[2]));
+        System.exit(success ? 0 : 1);
+    }
+
+    private static void runServer(String[] args) throws Exception {
+        VisServer server = new VisServer(ocrService, translationService, ttsService);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "vis-server-shutdown"));
+        if (args.length > 1) {
+            server.start(Integer.parseInt(args[1]));
+        } else {
+            server.start();
         }
-        LOGGER.info(APPLICATION_NAME + " started.");
     }
 
     private static void createWindow() throws Exception {
         JFrame frame = new JFrame(APPLICATION_NAME);
-        frame.setSize(400,480);
+        frame.setSize(400,640);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent event) {
+                if (reportStartup("first window shown")) {
+                    //closing the window ends the application like the user would
+                    frame.dispatchEvent(new WindowEvent(frame, WindowEvent.WINDOW_CLOSING));
+                }
+            }
+        });
 
         JPanel panel = new JPanel();
         panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
@@ -75,154 +199,236 @@ public class Main {
 
         panel.add(Box.createRigidArea(new Dimension(0, 30)));
 
-        JCheckBox translationCheckbox = new JCheckBox("Translation active", Boolean.parseBoolean(ConfigUtils.getPropertyOrDefault(CONFIG_TRANSLATION_ACTIVE, "false")));
+        JCheckBox translationCheckbox = new JCheckBox("Translation active", ConfigUtils.getBooleanPropertyOrDefault(CONFIG_TRANSLATION_ACTIVE, false));
         translationCheckbox.setAlignmentX(Component.CENTER_ALIGNMENT);
-        translationCheckbox.addActionListener(e -> {
-            try {
-                ConfigUtils.setProperty(CONFIG_TRANSLATION_ACTIVE, String.valueOf(translationCheckbox.isSelected()));
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
+        translationCheckbox.addActionListener(e -> ConfigUtils.setProperty(CONFIG_TRANSLATION_ACTIVE, String.valueOf(translationCheckbox.isSelected())));
+        panel.add(translationCheckbox);
+
+        JCheckBox incrementalCheckbox = new JCheckBox("Read only new text", incrementalReader.isActive());
+        incrementalCheckbox.setAlignmentX(Component.CENTER_ALIGNMENT);
+        incrementalCheckbox.addActionListener(e -> {
+            ConfigUtils.setProperty(IncrementalReader.CONFIG_ACTIVE, String.valueOf(incrementalCheckbox.isSelected()));
+            incrementalReader.reset();
+        });
+        panel.add(incrementalCheckbox);
+
+        JCheckBox watchCheckbox = new JCheckBox("Watch clipboard", ConfigUtils.getBooleanProperty(ClipboardWatcher.CONFIG_ACTIVE));
+        watchCheckbox.setAlignmentX(Component.CENTER_ALIGNMENT);
+        watchCheckbox.addActionListener(e -> {
+            ConfigUtils.setProperty(ClipboardWatcher.CONFIG_ACTIVE, String.valueOf(watchCheckbox.isSelected()));
+            if (watchCheckbox.isSelected()) {
+                clipboardWatcher.start();
+            } else {
+                clipboardWatcher.stop();
             }
         });
-        panel.add(translationCheckbox);
+        panel.add(watchCheckbox);
+        if (watchCheckbox.isSelected()) {
+            clipboardWatcher.start();
+        }
 
         panel.add(Box.createRigidArea(new Dimension(0, 5)));
 
+        JButton statisticsButton = new JButton("Show Statistics");
+        statisticsButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        statisticsButton.addActionListener(e -> new MetricsDialog(frame).setVisible(true));
+
         button = new JButton();
-        setButtonTextToSpeechConversion();
         button.setAlignmentX(Component.CENTER_ALIGNMENT);
         button.addActionListener(e -> selectionButtonPressed());
         panel.add(button);
 
         panel.add(Box.createRigidArea(new Dimension(0, 5)));
 
+        JPanel playbackPanel = new JPanel();
+        pauseButton = new JButton("Pause Speech");
+        pauseButton.addActionListener(e -> pauseButtonPressed());
+        playbackPanel.add(pauseButton);
+        skipButton = new JButton("Skip");
+        skipButton.addActionListener(e -> readQueue.skip());
+        playbackPanel.add(skipButton);
+        stopButton = new JButton("Stop All");
+        stopButton.addActionListener(e -> readQueue.clear());
+        playbackPanel.add(stopButton);
+        panel.add(playbackPanel);
+
+        //images, which are read one after the other
+        queueModel = new DefaultListModel<>();
+        queueList = new JList<>(queueModel);
+        queueList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        queueList.setVisibleRowCount(4);
+        panel.add(new JScrollPane(queueList));
+        JPanel queuePanel = new JPanel();
+        JButton upButton = new JButton("Move Up");
+        upButton.addActionListener(e -> moveSelectedImage(-1));
+        queuePanel.add(upButton);
+        JButton downButton = new JButton("Move Down");
+        downButton.addActionListener(e -> moveSelectedImage(1));
+        queuePanel.add(downButton);
+        JButton removeButton = new JButton("Remove");
+        removeButton.addActionListener(e -> {
+            ReadQueue.Item item = queueList.getSelectedValue();
+            if (item != null) {
+                readQueue.remove(item);
+            }
+        });
+        queuePanel.add(removeButton);
+        panel.add(queuePanel);
+        updateQueueControls();
+
+        panel.add(Box.createRigidArea(new Dimension(0, 5)));
+
         uiMessage = new JLabel(" ");
         uiMessage.setAlignmentX(Component.CENTER_ALIGNMENT);
         uiMessage.setForeground(Color.RED);
         panel.add(uiMessage);
 
+        panel.add(Box.createRigidArea(new Dimension(0, 10)));
+        panel.add(statisticsButton);
+
         panel.add(Box.createVerticalGlue()); //centered
         frame.setVisible(true);
     }
 
+    /**
+     * Adds the image of the clipboard to the read queue. It is read at once, if nothing is played.
+     */
     private static void selectionButtonPressed() {
         resetShownMessage();
-        if (speechThread != null && speechThread.isAlive() && !speechThread.isInterrupted()) {
-            stopSpeech();
-        } else {
-            deactivateButton();
-            setButtonTextToWaiting();
-            new Thread(() -> {
-                runImageToSpeechConversion();
-                activateButton();
-            }).start();
-        }
+        long conversionId = Metrics.nextConversionId();
+        Span pressToSpeechSpan = Metrics.start(Metrics.STAGE_PRESS_TO_SPEECH, conversionId);
+        ExecutorUtils.supplyAsync(() -> getImageFromClipboard(conversionId), executor).whenComplete((image, ex) -> {
+            if (ex != null) {
+                Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                showErrorMessage("Failed to read the clipboard: " + cause.getMessage());
+                pressToSpeechSpan.fail();
+                pressToSpeechSpan.close();
+            } else if (image == null) {
+                showInfoMessage("No image was found on the clipboard.");
+                pressToSpeechSpan.cancel();
+                pressToSpeechSpan.close();
+            } else if (!readQueue.add(image, conversionId, pressToSpeechSpan)) {
+                showInfoMessage("The read queue is full.");
+            }
+        });
     }
 
-    private static void deactivateButton() {
-        button.setEnabled(false);
+    /**
+     * Adds a new clipboard image to the read queue.
+     */
+    private static void autoRead() {
+        selectionButtonPressed();
     }
 
-    private static void activateButton() {
-        button.setEnabled(true);
+    private static void moveSelectedImage(int offset) {
+        ReadQueue.Item item = queueList.getSelectedValue();
+        if (item != null) {
+            readQueue.move(item, offset);
+            queueList.setSelectedValue(item, true);
+        }
     }
 
-    private static void setButtonTextToSpeechConversion() {
-        button.setText("Read Image from Clipboard");
+    /**
+     * Shows the images of the read queue and enables the controls, which fit to its state.
+     */
+    private static void updateQueueControls() {
+        if (button == null) { //no window in batch and server mode
+            return;
+        }
+        boolean active = readQueue.isActive();
+        button.setText(active ? "Add Image to Queue" : "Read Image from Clipboard");
+        skipButton.setEnabled(active);
+        stopButton.setEnabled(active);
+        pauseButton.setEnabled(speechPlayer.isPlaying());
+        pauseButton.setText(speechPlayer.isPaused() ? "Resume Speech" : "Pause Speech");
+        ReadQueue.Item selected = queueList.getSelectedValue();
+        queueModel.clear();
+        queueModel.addAll(readQueue.getItems());
+        queueList.setSelectedValue(selected, false);
     }
 
-    private static void setButtonTextToWaiting() {
-        button.setText("Speech is generating...");
+    private static void pauseButtonPressed() {
+        if (speechPlayer.isPaused()) {
+            speechPlayer.resume();
+            pauseButton.setText("Pause Speech");
+        } else {
+            speechPlayer.pause();
+            pauseButton.setText("Resume Speech");
+        }
     }
 
-    private static void setButtonTextToStopSpeech() {
-        button.setText("Stop Speech");
+    /**
+     * Runs the given UI update on the event dispatch thread.
+     */
+    public static void runOnEdt(Runnable runnable) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            runnable.run();
+        } else {
+            SwingUtilities.invokeLater(runnable);
+        }
     }
 
     public static void resetShownMessage() {
-        uiMessage.setText(" ");
+        showMessage(" ");
     }
 
     public static void showInfoMessage(String message) {
         LOGGER.info(message);
-        uiMessage.setText("Info: " + message);
+        showMessage("Info: " + message);
     }
 
     public static void showErrorMessage(String message) {
         LOGGER.error(message);
-        uiMessage.setText("Error:" + message);
+        showMessage("Error:" + message);
     }
 
-    private static void runImageToSpeechConversion() {
-        LOGGER.info("Run image to speech conversion.");
-        try {
-            InputStream imageStream = getImageFromClipboard();
-            if (imageStream == null) {
-                showInfoMessage("No image was found on the clipboard.");
-                setButtonTextToSpeechConversion();
-                return;
-            }
-
-            String text = ocrService.getTextFromImage(imageStream);
-            LOGGER.info("Generated text: {}", text);
-
-            String targetLanguage = ttsService.getTargetLanguage();
-            if (Boolean.parseBoolean(ConfigUtils.getProperty(CONFIG_TRANSLATION_ACTIVE)) && translationService.isTranslationAvailableForLanguage(targetLanguage)) {
-                text = translationService.getTranslationOfText(targetLanguage, text);
-            }
-
-            InputStream speech = ttsService.getSpeechFromText(text);
+    private static void showMessage(String message) {
+        if (uiMessage != null) { //no window in batch mode
+            runOnEdt(() -> uiMessage.setText(message));
+        }
+    }
 
-            if (speech == null) {
-                showErrorMessage("No speech was generated.");
-                setButtonTextToSpeechConversion();
-                return;
-            }
+    /**
+     * Converts an image of the read queue into speech.
+     */
+    private static CompletableFuture<SpeechStream> runImageToSpeechConversion(BufferedImage image, long conversionId, CancellationToken token,
+                                                                              CompletableFuture<Void> turn) {
+        LOGGER.info("Run image to speech conversion.");
+        boolean translationActive = ConfigUtils.getBooleanProperty(CONFIG_TRANSLATION_ACTIVE);
+        boolean streamingActive = ConfigUtils.getBooleanProperty(CONFIG_STREAMING_ACTIVE);
+        return ExecutorUtils.supplyAsync(() -> {
+                    clipboardWatcher.awaitPrefetch(image);
+                    return image;
+                }, executor)
+                .thenCompose(ignored -> pipeline.run(image, translationActive, streamingActive, conversionId, token, turn))
+                .thenApply(speech -> {
+                    if (speech.size() == 0) {
+                        showInfoMessage("No new text since the last read.");
+                    }
+                    return speech;
+                });
+    }
 
-            playSpeech(speech);
-        } catch (Exception ex) {
-            showErrorMessage("Failed to run conversion: " + ex.getMessage());
-            setButtonTextToSpeechConversion();
-            LOGGER.error("Failed to run conversion.", ex);
+    private static BufferedImage getImageFromClipboard(long conversionId) throws Exception {
+        LOGGER.info("Get image from clipboard.");
+        Span span = Metrics.start(Metrics.STAGE_CLIPBOARD, conversionId);
+        try {
+            return readClipboardImage();
+        } finally {
+            span.close();
         }
     }
 
-    private static InputStream getImageFromClipboard() throws Exception {
-        LOGGER.info("Get image from clipboard.");
+    private static BufferedImage readClipboardImage() throws Exception {
         Clipboard c = Toolkit.getDefaultToolkit().getSystemClipboard();
+        if (!c.isDataFlavorAvailable(DataFlavor.imageFlavor)) {
+            return null;
+        }
         try {
-            BufferedImage img = (BufferedImage) c.getData(DataFlavor.imageFlavor);
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            ImageIO.write(img, "png", os);
-            return new ByteArrayInputStream(os.toByteArray());
+            return (BufferedImage) c.getData(DataFlavor.imageFlavor);
         } catch (UnsupportedFlavorException ex) {
             return null;
         }
     }
 
-    private static void playSpeech(InputStream speech) throws Exception {
-        LOGGER.info("Play speech.");
-        player = new Player(speech);
-        // Starte die Wiedergabe in einem separaten Thread
-        speechThread = new Thread(() -> {
-            setButtonTextToStopSpeech();
-            try {
-                player.play();
-            } catch (JavaLayerException ex) {
-                LOGGER.error("Error while trying to play the generated speech.", ex);
-            }
-            setButtonTextToSpeechConversion();
-        });
-        speechThread.start();
-    }
-
-    private static void stopSpeech() {
-        LOGGER.info("Stop speech.");
-        player.close();
-        player = null;
-        speechThread.interrupt();
-        speechThread = null;
-        setButtonTextToSpeechConversion();
-    }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,144 @@
+package de.cech12.vis.audio;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Decodes generated speech (MP3 or WAV with LINEAR16 samples) into PCM samples.
+ */
+public class AudioDecoder {
+
+    public static final String EXTENSION_MP3 = ".mp3";
+    public static final String EXTENSION_WAV = ".wav";
+
+    private AudioDecoder() {}
+
+    public static boolean isWav(byte[] header) {
+        return header.length >= 4 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F';
+    }
+
+    public static AudioInputStream decode(InputStream speech) throws Exception {
+        //in-memory streams are read directly, without copying them through another buffer
+        InputStream in = speech.markSupported() ? speech : new BufferedInputStream(speech);
+        in.mark(4);
+        byte[] header = in.readNBytes(4);
+        in.reset();
+        if (isWav(header)) {
+            return AudioSystem.getAudioInputStream(in);
+        }
+        Mp3InputStream mp3 = new Mp3InputStream(in);
+        return new AudioInputStream(mp3, mp3.getFormat(), AudioSystem.NOT_SPECIFIED);
+    }
+
+    private static boolean isStretched(double[] speeds) {
+        for (double speed : speeds) {
+            if (speed != 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the file extension of the format, in which {@link #write(List, double[], OutputStream)} writes the chunks
+     */
+    public static String getExtension(List<byte[]> chunks, double[] speeds) {
+        return isStretched(speeds) || (!chunks.isEmpty() && isWav(chunks.get(0))) ? EXTENSION_WAV : EXTENSION_MP3;
+    }
+
+    /**
+     * Writes the speech chunks as one audio file. A speed other than 1 is applied with a {@link TimeStretcher},
+     * so the samples are written as WAV file.
+     * @param speeds playback speed of each chunk (chunks of different providers may have different speeds)
+     * @return the file extension of the written format
+     */
+    public static String write(List<byte[]> chunks, double[] speeds, OutputStream out) throws Exception {
+        if (isStretched(speeds)) {
+            writeStretched(chunks, speeds, out);
+            return EXTENSION_WAV;
+        }
+        if (!chunks.isEmpty() && isWav(chunks.get(0))) {
+            writeWav(chunks, out);
+            return EXTENSION_WAV;
+        }
+        //MP3 frames can simply be concatenated, so the chunks of a stream are written one after another
+        for (byte[] chunk : chunks) {
+            out.write(chunk);
+        }
+        return EXTENSION_MP3;
+    }
+
+    public static void writeStretched(List<byte[]> chunks, double[] speeds, OutputStream out) throws Exception {
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        TimeStretcher stretcher = null;
+        byte[] buffer = new byte[16384];
+        for (int i = 0; i < chunks.size(); i++) {
+            try (AudioInputStream audio = decode(new ByteArrayInputStream(chunks.get(i)))) {
+                if (stretcher == null) {
+                    if (!TimeStretcher.isSupported(audio.getFormat())) {
+                        throw new IOException("Speech with the format " + audio.getFormat() + " cannot be time-stretched.");
+                    }
+                    stretcher = new TimeStretcher(audio.getFormat());
+                } else if (!stretcher.getFormat().matches(audio.getFormat())) {
+                    throw new IOException("Speech chunks have different audio formats.");
+                }
+                stretcher.setSpeed(speeds[i]);
+                int read;
+                while ((read = audio.readNBytes(buffer, 0, buffer.length)) > 0) {
+                    stretcher.put(buffer, 0, read);
+                    receive(stretcher, buffer, pcm);
+                }
+            }
+        }
+        if (stretcher == null) {
+            throw new IOException("No speech chunks to write.");
+        }
+        stretcher.flush();
+        receive(stretcher, buffer, pcm);
+        AudioFormat format = stretcher.getFormat();
+        byte[] data = pcm.toByteArray();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data), format, data.length / format.getFrameSize()),
+                AudioFileFormat.Type.WAVE, out);
+    }
+
+    private static void receive(TimeStretcher stretcher, byte[] buffer, OutputStream out) throws IOException {
+        int length;
+        while ((length = stretcher.receive(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Unlike MP3 frames, WAV files cannot simply be concatenated. Their samples are joined into a single WAV file.
+     */
+    public static void writeWav(List<byte[]> chunks, OutputStream out) throws Exception {
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        AudioFormat format = null;
+        for (byte[] chunk : chunks) {
+            try (AudioInputStream audio = AudioSystem.getAudioInputStream(new ByteArrayInputStream(chunk))) {
+                if (format == null) {
+                    format = audio.getFormat();
+                } else if (!format.matches(audio.getFormat())) {
+                    throw new IOException("Speech chunks have different audio formats.");
+                }
+                audio.transferTo(pcm);
+            }
+        }
+        if (format == null) {
+            throw new IOException("No speech chunks to write.");
+        }
+        byte[] data = pcm.toByteArray();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data), format, data.length / format.getFrameSize()),
+                AudioFileFormat.Type.WAVE, out);
+    }
+
+}
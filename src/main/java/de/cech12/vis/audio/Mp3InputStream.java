@@ -0,0 +1,104 @@
+package de.cech12.vis.audio;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes MP3 frames on demand and provides their samples as signed 16 bit little-endian PCM.
+ */
+class Mp3InputStream extends InputStream {
+
+    private final Bitstream bitstream;
+    private final Decoder decoder = new Decoder();
+    private final AudioFormat format;
+    private byte[] buffer = new byte[0];
+    private int position = 0;
+    private int length = 0;
+    private boolean ended = false;
+
+    Mp3InputStream(InputStream mp3) throws IOException {
+        bitstream = new Bitstream(mp3);
+        //the format is known after the first frame
+        if (decodeFrame()) {
+            format = new AudioFormat(decoder.getOutputFrequency(), 16, decoder.getOutputChannels(), true, false);
+        } else {
+            format = new AudioFormat(24000, 16, 1, true, false);
+        }
+    }
+
+    AudioFormat getFormat() {
+        return format;
+    }
+
+    private boolean decodeFrame() throws IOException {
+        if (ended) {
+            return false;
+        }
+        try {
+            Header header = bitstream.readFrame();
+            if (header == null) {
+                ended = true;
+                return false;
+            }
+            SampleBuffer output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+            short[] samples = output.getBuffer();
+            int sampleCount = output.getBufferLength();
+            if (buffer.length < sampleCount * 2) {
+                buffer = new byte[sampleCount * 2];
+            }
+            for (int i = 0; i < sampleCount; i++) {
+                buffer[i * 2] = (byte) samples[i];
+                buffer[i * 2 + 1] = (byte) (samples[i] >> 8);
+            }
+            position = 0;
+            length = sampleCount * 2;
+            bitstream.closeFrame();
+            return true;
+        } catch (JavaLayerException ex) {
+            throw new IOException("Failed to decode MP3 frame.", ex);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (position >= length) {
+            if (!decodeFrame()) {
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (position >= length) {
+            if (!decodeFrame()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, length - position);
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            bitstream.close();
+        } catch (JavaLayerException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+}
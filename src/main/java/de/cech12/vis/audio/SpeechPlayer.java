@@ -0,0 +1,332 @@
+package de.cech12.vis.audio;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.metrics.Span;
+import de.cech12.vis.service.SpeechStream;
+import de.cech12.vis.utils.ConfigUtils;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineEvent;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.io.InputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Plays speech streams chunk by chunk on a thread of the given executor. Only one stream is played at a time.
+ * The chunks are decoded to PCM and written into one audio line, so consecutive chunks are played without gaps.
+ * Stopping discards the buffered samples of the line, so the playback stops instantly.
+ * If time stretching is active, the samples pass a {@link TimeStretcher}, which applies the current playback speed.
+ */
+public class SpeechPlayer {
+
+    public static final String CONFIG_BUFFER_MILLIS = "audio.buffer.millis";
+
+    private final ExecutorService executor;
+    private final DoubleSupplier speed;
+
+    private Future<?> playback = null;
+    private SpeechStream speech = null;
+    private SourceDataLine line = null;
+    private boolean paused = false;
+    private int generation = 0;
+
+    /**
+     * Sample buffers and the time stretcher of a playback, which are reused for all its chunks.
+     */
+    private static class PlaybackBuffers {
+        private byte[] samples;
+        private byte[] stretched;
+        private TimeStretcher stretcher;
+        private SourceDataLine observedLine; //line, whose start closes the first sample span
+    }
+
+    /**
+     * @param speed current playback speed (read for every block of samples, so changes apply while playing), if the
+     *              chunk does not have its own speed (see {@link SpeechStream#getPlaybackSpeed(InputStream, DoubleSupplier)})
+     */
+    public SpeechPlayer(ExecutorService executor, DoubleSupplier speed) {
+        this.executor = executor;
+        this.speed = speed;
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_BUFFER_MILLIS, 100);
+        TimeStretcher.isActive();
+    }
+
+    public synchronized boolean isPlaying() {
+        return playback != null && !playback.isDone();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Stops the current playback and plays the given stream.
+     * @param onStart called when the playback thread started
+     * @param onFirstChunk called when the first chunk is available and its playback starts
+     * @param onError called when the speech could not be generated or played
+     * @param onFinish called when the playback ended on its own (not after {@link #stop()})
+     */
+    public synchronized void play(SpeechStream speech, Runnable onStart, Runnable onFirstChunk, Consumer<Exception> onError, Runnable onFinish) {
+        stop();
+        int playbackGeneration = generation;
+        long start = System.nanoTime();
+        this.speech = speech;
+        playback = executor.submit(() -> {
+            onStart.run();
+            Span playbackSpan = Metrics.start(Metrics.STAGE_PLAYBACK, speech.getConversionId());
+            Span firstAudioSpan = Metrics.start(Metrics.STAGE_FIRST_AUDIO, speech.getConversionId());
+            Span firstSampleSpan = null;
+            PlaybackBuffers buffers = new PlaybackBuffers();
+            try {
+                InputStream chunk;
+                boolean first = true;
+                while ((chunk = speech.next()) != null) {
+                    if (first) {
+                        Main.LOGGER.info("First speech chunk available after {} ms.", (System.nanoTime() - start) / 1_000_000);
+                        firstAudioSpan.close();
+                        firstSampleSpan = Metrics.start(Metrics.STAGE_FIRST_SAMPLE, speech.getConversionId());
+                        onFirstChunk.run();
+                        first = false;
+                    }
+                    DoubleSupplier chunkSpeed = SpeechStream.getPlaybackSpeed(chunk, speed);
+                    try (AudioInputStream audio = AudioDecoder.decode(chunk)) {
+                        if (!playChunk(audio, chunkSpeed, playbackGeneration, firstSampleSpan, buffers)) {
+                            return;
+                        }
+                    }
+                }
+                if (!finishStretching(buffers, playbackGeneration)) {
+                    return;
+                }
+                SourceDataLine currentLine = getCurrentLine(playbackGeneration);
+                if (currentLine != null) {
+                    currentLine.drain();
+                }
+            } catch (InterruptedException | CancellationException ex) {
+                Main.LOGGER.info("Speech playback was interrupted.");
+                playbackSpan.cancel();
+                firstAudioSpan.cancel();
+            } catch (LineUnavailableException ex) {
+                Main.LOGGER.error("Error while trying to play the generated speech.", ex);
+                playbackSpan.fail();
+                onError.accept(ex);
+            } catch (Exception ex) {
+                Main.LOGGER.error("Failed to generate speech.", ex);
+                playbackSpan.fail();
+                firstAudioSpan.fail();
+                onError.accept(ex);
+            } finally {
+                firstAudioSpan.close(); //only the first close counts
+                if (firstSampleSpan != null) {
+                    //the line never started to play
+                    firstSampleSpan.cancel();
+                    firstSampleSpan.close();
+                }
+                playbackSpan.close();
+            }
+            boolean current;
+            synchronized (this) {
+                current = playbackGeneration == generation;
+                if (current) {
+                    this.speech = null;
+                    closeLine();
+                }
+            }
+            if (current) {
+                onFinish.run();
+            }
+        });
+    }
+
+    /**
+     * Writes the samples of the chunk into the audio line. The line and the time stretcher of the previous chunk are
+     * reused, if the chunk has the same format.
+     * @param speed playback speed of the chunk
+     * @return false, if the playback was stopped
+     */
+    private boolean playChunk(AudioInputStream audio, DoubleSupplier speed, int playbackGeneration, Span firstSampleSpan, PlaybackBuffers buffers) throws Exception {
+        AudioFormat format = audio.getFormat();
+        if (buffers.stretcher != null && !buffers.stretcher.getFormat().matches(format)) {
+            //the rest of the previous chunk is played with its own line
+            if (!finishStretching(buffers, playbackGeneration)) {
+                return false;
+            }
+            buffers.stretcher = null;
+        }
+        SourceDataLine currentLine = getLine(format, playbackGeneration);
+        if (currentLine == null) {
+            return false;
+        }
+        if (firstSampleSpan != null && buffers.observedLine != currentLine) {
+            //the line starts, when its first samples are presented (writing returns, as soon as they fit into its buffer)
+            buffers.observedLine = currentLine;
+            currentLine.addLineListener(event -> {
+                if (event.getType() == LineEvent.Type.START) {
+                    firstSampleSpan.close(); //time from the first chunk to the first audible sample
+                }
+            });
+        }
+        if (buffers.stretcher == null && TimeStretcher.isActive() && TimeStretcher.isSupported(format)) {
+            buffers.stretcher = new TimeStretcher(format);
+        }
+        //small blocks, so pausing, stopping and speed changes react fast
+        int frameSize = Math.max(1, format.getFrameSize());
+        int blockSize = Math.max(frameSize, currentLine.getBufferSize() / 4 / frameSize * frameSize);
+        if (buffers.samples == null || buffers.samples.length != blockSize) {
+            buffers.samples = new byte[blockSize];
+            buffers.stretched = new byte[blockSize];
+        }
+        byte[] buffer = buffers.samples;
+        int read;
+        while ((read = audio.readNBytes(buffer, 0, buffer.length)) > 0) {
+            if (!awaitResume(playbackGeneration)) {
+                return false;
+            }
+            int length = read - read % frameSize;
+            double currentSpeed = buffers.stretcher != null ? speed.getAsDouble() : 1;
+            if (currentSpeed != 1) {
+                buffers.stretcher.setSpeed(currentSpeed);
+                buffers.stretcher.put(buffer, 0, length);
+                if (!writeStretched(currentLine, buffers, playbackGeneration)) {
+                    return false;
+                }
+            } else {
+                //the normal speed bypasses the time stretcher
+                if (!finishStretching(buffers, playbackGeneration)) {
+                    return false;
+                }
+                currentLine.write(buffer, 0, length);
+            }
+        }
+        return getCurrentLine(playbackGeneration) != null;
+    }
+
+    /**
+     * Writes the samples, which are still buffered in the time stretcher, into the current line.
+     * @return false, if the playback was stopped
+     */
+    private boolean finishStretching(PlaybackBuffers buffers, int playbackGeneration) throws InterruptedException {
+        if (buffers.stretcher == null || buffers.stretcher.isEmpty()) {
+            return true;
+        }
+        SourceDataLine currentLine = getCurrentLine(playbackGeneration);
+        if (currentLine == null) {
+            return false;
+        }
+        buffers.stretcher.flush();
+        return writeStretched(currentLine, buffers, playbackGeneration);
+    }
+
+    private boolean writeStretched(SourceDataLine currentLine, PlaybackBuffers buffers, int playbackGeneration) throws InterruptedException {
+        int length;
+        while ((length = buffers.stretcher.receive(buffers.stretched)) > 0) {
+            if (!awaitResume(playbackGeneration)) {
+                return false;
+            }
+            currentLine.write(buffers.stretched, 0, length);
+        }
+        return true;
+    }
+
+    private SourceDataLine getLine(AudioFormat format, int playbackGeneration) throws LineUnavailableException {
+        SourceDataLine oldLine;
+        synchronized (this) {
+            if (playbackGeneration != generation) {
+                return null;
+            }
+            if (line != null && line.getFormat().matches(format)) {
+                return line;
+            }
+            oldLine = line;
+            line = null;
+        }
+        if (oldLine != null) {
+            oldLine.drain();
+            oldLine.close();
+        }
+        int frameSize = Math.max(1, format.getFrameSize());
+        int bufferSize = (int) (format.getFrameRate() * ConfigUtils.getIntProperty(CONFIG_BUFFER_MILLIS) / 1000) * frameSize;
+        SourceDataLine newLine = AudioSystem.getSourceDataLine(format);
+        newLine.open(format, Math.max(bufferSize, frameSize));
+        synchronized (this) {
+            if (playbackGeneration != generation) {
+                newLine.close();
+                return null;
+            }
+            line = newLine;
+            if (!paused) {
+                newLine.start();
+            }
+            return newLine;
+        }
+    }
+
+    private synchronized SourceDataLine getCurrentLine(int playbackGeneration) {
+        return playbackGeneration == generation ? line : null;
+    }
+
+    /**
+     * Waits while the playback is paused.
+     * @return false, if the playback was stopped
+     */
+    private synchronized boolean awaitResume(int playbackGeneration) throws InterruptedException {
+        while (paused && playbackGeneration == generation) {
+            wait();
+        }
+        return playbackGeneration == generation;
+    }
+
+    public synchronized void pause() {
+        if (!isPlaying() || paused) {
+            return;
+        }
+        paused = true;
+        if (line != null) {
+            line.stop();
+        }
+    }
+
+    public synchronized void resume() {
+        if (!paused) {
+            return;
+        }
+        paused = false;
+        if (line != null) {
+            line.start();
+        }
+        notifyAll();
+    }
+
+    public synchronized void stop() {
+        generation++;
+        paused = false;
+        notifyAll();
+        if (playback != null) {
+            playback.cancel(true);
+            playback = null;
+        }
+        if (speech != null) {
+            speech.close();
+            speech = null;
+        }
+        closeLine();
+    }
+
+    private void closeLine() {
+        if (line != null) {
+            line.stop();
+            line.flush();
+            line.close();
+            line = null;
+        }
+    }
+
+}
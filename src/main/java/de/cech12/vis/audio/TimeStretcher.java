@@ -0,0 +1,258 @@
+package de.cech12.vis.audio;
+
+import de.cech12.vis.utils.ConfigUtils;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+
+/**
+ * Changes the speed of 16 bit PCM audio without changing its pitch (WSOLA: waveform similarity overlap-add).
+ * The input is cut into overlapping sequences, which are taken from the input faster or slower than they are
+ * written to the output. Each sequence is shifted to the position within a small seek window, where it fits best
+ * to the end of the previous sequence, and the overlap is cross-faded. The speed can be changed at any time.
+ * The input and output samples are buffered, so one instance can process a whole stream of chunks.
+ */
+public class TimeStretcher {
+
+    public static final String CONFIG_ACTIVE = "audio.timestretch.active";
+
+    private static final int SEQUENCE_MILLIS = 40;
+    private static final int SEEK_MILLIS = 15;
+    private static final int OVERLAP_MILLIS = 8;
+
+    private final AudioFormat format;
+    private final int channels;
+    private final int sequenceFrames;
+    private final int seekFrames;
+    private final int overlapFrames;
+    private final float[] mid;
+    private final float[] midMono;
+    private final float[] window;
+
+    private float[] input = new float[0];
+    private int inputFrames = 0;
+    private float[] output = new float[0];
+    private int outputFrames = 0;
+    private int outputPosition = 0;
+    private boolean first = true;
+    private double skipFraction = 0;
+    private volatile double speed = 1;
+
+    public TimeStretcher(AudioFormat format) {
+        if (!isSupported(format)) {
+            throw new IllegalArgumentException("Only 16 bit signed PCM can be time-stretched: " + format);
+        }
+        this.format = format;
+        this.channels = format.getChannels();
+        float sampleRate = format.getSampleRate();
+        this.sequenceFrames = (int) (sampleRate * SEQUENCE_MILLIS / 1000);
+        this.seekFrames = (int) (sampleRate * SEEK_MILLIS / 1000);
+        this.overlapFrames = (int) (sampleRate * OVERLAP_MILLIS / 1000);
+        this.mid = new float[overlapFrames * channels];
+        this.midMono = new float[overlapFrames];
+        this.window = new float[overlapFrames];
+        for (int i = 0; i < overlapFrames; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(Math.PI * (i + 0.5) / overlapFrames)); //rising half of a Hann window
+        }
+    }
+
+    /**
+     * @return true, if the speech is generated with the normal speed and its speed is changed while playing it
+     */
+    public static boolean isActive() {
+        return ConfigUtils.getBooleanPropertyOrDefault(CONFIG_ACTIVE, true);
+    }
+
+    public static boolean isSupported(AudioFormat format) {
+        return format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED && format.getSampleSizeInBits() == 16
+                && format.getChannels() > 0 && format.getSampleRate() >= 8000;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @param speed 1 for the original speed, 2 for the double speed (applies to the audio, which is not processed yet)
+     */
+    public void setSpeed(double speed) {
+        this.speed = Math.max(0.25, Math.min(4, speed));
+    }
+
+    /**
+     * @return true, if no samples are waiting for processing or for being received
+     */
+    public boolean isEmpty() {
+        return inputFrames == 0 && outputPosition == outputFrames;
+    }
+
+    /**
+     * Adds samples and stretches them as far as possible.
+     */
+    public void put(byte[] data, int offset, int length) {
+        int frames = length / (2 * channels);
+        ensureInputCapacity(inputFrames + frames);
+        boolean bigEndian = format.isBigEndian();
+        int sample = inputFrames * channels;
+        for (int i = offset; i < offset + frames * 2 * channels; i += 2) {
+            int value = bigEndian ? (data[i] << 8) | (data[i + 1] & 0xFF) : (data[i + 1] << 8) | (data[i] & 0xFF);
+            input[sample++] = (short) value;
+        }
+        inputFrames += frames;
+        process();
+    }
+
+    /**
+     * Writes the available output samples into the given array.
+     * @return number of written bytes (whole frames only)
+     */
+    public int receive(byte[] data) {
+        int frames = Math.min(outputFrames - outputPosition, data.length / (2 * channels));
+        boolean bigEndian = format.isBigEndian();
+        int index = 0;
+        for (int sample = outputPosition * channels; sample < (outputPosition + frames) * channels; sample++) {
+            int value = Math.round(Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, output[sample])));
+            data[index++] = (byte) (bigEndian ? value >> 8 : value);
+            data[index++] = (byte) (bigEndian ? value : value >> 8);
+        }
+        outputPosition += frames;
+        if (outputPosition == outputFrames) {
+            outputPosition = 0;
+            outputFrames = 0;
+        }
+        return index;
+    }
+
+    /**
+     * Moves the rest of the input to the output, e.g. at the end of the speech. Afterwards, the next samples are
+     * processed like the beginning of a new stream.
+     */
+    public void flush() {
+        if (!first && inputFrames >= overlapFrames) {
+            crossFade(0);
+            appendOutput(input, overlapFrames, inputFrames - overlapFrames);
+        } else if (!first) {
+            appendOutput(mid, 0, overlapFrames);
+            appendOutput(input, 0, inputFrames);
+        } else {
+            appendOutput(input, 0, inputFrames);
+        }
+        inputFrames = 0;
+        first = true;
+        skipFraction = 0;
+    }
+
+    /**
+     * Discards all samples, e.g. when the playback is stopped.
+     */
+    public void clear() {
+        inputFrames = 0;
+        outputFrames = 0;
+        outputPosition = 0;
+        first = true;
+        skipFraction = 0;
+    }
+
+    private void process() {
+        while (true) {
+            double nominalSkip = speed * (sequenceFrames - overlapFrames);
+            int required = Math.max((int) (nominalSkip + skipFraction) + overlapFrames, sequenceFrames) + seekFrames;
+            if (inputFrames < required) {
+                return;
+            }
+            if (first) {
+                //the first sequence starts with the input itself
+                System.arraycopy(input, 0, mid, 0, overlapFrames * channels);
+                first = false;
+            }
+            int offset = findBestOffset();
+
+            crossFade(offset);
+            appendOutput(input, offset + overlapFrames, sequenceFrames - 2 * overlapFrames);
+            System.arraycopy(input, (offset + sequenceFrames - overlapFrames) * channels, mid, 0, overlapFrames * channels);
+
+            skipFraction += nominalSkip;
+            int skip = (int) skipFraction;
+            skipFraction -= skip;
+            System.arraycopy(input, skip * channels, input, 0, (inputFrames - skip) * channels);
+            inputFrames -= skip;
+        }
+    }
+
+    /**
+     * Cross-fades the end of the previous sequence into the input at the given offset.
+     */
+    private void crossFade(int offset) {
+        ensureOutputCapacity(outputFrames + overlapFrames);
+        int out = outputFrames * channels;
+        int in = offset * channels;
+        for (int frame = 0; frame < overlapFrames; frame++) {
+            float fadeIn = window[frame];
+            for (int channel = 0; channel < channels; channel++) {
+                int sample = frame * channels + channel;
+                output[out + sample] = mid[sample] * (1 - fadeIn) + input[in + sample] * fadeIn;
+            }
+        }
+        outputFrames += overlapFrames;
+    }
+
+    /**
+     * @return offset within the seek window, where the input is most similar to the end of the previous sequence
+     * (normalized cross-correlation of the mono mix)
+     */
+    private int findBestOffset() {
+        for (int frame = 0; frame < overlapFrames; frame++) {
+            midMono[frame] = mono(mid, frame) * window[frame] * (1 - window[frame]);
+        }
+        int bestOffset = 0;
+        double bestCorrelation = -Double.MAX_VALUE;
+        for (int offset = 0; offset < seekFrames; offset++) {
+            double correlation = 0;
+            double energy = 0;
+            for (int frame = 0; frame < overlapFrames; frame++) {
+                float value = mono(input, offset + frame);
+                correlation += value * midMono[frame];
+                energy += value * value;
+            }
+            correlation /= Math.sqrt(energy + 1e-9);
+            if (correlation > bestCorrelation) {
+                bestCorrelation = correlation;
+                bestOffset = offset;
+            }
+        }
+        return bestOffset;
+    }
+
+    private float mono(float[] samples, int frame) {
+        if (channels == 1) {
+            return samples[frame];
+        }
+        float sum = 0;
+        for (int channel = 0; channel < channels; channel++) {
+            sum += samples[frame * channels + channel];
+        }
+        return sum / channels;
+    }
+
+    private void appendOutput(float[] samples, int frame, int frames) {
+        if (frames <= 0) {
+            return;
+        }
+        ensureOutputCapacity(outputFrames + frames);
+        System.arraycopy(samples, frame * channels, output, outputFrames * channels, frames * channels);
+        outputFrames += frames;
+    }
+
+    private void ensureInputCapacity(int frames) {
+        if (input.length < frames * channels) {
+            input = Arrays.copyOf(input, Math.max(frames * channels, input.length * 2));
+        }
+    }
+
+    private void ensureOutputCapacity(int frames) {
+        if (output.length < frames * channels) {
+            output = Arrays.copyOf(output, Math.max(frames * channels, output.length * 2));
+        }
+    }
+
+}
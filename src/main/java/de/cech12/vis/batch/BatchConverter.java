@@ -0,0 +1,290 @@
+package de.cech12.vis.batch;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.audio.AudioDecoder;
+import de.cech12.vis.pipeline.ConversionPipeline;
+import de.cech12.vis.service.CancellationToken;
+import de.cech12.vis.service.IOCRService;
+import de.cech12.vis.service.IStreamingTTSService;
+import de.cech12.vis.service.ITTSService;
+import de.cech12.vis.service.ITranslationService;
+import de.cech12.vis.service.OCRResult;
+import de.cech12.vis.service.SpeechStream;
+import de.cech12.vis.utils.ConfigUtils;
+import de.cech12.vis.utils.ExecutorUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Headless conversion of all images of a directory (including sub directories) into audio files.
+ * Images are sent to the OCR service in batches, translation and speech generation run with bounded concurrency.
+ * Every converted image gets a line in the manifest file of the output directory. Images, which are already listed
+ * as converted there, are skipped, so an interrupted run can simply be restarted.
+ */
+public class BatchConverter {
+
+    public static final String CONFIG_IMAGES_PER_REQUEST = "batch.images.per.request";
+    public static final String CONFIG_PARALLELISM = "batch.parallelism";
+
+    public static final String MANIFEST_FILE = "manifest.tsv";
+    private static final String MANIFEST_HEADER = "image\taudio\tcharacters\tstatus\tmessage";
+    private static final String STATUS_OK = "ok";
+    private static final String STATUS_EMPTY = "empty";
+    private static final String STATUS_FAILED = "failed";
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of("png", "jpg", "jpeg", "bmp", "gif");
+
+    private final IOCRService ocrService;
+    private final ITranslationService translationService;
+    private final ITTSService ttsService;
+    private final boolean translationActive;
+    private final int imagesPerRequest;
+    private final int parallelism;
+
+    private final AtomicInteger converted = new AtomicInteger();
+    private final AtomicInteger empty = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong imageBytes = new AtomicLong();
+    private final AtomicLong audioBytes = new AtomicLong();
+    private final AtomicLong characters = new AtomicLong();
+    private final AtomicLong ocrCalls = new AtomicLong();
+    private final AtomicLong translationCalls = new AtomicLong();
+    private final AtomicLong ttsCalls = new AtomicLong();
+
+    private BufferedWriter manifestWriter;
+
+    public BatchConverter(IOCRService ocrService, ITranslationService translationService, ITTSService ttsService, boolean translationActive) throws Exception {
+        this.ocrService = ocrService;
+        this.translationService = translationService;
+        this.ttsService = ttsService;
+        this.translationActive = translationActive;
+        this.imagesPerRequest = ConfigUtils.getIntPropertyOrDefault(CONFIG_IMAGES_PER_REQUEST, 16);
+        this.parallelism = ConfigUtils.getIntPropertyOrDefault(CONFIG_PARALLELISM, 4);
+    }
+
+    /**
+     * @return true, if all images were converted successfully
+     */
+    public boolean run(Path inputDir, Path outputDir) throws Exception {
+        long start = System.nanoTime();
+        Files.createDirectories(outputDir);
+        Path manifest = outputDir.resolve(MANIFEST_FILE);
+
+        List<Path> allImages = findImages(inputDir);
+        Set<String> done = readDoneImages(manifest, outputDir);
+        List<Path> images = allImages.stream().filter(image -> !done.contains(toManifestPath(inputDir, image))).toList();
+        Main.LOGGER.info("Batch: {} images found, {} already converted, {} to convert.", allImages.size(), allImages.size() - images.size(), images.size());
+
+        String targetLanguage = ttsService.getTargetLanguage();
+        boolean translate = translationActive && translationService.isTranslationAvailableForLanguage(targetLanguage);
+
+        ExecutorService executor = ExecutorUtils.createExecutor(String.valueOf(parallelism), "vis-batch");
+        //batch calls give way to interactive conversions, when they wait for quota
+        CancellationToken token = new CancellationToken(CancellationToken.Priority.BACKGROUND);
+        boolean newManifest = !Files.exists(manifest);
+        try (BufferedWriter writer = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            manifestWriter = writer;
+            if (newManifest) {
+                writer.write(MANIFEST_HEADER);
+                writer.newLine();
+            }
+            //the speech of one batch is generated while the OCR of the next batch is running
+            List<Future<?>> previousBatch = new ArrayList<>();
+            for (int batchStart = 0; batchStart < images.size(); batchStart += imagesPerRequest) {
+                List<Path> batch = images.subList(batchStart, Math.min(images.size(), batchStart + imagesPerRequest));
+                List<Future<?>> currentBatch = new ArrayList<>();
+                List<Path> loadedPaths = new ArrayList<>();
+                List<BufferedImage> loadedImages = new ArrayList<>();
+                for (Path image : batch) {
+                    try {
+                        BufferedImage loadedImage = ImageIO.read(image.toFile());
+                        if (loadedImage == null) {
+                            throw new IOException("Unsupported image format.");
+                        }
+                        imageBytes.addAndGet(Files.size(image));
+                        loadedPaths.add(image);
+                        loadedImages.add(loadedImage);
+                    } catch (IOException ex) {
+                        fail(inputDir, image, ex);
+                    }
+                }
+                if (!loadedImages.isEmpty()) {
+                    try {
+                        ocrCalls.incrementAndGet();
+                        List<OCRResult> results = token.call(() -> ocrService.getTextsFromImages(loadedImages));
+                        for (int i = 0; i < loadedPaths.size(); i++) {
+                            Path image = loadedPaths.get(i);
+                            OCRResult result = results.get(i);
+                            if (result.isFailed()) {
+                                fail(inputDir, image, new Exception(result.error()));
+                                continue;
+                            }
+                            currentBatch.add(executor.submit(() -> token.call(() -> {
+                                convert(inputDir, outputDir, image, result, translate ? targetLanguage : null);
+                                return null;
+                            })));
+                        }
+                    } catch (Exception ex) {
+                        for (Path image : loadedPaths) {
+                            fail(inputDir, image, ex);
+                        }
+                    }
+                }
+                waitFor(previousBatch);
+                previousBatch = currentBatch;
+                Main.LOGGER.info("Batch: {} of {} images processed.", Math.min(images.size(), batchStart + imagesPerRequest), images.size());
+            }
+            waitFor(previousBatch);
+        } finally {
+            executor.shutdownNow();
+            manifestWriter = null;
+        }
+
+        logSummary(System.nanoTime() - start, allImages.size() - images.size());
+        return failed.get() == 0;
+    }
+
+    private void convert(Path inputDir, Path outputDir, Path image, OCRResult result, String translationLanguage) {
+        try {
+            String text = result.text();
+            if (text.isBlank()) {
+                empty.incrementAndGet();
+                writeManifestLine(toManifestPath(inputDir, image), "", 0, STATUS_EMPTY, "");
+                return;
+            }
+            if (translationLanguage != null) {
+                translationCalls.incrementAndGet();
+                text = ConversionPipeline.translate(result, translationLanguage, translationService);
+            }
+            List<byte[]> chunks = new ArrayList<>();
+            List<Double> chunkSpeeds = new ArrayList<>();
+            if (ttsService instanceof IStreamingTTSService streamingService) {
+                try (SpeechStream speech = streamingService.getSpeechStreamFromText(text)) {
+                    ttsCalls.addAndGet(speech.size());
+                    InputStream chunk;
+                    while ((chunk = speech.next()) != null) {
+                        chunks.add(chunk.readAllBytes());
+                        chunkSpeeds.add(SpeechStream.getPlaybackSpeed(chunk, ttsService::getPlaybackSpeed).getAsDouble());
+                    }
+                }
+            } else {
+                ttsCalls.incrementAndGet();
+                try (InputStream speech = ttsService.getSpeechFromText(text)) {
+                    chunks.add(speech.readAllBytes());
+                    chunkSpeeds.add(SpeechStream.getPlaybackSpeed(speech, ttsService::getPlaybackSpeed).getAsDouble());
+                }
+            }
+            double[] speeds = chunkSpeeds.stream().mapToDouble(Double::doubleValue).toArray();
+            String imagePath = toManifestPath(inputDir, image);
+            String audioPath = imagePath.substring(0, imagePath.lastIndexOf('.')) + AudioDecoder.getExtension(chunks, speeds);
+            Path audioFile = outputDir.resolve(audioPath);
+            Files.createDirectories(audioFile.getParent());
+            Path tempFile = audioFile.resolveSibling(audioFile.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                AudioDecoder.write(chunks, speeds, out);
+            }
+            for (byte[] chunk : chunks) {
+                audioBytes.addAndGet(chunk.length);
+            }
+            Files.move(tempFile, audioFile, StandardCopyOption.REPLACE_EXISTING);
+            characters.addAndGet(text.length());
+            converted.incrementAndGet();
+            writeManifestLine(imagePath, audioPath, text.length(), STATUS_OK, "");
+        } catch (Exception ex) {
+            fail(inputDir, image, ex);
+        }
+    }
+
+    private void fail(Path inputDir, Path image, Exception ex) {
+        Main.LOGGER.error("Batch: failed to convert {}.", image, ex);
+        failed.incrementAndGet();
+        try {
+            writeManifestLine(toManifestPath(inputDir, image), "", 0, STATUS_FAILED, String.valueOf(ex.getMessage()));
+        } catch (IOException writeEx) {
+            Main.LOGGER.error("Batch: failed to write manifest.", writeEx);
+        }
+    }
+
+    private synchronized void writeManifestLine(String image, String audio, int characters, String status, String message) throws IOException {
+        manifestWriter.write(String.join("\t", image, audio, String.valueOf(characters), status, message.replaceAll("[\t\r\n]", " ")));
+        manifestWriter.newLine();
+        manifestWriter.flush();
+    }
+
+    private static void waitFor(List<Future<?>> futures) throws Exception {
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private static List<Path> findImages(Path inputDir) throws IOException {
+        try (Stream<Path> stream = Files.walk(inputDir)) {
+            return stream.filter(Files::isRegularFile)
+                    .filter(file -> {
+                        String name = file.getFileName().toString();
+                        int dot = name.lastIndexOf('.');
+                        return dot > 0 && IMAGE_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * @return all images of the manifest, which were converted successfully (the last line of an image counts)
+     */
+    private static Set<String> readDoneImages(Path manifest, Path outputDir) throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!Files.exists(manifest)) {
+            return done;
+        }
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            String[] columns = line.split("\t", -1);
+            if (columns.length < 4 || line.equals(MANIFEST_HEADER)) {
+                continue;
+            }
+            boolean ok = STATUS_OK.equals(columns[3]) && Files.isRegularFile(outputDir.resolve(columns[1]));
+            if (ok || STATUS_EMPTY.equals(columns[3])) {
+                done.add(columns[0]);
+            } else {
+                done.remove(columns[0]);
+            }
+        }
+        return done;
+    }
+
+    private static String toManifestPath(Path inputDir, Path image) {
+        return inputDir.relativize(image).toString().replace('\\', '/');
+    }
+
+    private void logSummary(long durationNanos, int skipped) {
+        double seconds = durationNanos / 1_000_000_000D;
+        int processed = converted.get() + empty.get() + failed.get();
+        Main.LOGGER.info("Batch finished in {} s: {} converted, {} without text, {} failed, {} skipped.",
+                String.format(Locale.ROOT, "%.1f", seconds), converted.get(), empty.get(), failed.get(), skipped);
+        Main.LOGGER.info("Batch throughput: {} images/s, {} KB images read, {} KB audio written, {} characters spoken.",
+                String.format(Locale.ROOT, "%.2f", seconds > 0 ? processed / seconds : 0), imageBytes.get() / 1024, audioBytes.get() / 1024, characters.get());
+        Main.LOGGER.info("Batch service calls: {} OCR, {} translation, {} TTS (cached results are included).",
+                ocrCalls.get(), translationCalls.get(), ttsCalls.get());
+    }
+
+}
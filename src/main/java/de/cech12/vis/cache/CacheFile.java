@@ -0,0 +1,82 @@
+package de.cech12.vis.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * Binary file format to persist the entries of a {@link LruCache}. Entries are written from the least to the
+ * most recently used one, so loading them restores the usage order. The file is replaced atomically on save.
+ */
+public class CacheFile {
+
+    public interface Reader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    public interface Writer<T> {
+        void write(DataOutputStream out, T value) throws IOException;
+    }
+
+    private CacheFile() {}
+
+    /**
+     * @return number of loaded entries or -1, if the file does not exist or has another version
+     */
+    public static <K, V> int load(Path file, int version, LruCache<K, V> cache, Reader<K> keyReader, Reader<V> valueReader) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != version) {
+                return -1;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                cache.put(keyReader.read(in), valueReader.read(in));
+            }
+            return count;
+        }
+    }
+
+    public static <K, V> void save(Path file, int version, LruCache<K, V> cache, Writer<K> keyWriter, Writer<V> valueWriter) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Map<K, V> entries = cache.snapshot();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(version);
+            out.writeInt(entries.size());
+            for (Map.Entry<K, V> entry : entries.entrySet()) {
+                keyWriter.write(out, entry.getKey());
+                valueWriter.write(out, entry.getValue());
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}. In contrast to
+     * {@link DataInputStream#readUTF()}, the length of the string is not limited to 64 KB.
+     */
+    public static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+}
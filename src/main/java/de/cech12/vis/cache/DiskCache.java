@@ -0,0 +1,112 @@
+package de.cech12.vis.cache;
+
+import de.cech12.vis.Main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Size capped file store with one file per key. Keys have to be valid file names (e.g. hex encoded hashes).
+ * When the cap is exceeded, the least recently used files are deleted until 90% of the cap is reached.
+ * Failures are logged and treated like cache misses, because a broken cache must not break a conversion.
+ */
+public class DiskCache {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+    private long size;
+
+    public DiskCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        size = 0;
+        for (Path file : listFiles()) {
+            size += Files.size(file);
+        }
+    }
+
+    public synchronized byte[] get(String key) {
+        Path file = directory.resolve(key);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return Files.readAllBytes(file);
+        } catch (IOException ex) {
+            Main.LOGGER.warn("Failed to read cache file {}.", file, ex);
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, byte[] data) {
+        if (data.length > maxBytes) {
+            return;
+        }
+        Path file = directory.resolve(key);
+        Path tempFile = directory.resolve(key + TEMP_SUFFIX);
+        try {
+            long oldSize = Files.isRegularFile(file) ? Files.size(file) : 0;
+            Files.write(tempFile, data);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            size += data.length - oldSize;
+            if (size > maxBytes) {
+                evict();
+            }
+        } catch (IOException ex) {
+            Main.LOGGER.warn("Failed to write cache file {}.", file, ex);
+        }
+    }
+
+    public synchronized void clear() {
+        try {
+            for (Path file : listFiles()) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException ex) {
+            Main.LOGGER.warn("Failed to clear cache directory {}.", directory, ex);
+        }
+        size = 0;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private void evict() throws IOException {
+        List<Path> files = listFiles();
+        files.sort(Comparator.comparing(file -> {
+            try {
+                return Files.getLastModifiedTime(file);
+            } catch (IOException ex) {
+                return FileTime.fromMillis(0);
+            }
+        }));
+        long targetSize = maxBytes * 9 / 10;
+        for (Path file : files) {
+            if (size <= targetSize) {
+                break;
+            }
+            long fileSize = Files.size(file);
+            Files.deleteIfExists(file);
+            size -= fileSize;
+        }
+    }
+
+    private List<Path> listFiles() throws IOException {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return new ArrayList<>(stream.filter(Files::isRegularFile).filter(file -> !file.getFileName().toString().endsWith(TEMP_SUFFIX)).toList());
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package de.cech12.vis.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread safe in-memory cache, which evicts the least recently used entries as soon as the summed up weight
+ * of all entries exceeds the maximum weight.
+ */
+public class LruCache<K, V> {
+
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75F, true);
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private long weight = 0;
+
+    public LruCache(long maxWeight, ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    public LruCache(int maxEntries) {
+        this(maxEntries, value -> 1);
+    }
+
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(K key, V value) {
+        long valueWeight = weigher.applyAsLong(value);
+        if (valueWeight > maxWeight) {
+            return;
+        }
+        V old = entries.put(key, value);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+        weight += valueWeight;
+        Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            Map.Entry<K, V> eldest = iterator.next();
+            weight -= weigher.applyAsLong(eldest.getValue());
+            iterator.remove();
+        }
+    }
+
+    public synchronized V remove(K key) {
+        V old = entries.remove(key);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+        return old;
+    }
+
+    public synchronized Map<K, V> snapshot() {
+        return new LinkedHashMap<>(entries);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+}
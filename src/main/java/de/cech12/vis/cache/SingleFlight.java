@@ -0,0 +1,71 @@
+package de.cech12.vis.cache;
+
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.service.CancellationToken;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Collapses concurrent calls with the same key into one call. The first caller runs the call, all callers, which
+ * arrive while it is running, wait for its result. If the running call was cancelled, but a waiting caller was not,
+ * the waiting caller runs the call again. The running call gets the highest priority of its callers, so a
+ * prefetch, which an interactive caller waits for, is not queued behind other calls.
+ */
+public class SingleFlight<K, V> {
+
+    private final String name;
+    private final Map<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    private record Flight<V>(CompletableFuture<V> result, CancellationToken token) {}
+
+    /**
+     * @param name name of the counter of coalesced calls ("name.coalesced")
+     */
+    public SingleFlight(String name) {
+        this.name = name;
+    }
+
+    public V call(K key, Callable<V> task) throws Exception {
+        CancellationToken token = CancellationToken.current();
+        while (true) {
+            Flight<V> flight = new Flight<>(new CompletableFuture<>(), token);
+            Flight<V> running = flights.putIfAbsent(key, flight);
+            if (running == null) {
+                try {
+                    V value = task.call();
+                    flight.result().complete(value);
+                    return value;
+                } catch (Throwable ex) {
+                    flight.result().completeExceptionally(ex);
+                    throw ex;
+                } finally {
+                    flights.remove(key, flight);
+                }
+            }
+            Metrics.count(name + ".coalesced", 1);
+            running.token().raisePriority(token.getPriority());
+            //every caller waits on its own copy, so its cancellation does not affect the others
+            CompletableFuture<V> waiting = running.result().copy();
+            Runnable removeListener = token.onCancel(() -> waiting.cancel(false));
+            try {
+                return waiting.get();
+            } catch (ExecutionException ex) {
+                //a cancelled call can also end with another exception, e.g. an InterruptedException
+                boolean leaderCancelled = ex.getCause() instanceof CancellationException || running.token().isCancelled();
+                if (!leaderCancelled || token.isCancelled()) {
+                    throw ex.getCause() instanceof Exception cause ? cause : ex;
+                }
+            } catch (CancellationException ex) {
+                token.throwIfCancelled();
+            } finally {
+                removeListener.run();
+            }
+        }
+    }
+
+}
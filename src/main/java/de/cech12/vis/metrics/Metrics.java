@@ -0,0 +1,160 @@
+package de.cech12.vis.metrics;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.utils.ConfigUtils;
+import de.cech12.vis.utils.ExecutorUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and counters of all stages (e.g. "ocr") and provider calls (e.g. "ocr.google").
+ * Every measured stage is also a JFR event ("de.cech12.vis.Stage").
+ */
+public class Metrics {
+
+    public static final String CONFIG_EXPORT_SECONDS = "metrics.export.seconds";
+
+    public static final String STAGE_CLIPBOARD = "clipboard";
+    public static final String STAGE_ENCODE = "encode";
+    public static final String STAGE_OCR = "ocr";
+    public static final String STAGE_TRANSLATION = "translation";
+    public static final String STAGE_TTS = "tts";
+    public static final String STAGE_FIRST_AUDIO = "first.audio";
+    public static final String STAGE_FIRST_SAMPLE = "first.sample";
+    public static final String STAGE_PLAYBACK = "playback";
+    public static final String STAGE_CONVERSION = "conversion";
+    public static final String STAGE_PRESS_TO_SPEECH = "press.to.speech";
+    public static final String STAGE_SERVER = "server";
+    public static final String STAGE_QUEUE = "queue";
+    public static final String STAGE_QUEUE_WAIT = "queue.wait";
+
+    static final String ERRORS_SUFFIX = ".errors";
+    static final String BYTES_SUFFIX = ".bytes";
+    static final String CANCELLED_SUFFIX = ".cancelled";
+
+    private static final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final AtomicLong conversionIds = new AtomicLong();
+
+    private Metrics() {}
+
+    public record Row(String name, long count, long errors, long bytes, long meanMillis, long p50Millis, long p95Millis, long p99Millis, long maxMillis) {}
+
+    public static long nextConversionId() {
+        return conversionIds.incrementAndGet();
+    }
+
+    public static Span start(String stage) {
+        return new Span(stage, null, 0);
+    }
+
+    public static Span start(String stage, long conversionId) {
+        return new Span(stage, null, conversionId);
+    }
+
+    public static Span start(String stage, String provider) {
+        return new Span(stage, provider, 0);
+    }
+
+    public static Span start(String stage, String provider, long conversionId) {
+        return new Span(stage, provider, conversionId);
+    }
+
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    public static void count(String name, long value) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(value);
+    }
+
+    public static long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * @return one row per histogram and one row per counter, which does not belong to a histogram
+     */
+    public static List<Row> getRows() {
+        List<Row> rows = new ArrayList<>();
+        histograms.forEach((name, histogram) -> rows.add(new Row(name, histogram.getCount(),
+                getCount(name + ERRORS_SUFFIX), getCount(name + BYTES_SUFFIX), histogram.getMeanMillis(),
+                histogram.getPercentileMillis(0.5), histogram.getPercentileMillis(0.95), histogram.getPercentileMillis(0.99),
+                histogram.getMaxMillis())));
+        counters.forEach((name, counter) -> {
+            int suffix = name.lastIndexOf('.');
+            if (suffix < 0 || !histograms.containsKey(name.substring(0, suffix))) {
+                rows.add(new Row(name, counter.sum(), 0, 0, 0, 0, 0, 0, 0));
+            }
+        });
+        return rows;
+    }
+
+    /**
+     * @return all rows as aligned text table
+     */
+    public static String format() {
+        StringBuilder text = new StringBuilder(String.format("%-24s %7s %6s %10s %7s %7s %7s %7s %7s%n",
+                "name", "count", "errors", "KB", "mean", "p50", "p95", "p99", "max"));
+        for (Row row : getRows()) {
+            text.append(String.format("%-24s %7d %6d %10d %7d %7d %7d %7d %7d%n", row.name(), row.count(), row.errors(),
+                    row.bytes() / 1024, row.meanMillis(), row.p50Millis(), row.p95Millis(), row.p99Millis(), row.maxMillis()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes the metrics periodically ("metrics.export.seconds", 0 to disable) into the log and as tab separated
+     * values into the given file. The last state is written on shutdown.
+     */
+    public static void startExport(File file) {
+        int seconds = ConfigUtils.getIntPropertyOrDefault(CONFIG_EXPORT_SECONDS, 60);
+        if (seconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService exportExecutor = Executors.newSingleThreadScheduledExecutor(ExecutorUtils.daemonThreadFactory("vis-metrics"));
+        AtomicLong lastCount = new AtomicLong(-1);
+        Runnable export = () -> {
+            //nothing to export, when nothing happened since the last export
+            long count = histograms.values().stream().mapToLong(Histogram::getCount).sum();
+            if (count != lastCount.getAndSet(count)) {
+                Main.LOGGER.info("Metrics:\n{}", format());
+                export(file.toPath());
+            }
+        };
+        exportExecutor.scheduleWithFixedDelay(export, seconds, seconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(export, "vis-metrics-export"));
+    }
+
+    public static void export(Path file) {
+        StringBuilder text = new StringBuilder("name\tcount\terrors\tbytes\tmean_ms\tp50_ms\tp95_ms\tp99_ms\tmax_ms\n");
+        for (Row row : getRows()) {
+            text.append(String.join("\t", row.name(), String.valueOf(row.count()), String.valueOf(row.errors()),
+                    String.valueOf(row.bytes()), String.valueOf(row.meanMillis()), String.valueOf(row.p50Millis()),
+                    String.valueOf(row.p95Millis()), String.valueOf(row.p99Millis()), String.valueOf(row.maxMillis()))).append('\n');
+        }
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.writeString(tempFile, text, StandardCharsets.UTF_8);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            Main.LOGGER.error("Failed to export metrics.", ex);
+        }
+    }
+
+}
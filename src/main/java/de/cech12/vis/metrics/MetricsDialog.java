@@ -0,0 +1,40 @@
+package de.cech12.vis.metrics;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+
+/**
+ * Window, which shows the current metrics and refreshes them every second.
+ */
+public final class MetricsDialog extends JDialog {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JTextArea textArea = new JTextArea();
+    private final Timer timer = new Timer(1000, event -> refresh());
+
+    public MetricsDialog(Frame owner) {
+        super(owner, "Statistics", false);
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        textArea.setEditable(false);
+        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        add(new JScrollPane(textArea));
+        setSize(760, 360);
+        setLocationRelativeTo(owner);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent event) {
+                timer.stop();
+            }
+        });
+        refresh();
+        timer.start();
+    }
+
+    private void refresh() {
+        textArea.setText(Metrics.format());
+    }
+
+}
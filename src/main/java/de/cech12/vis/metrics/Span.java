@@ -0,0 +1,66 @@
+package de.cech12.vis.metrics;
+
+/**
+ * Measures one execution of a stage. Closing it records the duration into the histogram of the stage,
+ * counts errors and bytes and commits the JFR event.
+ */
+public class Span implements AutoCloseable {
+
+    private final String name;
+    private final StageEvent event = new StageEvent();
+    private final long start = System.nanoTime();
+    private long bytes = 0;
+    private boolean failed = false;
+    private boolean cancelled = false;
+    private boolean closed = false;
+
+    Span(String stage, String provider, long conversionId) {
+        this.name = provider == null ? stage : stage + "." + provider;
+        event.stage = stage;
+        event.provider = provider;
+        event.conversionId = conversionId;
+        event.begin();
+    }
+
+    public void addBytes(long bytes) {
+        this.bytes += bytes;
+    }
+
+    public void fail() {
+        failed = true;
+    }
+
+    /**
+     * The duration of a cancelled stage is not recorded.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        long duration = System.nanoTime() - start;
+        if (cancelled) {
+            Metrics.count(name + Metrics.CANCELLED_SUFFIX, 1);
+        } else {
+            Metrics.histogram(name).record(duration);
+        }
+        if (failed) {
+            Metrics.count(name + Metrics.ERRORS_SUFFIX, 1);
+        }
+        if (bytes > 0) {
+            Metrics.count(name + Metrics.BYTES_SUFFIX, bytes);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = bytes;
+            event.success = !failed && !cancelled;
+            event.commit();
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package de.cech12.vis.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of one stage. All stages of a conversion have the same conversion id.
+ */
+@Name("de.cech12.vis.Stage")
+@Label("Conversion Stage")
+@Category("VIS")
+@Description("One stage of an image to speech conversion")
+@StackTrace(false)
+class StageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Provider")
+    String provider;
+
+    @Label("Conversion Id")
+    long conversionId;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Success")
+    boolean success;
+
+}
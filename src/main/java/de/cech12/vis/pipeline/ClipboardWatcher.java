@@ -0,0 +1,288 @@
+package de.cech12.vis.pipeline;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.routing.QuotaScheduler;
+import de.cech12.vis.service.CancellationToken;
+import de.cech12.vis.service.IOCRService;
+import de.cech12.vis.service.IStreamingTTSService;
+import de.cech12.vis.service.ITTSService;
+import de.cech12.vis.service.ITranslationService;
+import de.cech12.vis.service.OCRResult;
+import de.cech12.vis.service.SpeechStream;
+import de.cech12.vis.utils.ConfigUtils;
+import de.cech12.vis.utils.ExecutorUtils;
+import de.cech12.vis.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Watches the clipboard for new images. An image is handled, when it did not change for the debounce time.
+ * Then it is either read aloud directly (auto-read) or its text (and optionally its speech) is generated
+ * speculatively, so the results are already in the caches, when the button is pressed.
+ * Speculative work is cancelled by the next image and limited by a budget per hour.
+ * The clipboard is compared by a hash of every few rows of its image, only a new image gets the full pixel hash.
+ */
+public class ClipboardWatcher {
+
+    public static final String CONFIG_ACTIVE = "clipboard.watch.active";
+    public static final String CONFIG_INTERVAL = "clipboard.watch.interval.ms";
+    public static final String CONFIG_DEBOUNCE = "clipboard.watch.debounce.ms";
+    public static final String CONFIG_AUTO_READ = "clipboard.watch.autoread";
+    public static final String CONFIG_PREFETCH_TTS = "clipboard.prefetch.tts";
+    public static final String CONFIG_PREFETCH_TTS_MAX_CHARACTERS = "clipboard.prefetch.tts.max.characters";
+    public static final String CONFIG_PREFETCH_BUDGET = "clipboard.prefetch.budget.per.hour";
+
+    /** Rows of the image, which are compared while polling. New lines of text are higher than this. */
+    private static final int SIGNATURE_ROW_STEP = 8;
+
+    private final Callable<BufferedImage> imageSource;
+    private final IOCRService ocrService;
+    private final ITranslationService translationService;
+    private final ITTSService ttsService;
+    private final ExecutorService executor;
+    private final BooleanSupplier translationActive;
+    private final BooleanSupplier streamingActive;
+    private final LongSupplier ocrTimeoutMillis;
+    private final Runnable onAutoRead;
+
+    private final Deque<Long> prefetchTimes = new ArrayDeque<>();
+    private ScheduledExecutorService pollExecutor;
+    private ScheduledFuture<?> polling;
+    private Long lastHandledSignature = null;
+    private Long candidateSignature = null;
+    private long candidateSince = 0;
+    private volatile Prefetch prefetch = null;
+
+    private record Prefetch(long hash, Future<?> task, CancellationToken token, CompletableFuture<Void> ocrDone) {}
+
+    /**
+     * @param imageSource returns the current image of the clipboard or null
+     * @param translationActive tells, if the prefetched speech is translated like the conversion does it
+     * @param streamingActive tells, if the speech is prefetched as stream like the conversion does it
+     * @param ocrTimeoutMillis how long a conversion waits for the text of a running prefetch
+     * @param onAutoRead called, when a new image should be read aloud directly
+     */
+    public ClipboardWatcher(Callable<BufferedImage> imageSource, IOCRService ocrService, ITranslationService translationService,
+                            ITTSService ttsService, ExecutorService executor, BooleanSupplier translationActive,
+                            BooleanSupplier streamingActive, LongSupplier ocrTimeoutMillis, Runnable onAutoRead) {
+        this.imageSource = imageSource;
+        this.ocrService = ocrService;
+        this.translationService = translationService;
+        this.ttsService = ttsService;
+        this.executor = executor;
+        this.translationActive = translationActive;
+        this.streamingActive = streamingActive;
+        this.ocrTimeoutMillis = ocrTimeoutMillis;
+        this.onAutoRead = onAutoRead;
+        ConfigUtils.getBooleanPropertyOrDefault(CONFIG_ACTIVE, false);
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_INTERVAL, 500);
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_DEBOUNCE, 750);
+        ConfigUtils.getBooleanPropertyOrDefault(CONFIG_AUTO_READ, false);
+        ConfigUtils.getBooleanPropertyOrDefault(CONFIG_PREFETCH_TTS, false);
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_PREFETCH_TTS_MAX_CHARACTERS, 3000);
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_PREFETCH_BUDGET, 60);
+    }
+
+    public synchronized void start() {
+        if (polling != null) {
+            return;
+        }
+        //the image, which is already on the clipboard, is not handled
+        lastHandledSignature = readImageSignature();
+        candidateSignature = null;
+        if (pollExecutor == null) {
+            pollExecutor = Executors.newSingleThreadScheduledExecutor(ExecutorUtils.daemonThreadFactory("vis-clipboard"));
+        }
+        long interval = ConfigUtils.getIntProperty(CONFIG_INTERVAL);
+        polling = pollExecutor.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+        Main.LOGGER.info("Clipboard watcher started.");
+    }
+
+    public synchronized void stop() {
+        if (polling != null) {
+            polling.cancel(false);
+            polling = null;
+            cancelPrefetch();
+            Main.LOGGER.info("Clipboard watcher stopped.");
+        }
+    }
+
+    private Long readImageSignature() {
+        try {
+            BufferedImage image = imageSource.call();
+            return image == null ? null : ImageUtils.sampledPixelHash(image, SIGNATURE_ROW_STEP);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    private void poll() {
+        BufferedImage image;
+        try {
+            image = imageSource.call();
+        } catch (Exception ex) {
+            Main.LOGGER.debug("Failed to read the clipboard: {}", ex.getMessage());
+            return;
+        }
+        synchronized (this) {
+            if (image == null || polling == null) {
+                candidateSignature = null;
+                return;
+            }
+            //an unchanged clipboard costs only the hash of every few rows
+            long signature = ImageUtils.sampledPixelHash(image, SIGNATURE_ROW_STEP);
+            if (lastHandledSignature != null && signature == lastHandledSignature) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (candidateSignature == null || signature != candidateSignature) {
+                candidateSignature = signature;
+                candidateSince = now;
+                return;
+            }
+            if (now - candidateSince < TimeUnit.MILLISECONDS.toNanos(ConfigUtils.getIntProperty(CONFIG_DEBOUNCE))) {
+                return;
+            }
+            lastHandledSignature = signature;
+            candidateSignature = null;
+            cancelPrefetch();
+            if (ConfigUtils.getBooleanProperty(CONFIG_AUTO_READ)) {
+                Main.LOGGER.info("New image on the clipboard. Reading it aloud.");
+                onAutoRead.run();
+            } else if (QuotaScheduler.get().isCongested()) {
+                //prefetching is optional, the quota is left to the requests, which are already waiting
+                Metrics.count("prefetch.skipped.congested", 1);
+                Main.LOGGER.info("Provider quota is congested. New clipboard image is not prefetched.");
+            } else if (isWithinBudget()) {
+                startPrefetch(image, ImageUtils.pixelHash(image));
+            } else {
+                Metrics.count("prefetch.budget.exceeded", 1);
+                Main.LOGGER.info("Prefetch budget of {} per hour is used up. New clipboard image is not prefetched.",
+                        ConfigUtils.getIntProperty(CONFIG_PREFETCH_BUDGET));
+            }
+        }
+    }
+
+    private boolean isWithinBudget() {
+        long now = System.nanoTime();
+        while (!prefetchTimes.isEmpty() && now - prefetchTimes.peekFirst() > TimeUnit.HOURS.toNanos(1)) {
+            prefetchTimes.pollFirst();
+        }
+        if (prefetchTimes.size() >= ConfigUtils.getIntProperty(CONFIG_PREFETCH_BUDGET)) {
+            return false;
+        }
+        prefetchTimes.addLast(now);
+        return true;
+    }
+
+    private void startPrefetch(BufferedImage image, long hash) {
+        Main.LOGGER.info("New image on the clipboard. Prefetching its text.");
+        Metrics.count("prefetch.started", 1);
+        CompletableFuture<Void> ocrDone = new CompletableFuture<>();
+        CancellationToken token = new CancellationToken(CancellationToken.Priority.PREFETCH);
+        Future<?> task = executor.submit(() -> {
+            try {
+                token.call(() -> {
+                    OCRResult result = ocrService.getTextFromImage(image);
+                    ocrDone.complete(null);
+                    if (ConfigUtils.getBooleanProperty(CONFIG_PREFETCH_TTS)) {
+                        prefetchSpeech(result);
+                    }
+                    return null;
+                });
+            } catch (Exception ex) {
+                if (!token.isCancelled() && !Thread.currentThread().isInterrupted()) {
+                    Main.LOGGER.warn("Prefetch of the clipboard image failed: {}", ex.getMessage());
+                }
+            } finally {
+                ocrDone.complete(null);
+            }
+        });
+        prefetch = new Prefetch(hash, task, token, ocrDone);
+    }
+
+    /**
+     * Generates the speech like the conversion would do it, so it is in the speech cache afterwards.
+     */
+    private void prefetchSpeech(OCRResult result) throws Exception {
+        if (result.text().isBlank() || result.text().length() > ConfigUtils.getIntProperty(CONFIG_PREFETCH_TTS_MAX_CHARACTERS)) {
+            return;
+        }
+        String text = result.text();
+        if (translationActive.getAsBoolean()) {
+            String language = ttsService.getTargetLanguage();
+            if (translationService.isTranslationAvailableForLanguage(language)) {
+                text = ConversionPipeline.translate(result, language, translationService);
+            }
+        }
+        if (streamingActive.getAsBoolean() && ttsService instanceof IStreamingTTSService streamingService) {
+            try (SpeechStream speech = streamingService.getSpeechStreamFromText(text)) {
+                InputStream chunk;
+                while ((chunk = speech.next()) != null) {
+                    chunk.close();
+                }
+            }
+        } else {
+            ttsService.getSpeechFromText(text).close();
+        }
+        Main.LOGGER.info("Prefetched speech of the clipboard image.");
+    }
+
+    private void cancelPrefetch() {
+        Prefetch current = prefetch;
+        if (current != null && !current.task().isDone()) {
+            current.token().cancel();
+            current.task().cancel(true);
+            Metrics.count("prefetch.cancelled", 1);
+        }
+        if (current != null) {
+            current.ocrDone().complete(null); //the task may have been cancelled before it started
+        }
+        prefetch = null;
+    }
+
+    /**
+     * Waits until the running prefetch of the given image has its text, so the conversion gets it from the cache
+     * instead of sending the same request again. If the prefetch needs longer than the OCR timeout, it is cancelled
+     * and the conversion does a fresh request.
+     */
+    public void awaitPrefetch(BufferedImage image) {
+        Prefetch current = prefetch;
+        if (current == null || current.hash() != ImageUtils.pixelHash(image)) {
+            return;
+        }
+        Metrics.count("prefetch.used", 1);
+        current.token().raisePriority(CancellationToken.Priority.INTERACTIVE);
+        try {
+            current.ocrDone().get(ocrTimeoutMillis.getAsLong(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            Main.LOGGER.warn("Prefetch of the clipboard image did not finish in time. Converting the image again.");
+            Metrics.count("prefetch.timeout", 1);
+            synchronized (this) {
+                if (prefetch == current) {
+                    cancelPrefetch();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            //the conversion does the request itself
+        }
+    }
+
+}
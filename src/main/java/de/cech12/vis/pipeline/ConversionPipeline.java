@@ -0,0 +1,225 @@
+package de.cech12.vis.pipeline;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.metrics.Span;
+import de.cech12.vis.service.CancellationToken;
+import de.cech12.vis.service.IOCRService;
+import de.cech12.vis.service.IStreamingTTSService;
+import de.cech12.vis.service.OCRResult;
+import de.cech12.vis.service.ITTSService;
+import de.cech12.vis.service.ITranslationService;
+import de.cech12.vis.service.SpeechStream;
+import de.cech12.vis.utils.ExecutorUtils;
+import de.cech12.vis.utils.LanguageUtils;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Converts an image into speech with asynchronous stages. Independent stages run concurrently:
+ * while the OCR service detects the text, the target language is determined and the translation service checks,
+ * if it supports this language (which may load its language list).
+ */
+public class ConversionPipeline {
+
+    private final IOCRService ocrService;
+    private final ITranslationService translationService;
+    private final ITTSService ttsService;
+    private final Executor executor;
+    private final IncrementalReader incrementalReader;
+
+    public ConversionPipeline(IOCRService ocrService, ITranslationService translationService, ITTSService ttsService, Executor executor) {
+        this(ocrService, translationService, ttsService, executor, null);
+    }
+
+    /**
+     * @param incrementalReader reduces the text to its new paragraphs, when it is active (may be null)
+     */
+    public ConversionPipeline(IOCRService ocrService, ITranslationService translationService, ITTSService ttsService, Executor executor,
+                              IncrementalReader incrementalReader) {
+        this.ocrService = ocrService;
+        this.translationService = translationService;
+        this.ttsService = ttsService;
+        this.executor = executor;
+        this.incrementalReader = incrementalReader;
+    }
+
+    public CompletableFuture<SpeechStream> run(BufferedImage image, boolean translationActive, boolean streamingActive) {
+        return run(image, translationActive, streamingActive, Metrics.nextConversionId());
+    }
+
+    public CompletableFuture<SpeechStream> run(BufferedImage image, boolean translationActive, boolean streamingActive, long conversionId) {
+        return run(image, translationActive, streamingActive, conversionId, CancellationToken.NONE);
+    }
+
+    /**
+     * @param conversionId id of the conversion in the metrics (JFR events)
+     * @param token cancels all running requests of the conversion. The returned future completes with a
+     *              {@link CancellationException} directly after the cancellation.
+     * @return speech of the image. It has no chunks, if the incremental reader found no new text.
+     */
+    public CompletableFuture<SpeechStream> run(BufferedImage image, boolean translationActive, boolean streamingActive, long conversionId,
+                                               CancellationToken token) {
+        return run(image, translationActive, streamingActive, conversionId, token, CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * @param incrementalTurn completes, when the text of the previous image was read. The new paragraphs of the image
+     *                        are determined only then, so images, which are converted ahead, are compared in the order
+     *                        of reading. The text is recognized before.
+     */
+    public CompletableFuture<SpeechStream> run(BufferedImage image, boolean translationActive, boolean streamingActive, long conversionId,
+                                               CancellationToken token, CompletableFuture<?> incrementalTurn) {
+        //all stages run with the token, so the services can cancel their requests and know the conversion
+        CancellationToken conversionToken = token.getConversionId() == conversionId ? token : token.child(conversionId);
+        Executor executor = conversionToken.wrap(this.executor);
+        long start = System.nanoTime();
+        Span conversionSpan = Metrics.start(Metrics.STAGE_CONVERSION, conversionId);
+        AtomicReference<IncrementalReader.Update> incrementalUpdate = new AtomicReference<>();
+        CompletableFuture<OCRResult> recognizedStage = measure(Metrics.STAGE_OCR, conversionId, () -> ocrService.getTextFromImageAsync(image, executor))
+                .thenApply(result -> {
+                    Main.LOGGER.info("Generated text after {} ms (languages: {}, confidence: {}): {}",
+                            millisSince(start), result.getLanguages(), result.confidence(), result.text());
+                    return result;
+                });
+        boolean incremental = incrementalReader != null && incrementalReader.isActive();
+        CompletableFuture<OCRResult> ocrStage = !incremental ? recognizedStage : recognizedStage.thenCombineAsync(incrementalTurn, (result, ignored) -> {
+            if (result.text().isBlank()) {
+                return result;
+            }
+            //only the new or changed paragraphs are translated and spoken
+            IncrementalReader.Update update = incrementalReader.update(result);
+            incrementalUpdate.set(update);
+            if (update.changes().text().isBlank()) {
+                Main.LOGGER.info("No new text since the last read.");
+                Metrics.count("incremental.unchanged", 1);
+            }
+            return update.changes();
+        }, executor);
+        CompletableFuture<String> targetLanguageStage = ExecutorUtils.supplyAsync(ttsService::getTargetLanguage, executor);
+        CompletableFuture<Boolean> translationAvailableStage = translationActive
+                ? targetLanguageStage.thenCompose(language -> translationService.isTranslationAvailableForLanguageAsync(language, executor))
+                : CompletableFuture.completedFuture(false);
+
+        CompletableFuture<String> textStage = CompletableFuture.allOf(ocrStage, targetLanguageStage, translationAvailableStage)
+                .thenCompose(ignored -> {
+                    OCRResult result = ocrStage.join();
+                    if (!translationAvailableStage.join() || result.text().isBlank()) {
+                        return CompletableFuture.completedFuture(result.text());
+                    }
+                    return measure(Metrics.STAGE_TRANSLATION, conversionId,
+                            () -> ExecutorUtils.supplyAsync(() -> translate(result, targetLanguageStage.join(), translationService), executor))
+                            .thenApply(translation -> {
+                                Main.LOGGER.info("Text to speak after {} ms: {}", millisSince(start), translation);
+                                return translation;
+                            });
+                });
+
+        CompletableFuture<SpeechStream> speechStage = textStage.thenCompose(text -> {
+            if (text.isBlank() && incrementalUpdate.get() != null) {
+                return CompletableFuture.completedFuture(new SpeechStream(List.of()));
+            }
+            if (text.isBlank()) {
+                throw new CompletionException(new Exception("No text was found in the image."));
+            }
+            if (streamingActive && ttsService instanceof IStreamingTTSService streamingService) {
+                return measure(Metrics.STAGE_TTS, conversionId, () -> streamingService.getSpeechStreamFromTextAsync(text, executor));
+            }
+            return measure(Metrics.STAGE_TTS, conversionId, () -> ttsService.getSpeechFromTextAsync(text, executor))
+                    .thenApply(speech -> speech == null ? null : SpeechStream.of(speech));
+        }).thenApply(speech -> {
+            if (speech == null || (speech.size() == 0 && incrementalUpdate.get() == null)) {
+                throw new CompletionException(new Exception("No speech was generated."));
+            }
+            return speech;
+        });
+
+        CompletableFuture<SpeechStream> result = new CompletableFuture<>();
+        Runnable removeListener = token.onCancel(() -> result.completeExceptionally(new CancellationException("The conversion was cancelled.")));
+        speechStage.whenComplete((speech, ex) -> {
+            if (ex != null) {
+                result.completeExceptionally(ex);
+                return;
+            }
+            if (result.isDone()) {
+                speech.close(); //the conversion was cancelled while the speech stream was created
+                return;
+            }
+            //committed before the speech is handed out, so the next image is compared with this text
+            if (incrementalUpdate.get() != null) {
+                incrementalUpdate.get().commit();
+            }
+            if (!result.complete(withConversionId(speech, conversionId))) {
+                speech.close();
+            }
+        });
+        return result.whenComplete((speech, ex) -> {
+            removeListener.run();
+            if (token.isCancelled()) {
+                conversionSpan.cancel();
+            } else if (ex != null) {
+                conversionSpan.fail();
+            }
+            conversionSpan.close();
+        });
+    }
+
+    private static SpeechStream withConversionId(SpeechStream speech, long conversionId) {
+        speech.setConversionId(conversionId);
+        return speech;
+    }
+
+    private static <T> CompletableFuture<T> measure(String stage, long conversionId, Supplier<CompletableFuture<T>> task) {
+        Span span = Metrics.start(stage, conversionId);
+        return task.get().whenComplete((result, ex) -> {
+            if (ex != null) {
+                span.fail();
+            }
+            span.close();
+        });
+    }
+
+    /**
+     * Translates only the blocks of the OCR result, which are not already in the target language.
+     * Blocks with an unknown language are translated, too.
+     * @return the text to speak
+     */
+    public static String translate(OCRResult result, String targetLanguage, ITranslationService translationService) throws Exception {
+        List<Integer> blockIndices = new ArrayList<>();
+        List<String> blockTexts = new ArrayList<>();
+        for (int i = 0; i < result.blocks().size(); i++) {
+            OCRResult.Block block = result.blocks().get(i);
+            if (!block.text().isBlank() && !LanguageUtils.isSameLanguage(block.language(), targetLanguage)) {
+                blockIndices.add(i);
+                blockTexts.add(block.text());
+            }
+        }
+        if (blockTexts.isEmpty()) {
+            Main.LOGGER.info("Text is already in the target language {}. Translation is skipped.", targetLanguage);
+            return result.text();
+        }
+        Main.LOGGER.info("Translate {} of {} text blocks into {}.", blockTexts.size(), result.blocks().size(), targetLanguage);
+        List<String> translations = translationService.getTranslationOfTexts(targetLanguage, blockTexts);
+        List<String> texts = new ArrayList<>();
+        for (OCRResult.Block block : result.blocks()) {
+            texts.add(block.text());
+        }
+        for (int i = 0; i < blockIndices.size(); i++) {
+            texts.set(blockIndices.get(i), translations.get(i));
+        }
+        return String.join("\n", texts);
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+}
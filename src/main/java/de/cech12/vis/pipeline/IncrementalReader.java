@@ -0,0 +1,167 @@
+package de.cech12.vis.pipeline;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.service.OCRResult;
+import de.cech12.vis.utils.ConfigUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers the text, which was read last, and reduces the next OCR result to its new or changed paragraphs.
+ * This is made for chat windows and logs, where a new screenshot contains mostly the same text as the one before.
+ * The paragraphs are compared without differences in whitespace and aligned by their longest common subsequence,
+ * so repeated paragraphs (like a short answer in a chat) are still detected as new. A paragraph, which only got
+ * longer (like the last line of a log), is reduced to its new end.
+ */
+public class IncrementalReader {
+
+    public static final String CONFIG_ACTIVE = "main.incremental.active";
+
+    private List<String> lastParagraphs = List.of();
+
+    /**
+     * Changes of an OCR result against the text, which was read last.
+     * @param changes OCR result with the new and changed paragraphs only
+     */
+    public record Update(OCRResult changes, List<String> paragraphs, IncrementalReader reader) {
+
+        /**
+         * Remembers the whole text of this update as read.
+         */
+        public void commit() {
+            reader.commit(paragraphs);
+        }
+    }
+
+    public IncrementalReader() {
+        ConfigUtils.getBooleanPropertyOrDefault(CONFIG_ACTIVE, false);
+    }
+
+    public boolean isActive() {
+        return ConfigUtils.getBooleanProperty(CONFIG_ACTIVE);
+    }
+
+    /**
+     * Forgets the text, which was read last, so the next image is read completely.
+     */
+    public synchronized void reset() {
+        lastParagraphs = List.of();
+    }
+
+    private synchronized void commit(List<String> paragraphs) {
+        lastParagraphs = paragraphs;
+    }
+
+    public synchronized Update update(OCRResult result) {
+        List<OCRResult.Block> paragraphs = splitIntoParagraphs(result);
+        List<String> normalized = new ArrayList<>();
+        for (OCRResult.Block paragraph : paragraphs) {
+            normalized.add(normalize(paragraph.text()));
+        }
+        boolean[] matched = new boolean[normalized.size()];
+        boolean[] lastMatched = new boolean[lastParagraphs.size()];
+        matchCommonSubsequence(lastParagraphs, normalized, lastMatched, matched);
+
+        List<OCRResult.Block> changes = new ArrayList<>();
+        long skipped = 0;
+        for (int i = 0; i < paragraphs.size(); i++) {
+            OCRResult.Block paragraph = paragraphs.get(i);
+            if (matched[i]) {
+                skipped += paragraph.text().length();
+                continue;
+            }
+            String text = normalized.get(i);
+            String grownFrom = findGrownParagraph(text, lastMatched);
+            if (grownFrom != null) {
+                skipped += grownFrom.length();
+                text = text.substring(grownFrom.length()).strip();
+            } else {
+                text = paragraph.text();
+            }
+            if (!text.isEmpty()) {
+                changes.add(new OCRResult.Block(text, paragraph.language(), paragraph.confidence()));
+            }
+        }
+        List<String> texts = new ArrayList<>();
+        for (OCRResult.Block block : changes) {
+            texts.add(block.text());
+        }
+        Main.LOGGER.info("{} of {} paragraphs are new or changed.", changes.size(), paragraphs.size());
+        Metrics.count("incremental.characters.skipped", skipped);
+        return new Update(new OCRResult(String.join("\n", texts), changes, result.confidence()), normalized, this);
+    }
+
+    /**
+     * Splits the blocks of the result at empty lines. The language and the confidence of a block are used for all
+     * of its paragraphs.
+     */
+    private static List<OCRResult.Block> splitIntoParagraphs(OCRResult result) {
+        List<OCRResult.Block> paragraphs = new ArrayList<>();
+        for (OCRResult.Block block : result.blocks()) {
+            for (String paragraph : block.text().split("\\n\\s*\\n")) {
+                if (!paragraph.isBlank()) {
+                    paragraphs.add(new OCRResult.Block(paragraph.strip(), block.language(), block.confidence()));
+                }
+            }
+        }
+        return paragraphs;
+    }
+
+    private static String normalize(String text) {
+        return text.strip().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Marks the paragraphs of both lists, which are part of their longest common subsequence.
+     */
+    private static void matchCommonSubsequence(List<String> a, List<String> b, boolean[] aMatched, boolean[] bMatched) {
+        int[][] lengths = new int[a.size() + 1][b.size() + 1];
+        for (int i = a.size() - 1; i >= 0; i--) {
+            for (int j = b.size() - 1; j >= 0; j--) {
+                lengths[i][j] = a.get(i).equals(b.get(j)) ? lengths[i + 1][j + 1] + 1 : Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+            }
+        }
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            if (a.get(i).equals(b.get(j))) {
+                aMatched[i++] = true;
+                bMatched[j++] = true;
+            } else if (lengths[i + 1][j] >= lengths[i][j + 1]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+    }
+
+    /**
+     * @return the longest unmatched paragraph of the last text, with which the given paragraph starts, or null
+     */
+    private String findGrownParagraph(String paragraph, boolean[] lastMatched) {
+        String grownFrom = null;
+        for (int i = 0; i < lastParagraphs.size(); i++) {
+            String last = lastParagraphs.get(i);
+            if (!lastMatched[i] && startsWithWords(paragraph, last) && (grownFrom == null || last.length() > grownFrom.length())) {
+                grownFrom = last;
+            }
+        }
+        return grownFrom;
+    }
+
+    /**
+     * @return true, if the paragraph starts with the given prefix, which does not end within a word ("Run" is no
+     * prefix of "Running")
+     */
+    private static boolean startsWithWords(String paragraph, String prefix) {
+        if (prefix.isEmpty() || !paragraph.startsWith(prefix)) {
+            return false;
+        }
+        return paragraph.length() == prefix.length()
+                || !Character.isLetterOrDigit(prefix.charAt(prefix.length() - 1))
+                || !Character.isLetterOrDigit(paragraph.charAt(prefix.length()));
+    }
+
+}
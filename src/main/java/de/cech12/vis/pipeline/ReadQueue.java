@@ -0,0 +1,459 @@
+package de.cech12.vis.pipeline;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.audio.SpeechPlayer;
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.metrics.Span;
+import de.cech12.vis.service.CancellationToken;
+import de.cech12.vis.service.SpeechStream;
+import de.cech12.vis.utils.ConfigUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Images, which are read aloud one after the other. While an image is played, the next images (up to the look-ahead
+ * depth "queue.lookahead") are already converted in the background, so the speech of an image directly follows the
+ * speech of the previous one: the whole queue is played as one speech stream, which keeps the audio line open.
+ * The queue holds at most "queue.max.size" images, which limits the memory of the waiting images and their speech.
+ * Conversions of the look-ahead run with background priority, until their image is the next one to be played.
+ * The press-to-speech time of an image ends, when its speech is ready. The time, which the ready speech waits for its
+ * playback (e.g. behind the previous images), is recorded as "queue.wait".
+ */
+public class ReadQueue {
+
+    public static final String CONFIG_LOOKAHEAD = "queue.lookahead";
+    public static final String CONFIG_MAX_SIZE = "queue.max.size";
+
+    /**
+     * Converts an image into speech (see {@link ConversionPipeline}).
+     */
+    public interface Converter {
+        /**
+         * @param token cancels the conversion, when the image is skipped or removed
+         * @param turn completes, when the image is the next one to be played (all images before were played, skipped
+         *             or removed). Stages, which depend on the images read before, wait for it.
+         */
+        CompletableFuture<SpeechStream> convert(BufferedImage image, long conversionId, CancellationToken token, CompletableFuture<Void> turn);
+    }
+
+    public static class Item {
+        private final int number;
+        private final long conversionId;
+        private final Span pressToSpeechSpan;
+        private Span queueWaitSpan = null; //started, when the speech is ready
+        private boolean spansClosed = false;
+        private final CancellationToken token = new CancellationToken(CancellationToken.Priority.BACKGROUND);
+        private final CompletableFuture<Void> turn = new CompletableFuture<>();
+        private BufferedImage image; //released, when the conversion is started
+        private volatile CompletableFuture<SpeechStream> speech = null; //null until the conversion is started
+        private volatile boolean playing = false;
+
+        private Item(int number, long conversionId, BufferedImage image, Span pressToSpeechSpan) {
+            this.number = number;
+            this.conversionId = conversionId;
+            this.image = image;
+            this.pressToSpeechSpan = pressToSpeechSpan;
+        }
+
+        private void cancel() {
+            token.cancel();
+            turn.cancel(false);
+            if (speech != null) {
+                speech.thenAccept(SpeechStream::close);
+            }
+            closeSpans();
+        }
+
+        private synchronized void speechReady(Throwable ex) {
+            if (spansClosed) {
+                return;
+            }
+            if (ex == null) {
+                pressToSpeechSpan.close();
+                queueWaitSpan = Metrics.start(Metrics.STAGE_QUEUE_WAIT, conversionId);
+                return;
+            }
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof CancellationException || token.isCancelled()) {
+                pressToSpeechSpan.cancel();
+            } else {
+                pressToSpeechSpan.fail();
+            }
+            pressToSpeechSpan.close();
+        }
+
+        /**
+         * Called, when the first chunk of the speech is played.
+         */
+        private synchronized void playbackStarted() {
+            if (queueWaitSpan != null) {
+                queueWaitSpan.close();
+            }
+        }
+
+        /**
+         * Cancels the spans, which did not end yet.
+         */
+        private synchronized void closeSpans() {
+            spansClosed = true;
+            pressToSpeechSpan.cancel();
+            pressToSpeechSpan.close(); //only the first close counts
+            if (queueWaitSpan != null) {
+                queueWaitSpan.cancel();
+                queueWaitSpan.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            String state;
+            if (playing) {
+                state = "playing";
+            } else if (speech == null) {
+                state = "waiting";
+            } else if (!speech.isDone()) {
+                state = "converting";
+            } else {
+                state = speech.isCompletedExceptionally() ? "failed" : "ready";
+            }
+            return "Image " + number + " (" + state + ")";
+        }
+    }
+
+    private final Converter converter;
+    private final SpeechPlayer player;
+    private final Executor executor;
+    private final Runnable onChange;
+    private final Consumer<String> onError;
+
+    private final List<Item> items = new ArrayList<>(); //waiting images in the order of reading
+    private Item current = null; //image, which is played or whose speech is awaited
+    private QueueStream stream = null; //stream of the running playback
+    private int nextNumber = 1;
+
+    /**
+     * @param onChange called when the items or their states changed (on any thread)
+     * @param onError called with the message of a failed conversion or playback
+     */
+    public ReadQueue(Converter converter, SpeechPlayer player, Executor executor, Runnable onChange, Consumer<String> onError) {
+        this.converter = converter;
+        this.player = player;
+        this.executor = executor;
+        this.onChange = onChange;
+        this.onError = onError;
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_LOOKAHEAD, 2);
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_MAX_SIZE, 10);
+    }
+
+    /**
+     * @return true, if an image is played or waiting
+     */
+    public synchronized boolean isActive() {
+        return stream != null || !items.isEmpty();
+    }
+
+    /**
+     * @return the current image followed by the waiting images
+     */
+    public synchronized List<Item> getItems() {
+        List<Item> result = new ArrayList<>();
+        if (current != null) {
+            result.add(current);
+        }
+        result.addAll(items);
+        return result;
+    }
+
+    /**
+     * Adds an image at the end of the queue. The playback starts, if nothing is played.
+     * @param pressToSpeechSpan is closed, when the speech of the image is ready
+     * @return false, if the queue is full
+     */
+    public synchronized boolean add(BufferedImage image, long conversionId, Span pressToSpeechSpan) {
+        if (items.size() + (current != null ? 1 : 0) >= ConfigUtils.getIntProperty(CONFIG_MAX_SIZE)) {
+            Metrics.count("queue.rejected", 1);
+            pressToSpeechSpan.cancel();
+            pressToSpeechSpan.close();
+            return false;
+        }
+        Metrics.count("queue.added", 1);
+        items.add(new Item(nextNumber++, conversionId, image, pressToSpeechSpan));
+        startConversions();
+        if (stream == null) {
+            startPlayback();
+        }
+        onChange.run();
+        return true;
+    }
+
+    /**
+     * Stops the current image and continues with the next one.
+     */
+    public synchronized void skip() {
+        if (stream == null) {
+            return;
+        }
+        Main.LOGGER.info("Skip the current image of the read queue.");
+        Metrics.count("queue.skipped", 1);
+        stopPlayback();
+        if (!items.isEmpty()) {
+            startPlayback();
+        }
+        onChange.run();
+    }
+
+    /**
+     * Removes a waiting image (use {@link #skip()} for the current image).
+     */
+    public synchronized void remove(Item item) {
+        if (items.remove(item)) {
+            item.cancel();
+            startConversions();
+            onChange.run();
+        }
+    }
+
+    /**
+     * Moves a waiting image by the given number of places (negative: to the front).
+     */
+    public synchronized void move(Item item, int offset) {
+        int index = items.indexOf(item);
+        if (index < 0) {
+            return;
+        }
+        int newIndex = Math.max(0, Math.min(items.size() - 1, index + offset));
+        items.remove(index);
+        items.add(newIndex, item);
+        //an image, which left the look-ahead, keeps its (already requested) speech, but it takes the place of a new conversion
+        startConversions();
+        onChange.run();
+    }
+
+    /**
+     * Stops the playback and removes all images.
+     */
+    public synchronized void clear() {
+        Main.LOGGER.info("Stop the read queue.");
+        items.forEach(Item::cancel);
+        items.clear();
+        stopPlayback();
+        onChange.run();
+    }
+
+    /**
+     * Starts the conversions of the waiting images within the look-ahead. Images, whose conversion was started, count
+     * against the look-ahead, wherever they are in the queue, so a reordered queue does not convert more images at once.
+     */
+    private void startConversions() {
+        int lookahead = Math.max(1, ConfigUtils.getIntProperty(CONFIG_LOOKAHEAD));
+        int started = 0;
+        for (Item item : items) {
+            if (item.speech != null) {
+                started++;
+            }
+        }
+        for (int i = 0; i < Math.min(lookahead, items.size()); i++) {
+            Item item = items.get(i);
+            if (i == 0 && current == null) {
+                item.token.raisePriority(CancellationToken.Priority.INTERACTIVE);
+            }
+            if (item.speech == null && started < lookahead) {
+                startConversion(item);
+                started++;
+            }
+        }
+    }
+
+    private void startConversion(Item item) {
+        if (item.speech == null) {
+            item.speech = converter.convert(item.image, item.conversionId, item.token, item.turn);
+            item.image = null;
+            item.speech.whenComplete((speech, ex) -> {
+                item.speechReady(ex);
+                onChange.run();
+            });
+        }
+    }
+
+    private void startPlayback() {
+        QueueStream newStream = new QueueStream();
+        stream = newStream;
+        player.play(newStream, onChange, () -> {}, ex -> onError.accept("Failed to play speech: " + ex.getMessage()),
+                () -> executor.execute(() -> playbackFinished(newStream)));
+    }
+
+    private void stopPlayback() {
+        stream = null;
+        current = null;
+        player.stop(); //closes the stream, which cancels its current image
+    }
+
+    private void playbackFinished(QueueStream finishedStream) {
+        synchronized (this) {
+            if (stream != finishedStream) {
+                return;
+            }
+            stream = null;
+            current = null;
+            //images, which were added while the last samples were played
+            if (!items.isEmpty()) {
+                startPlayback();
+            }
+        }
+        onChange.run();
+    }
+
+    /**
+     * @return the next image, which is played by the given stream, or null, if the queue is empty or the stream was stopped
+     */
+    private synchronized Item takeNext(QueueStream from) {
+        if (stream != from) {
+            return null;
+        }
+        current = items.isEmpty() ? null : items.remove(0);
+        if (current != null) {
+            current.token.raisePriority(CancellationToken.Priority.INTERACTIVE);
+            startConversion(current);
+            current.turn.complete(null);
+            //shows, whether the look-ahead was deep enough for a gapless playback
+            Metrics.count(current.speech.isDone() ? "queue.ready" : "queue.awaited", 1);
+            startConversions();
+        }
+        onChange.run();
+        return current;
+    }
+
+    /**
+     * @return conversion id of the next image, which is played
+     */
+    private synchronized long getNextConversionId() {
+        return items.isEmpty() ? 0 : items.get(0).conversionId;
+    }
+
+    private synchronized void finished(Item item) {
+        if (current == item) {
+            current = null;
+        }
+    }
+
+    /**
+     * Speech of all images of the queue. The chunks of one image are followed by the chunks of the next image.
+     * Closing the stream cancels its current image.
+     */
+    private class QueueStream extends SpeechStream {
+
+        private Item item = null;
+        private SpeechStream speech = null; //speech of the current image
+        private boolean closed = false;
+
+        QueueStream() {
+            super(List.of());
+        }
+
+        /**
+         * @return conversion id of the image, which is played (or of the next image, if none is played yet)
+         */
+        @Override
+        public long getConversionId() {
+            Item currentItem;
+            synchronized (this) {
+                currentItem = item;
+            }
+            return currentItem != null ? currentItem.conversionId : getNextConversionId();
+        }
+
+        @Override
+        public InputStream next() throws Exception {
+            while (true) {
+                Item currentItem;
+                SpeechStream currentSpeech;
+                synchronized (this) {
+                    if (closed) {
+                        return null;
+                    }
+                    currentItem = item;
+                    currentSpeech = speech;
+                }
+                if (currentItem == null) {
+                    currentItem = takeNext(this);
+                    if (currentItem == null) {
+                        return null;
+                    }
+                    synchronized (this) {
+                        if (closed) {
+                            currentItem.cancel();
+                            return null;
+                        }
+                        item = currentItem;
+                    }
+                    continue;
+                }
+                try {
+                    if (currentSpeech == null) {
+                        currentSpeech = currentItem.speech.get();
+                        synchronized (this) {
+                            if (closed) {
+                                currentSpeech.close();
+                                return null;
+                            }
+                            speech = currentSpeech;
+                            currentItem.playing = true;
+                        }
+                    }
+                    InputStream chunk = currentSpeech.next();
+                    if (chunk != null) {
+                        currentItem.playbackStarted();
+                        return chunk;
+                    }
+                } catch (InterruptedException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    Throwable cause = ex instanceof ExecutionException && ex.getCause() != null ? ex.getCause() : ex;
+                    if (!(cause instanceof CancellationException) && !currentItem.token.isCancelled()) {
+                        Main.LOGGER.error("Failed to read image {} of the queue.", currentItem.number, cause);
+                        onError.accept("Failed to run conversion: " + cause.getMessage());
+                    }
+                    currentItem.cancel();
+                }
+                //the image is finished (without speech, if it had no new text), the next one follows
+                currentItem.closeSpans();
+                synchronized (this) {
+                    item = null;
+                    speech = null;
+                }
+                if (currentSpeech != null) {
+                    currentSpeech.close();
+                }
+                finished(currentItem);
+            }
+        }
+
+        @Override
+        public void close() {
+            Item closedItem;
+            SpeechStream closedSpeech;
+            synchronized (this) {
+                closed = true;
+                closedItem = item;
+                closedSpeech = speech;
+            }
+            if (closedSpeech != null) {
+                closedSpeech.close();
+            }
+            if (closedItem != null) {
+                closedItem.cancel();
+            }
+        }
+
+    }
+
+}
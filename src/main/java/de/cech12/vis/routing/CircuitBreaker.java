@@ -0,0 +1,117 @@
+package de.cech12.vis.routing;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import de.cech12.vis.Main;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.http.HttpTimeoutException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Stops sending requests to a provider after several failures in a row. After the open time a single trial request
+ * is let through. Its success closes the circuit again, its failure keeps it open for another open time.
+ * Only failures of the provider itself are counted (see {@link #isProviderFailure(Throwable)}), not failures caused
+ * by the caller, like an invalid request, a wrong configuration or a cancellation.
+ */
+public class CircuitBreaker {
+
+    /** Status codes of the transport, of server errors (5xx) and of exceeded deadlines */
+    private static final Set<StatusCode.Code> PROVIDER_FAILURE_CODES = Set.of(StatusCode.Code.UNAVAILABLE,
+            StatusCode.Code.DEADLINE_EXCEEDED, StatusCode.Code.INTERNAL, StatusCode.Code.UNKNOWN, StatusCode.Code.DATA_LOSS);
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private int consecutiveFailures = 0;
+    private boolean open = false;
+    private boolean trialRunning = false;
+    private long openedAt;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * @return true, if the circuit is closed or a trial request could be sent. Does not change the state.
+     */
+    public synchronized boolean isAvailable() {
+        return !open || (!trialRunning && System.nanoTime() - openedAt >= openNanos);
+    }
+
+    /**
+     * Called directly before a request is sent. If the circuit is half-open, the request becomes its trial request.
+     * The result of the request must be recorded with {@link #recordSuccess()}, {@link #recordFailure()} or
+     * {@link #recordIgnored()}.
+     * @return false, if the request must not be sent
+     */
+    public synchronized boolean tryAcquireTrial() {
+        if (!isAvailable()) {
+            return false;
+        }
+        if (open) {
+            trialRunning = true; //one trial request per open time
+            Main.LOGGER.info("Circuit of {} is half-open. Sending a trial request.", name);
+        }
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        if (open) {
+            Main.LOGGER.info("Circuit of {} is closed again.", name);
+        }
+        consecutiveFailures = 0;
+        open = false;
+        trialRunning = false;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        trialRunning = false;
+        if (open || consecutiveFailures >= failureThreshold) {
+            if (!open) {
+                Main.LOGGER.warn("Circuit of {} is open after {} failures in a row.", name, consecutiveFailures);
+            }
+            open = true;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Records a request, which tells nothing about the provider (e.g. it was cancelled). A trial request can be sent again.
+     */
+    public synchronized void recordIgnored() {
+        trialRunning = false;
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * @return true, if the exception (or one of its causes) is a failure of the transport, a server error or an
+     * exceeded deadline
+     */
+    public static boolean isProviderFailure(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiException apiException) {
+                return PROVIDER_FAILURE_CODES.contains(apiException.getStatusCode().getCode());
+            }
+            if (cause instanceof TimeoutException || cause instanceof SocketTimeoutException || cause instanceof HttpTimeoutException
+                    || cause instanceof SocketException || cause instanceof UnknownHostException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,349 @@
+package de.cech12.vis.routing;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.metrics.Span;
+import de.cech12.vis.service.CancellationToken;
+import de.cech12.vis.service.IQuotaManagedService;
+import de.cech12.vis.utils.ConfigUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Routes calls to the first available provider of a service. When the primary provider needs longer than its usual
+ * latency (percentile of its last calls), a hedged duplicate request is sent to the next provider. The first
+ * successful answer is used and the other request is cancelled. Failing providers are skipped by a circuit breaker,
+ * but the last remaining provider is always called.
+ * Every call waits for the quota of its provider ("&lt;provider&gt;.&lt;operation&gt;", see {@link QuotaScheduler}),
+ * unless the service waits for the quotas of its APIs itself ({@link IQuotaManagedService}).
+ */
+public class ProviderRouter<S> {
+
+    public static final String CONFIG_HEDGE_ACTIVE = "routing.hedge.active";
+    public static final String CONFIG_HEDGE_PERCENTILE = "routing.hedge.percentile";
+    public static final String CONFIG_HEDGE_MIN_SAMPLES = "routing.hedge.min.samples";
+    public static final String CONFIG_HEDGE_DEFAULT_DELAY = "routing.hedge.default.delay.ms";
+    public static final String CONFIG_BREAKER_FAILURES = "routing.breaker.failures";
+    public static final String CONFIG_BREAKER_OPEN = "routing.breaker.open.seconds";
+    public static final String CONFIG_QUOTA_WAIT = "routing.quota.wait.ms";
+
+    private static final int LATENCY_SAMPLES = 256;
+
+    public interface Call<S, R> {
+        R call(S service) throws Exception;
+    }
+
+    public static class Provider<S> {
+        private final String name;
+        private final S service;
+        private final LatencyTracker latency = new LatencyTracker(LATENCY_SAMPLES);
+        private final CircuitBreaker circuitBreaker;
+        private final String quota;
+
+        private Provider(String name, S service, CircuitBreaker circuitBreaker, String quota) {
+            this.name = name;
+            this.service = service;
+            this.circuitBreaker = circuitBreaker;
+            this.quota = quota;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public S getService() {
+            return service;
+        }
+
+        public LatencyTracker getLatency() {
+            return latency;
+        }
+
+        public CircuitBreaker getCircuitBreaker() {
+            return circuitBreaker;
+        }
+
+        /**
+         * @return name of the quota, which the calls of the provider wait for, or null, if the service waits for its quotas itself
+         */
+        public String getQuota() {
+            return quota;
+        }
+    }
+
+    private final String operation;
+    private final String stage;
+    private final List<Provider<S>> providers = new ArrayList<>();
+    private final ExecutorService executor;
+
+    /**
+     * @param services all providers of the service in the order of their preference
+     * @param executor runs the requests, when they are hedged
+     */
+    public ProviderRouter(String operation, Map<String, S> services, ExecutorService executor) {
+        if (services.isEmpty()) {
+            throw new IllegalArgumentException("No provider for " + operation + " was found.");
+        }
+        this.operation = operation;
+        this.stage = operation.toLowerCase(Locale.ROOT);
+        this.executor = executor;
+        int failureThreshold = ConfigUtils.getIntPropertyOrDefault(CONFIG_BREAKER_FAILURES, 5);
+        long openMillis = TimeUnit.SECONDS.toMillis(ConfigUtils.getIntPropertyOrDefault(CONFIG_BREAKER_OPEN, 30));
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_QUOTA_WAIT, 20000);
+        services.forEach((name, service) -> {
+            String quota = null;
+            if (!(service instanceof IQuotaManagedService)) {
+                //unlimited, until it is configured
+                quota = name + "." + stage;
+                QuotaScheduler.get().register(quota, 0, 0);
+            }
+            providers.add(new Provider<>(name, service, new CircuitBreaker(operation + " of " + name, failureThreshold, openMillis), quota));
+        });
+    }
+
+    public S getPrimary() {
+        return providers.get(0).getService();
+    }
+
+    public List<Provider<S>> getProviders() {
+        return Collections.unmodifiableList(providers);
+    }
+
+    public <R> R call(Call<S, R> call) throws Exception {
+        return call(call, false);
+    }
+
+    /**
+     * @param awaitAttempts returns only after all requests ended (also the cancelled ones of a hedged call), e.g. when
+     *                      they read a buffer, which the caller releases after the call
+     */
+    public <R> R call(Call<S, R> call, boolean awaitAttempts) throws Exception {
+        List<Provider<S>> candidates = new ArrayList<>();
+        for (Provider<S> provider : providers) {
+            if (provider.getCircuitBreaker().isAvailable()) {
+                candidates.add(provider);
+            }
+        }
+        if (candidates.isEmpty()) {
+            //rejecting all calls would not be better than trying the preferred provider
+            candidates.add(providers.get(0));
+        }
+        if (candidates.size() > 1 && ConfigUtils.getBooleanPropertyOrDefault(CONFIG_HEDGE_ACTIVE, true)) {
+            return callHedged(candidates, call, awaitAttempts);
+        }
+        return callInOrder(candidates, call);
+    }
+
+    /**
+     * Fails over to the next provider, when a provider fails.
+     */
+    private <R> R callInOrder(List<Provider<S>> candidates, Call<S, R> call) throws Exception {
+        Exception failure = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            Provider<S> provider = candidates.get(i);
+            try {
+                return callMeasured(provider, call, i == candidates.size() - 1);
+            } catch (Exception ex) {
+                if (failure != null) {
+                    ex.addSuppressed(failure);
+                }
+                failure = ex;
+                Main.LOGGER.warn("{} of {} failed: {}", operation, provider.getName(), ex.getMessage());
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Request to one provider, whose end can be awaited, even if it was cancelled while it was running.
+     */
+    private static class Attempt<R> implements Callable<R> {
+        private final Callable<R> task;
+        private final AtomicBoolean started = new AtomicBoolean(); //set, when the task was started or must not start anymore
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        private Attempt(Callable<R> task) {
+            this.task = task;
+        }
+
+        @Override
+        public R call() throws Exception {
+            if (!started.compareAndSet(false, true)) {
+                throw new CancellationException();
+            }
+            try {
+                return task.call();
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Waits until the task ended, if it was started. Otherwise, it is not started anymore.
+         */
+        private void awaitEnd() {
+            if (started.compareAndSet(false, true)) {
+                return;
+            }
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private <R> R callHedged(List<Provider<S>> candidates, Call<S, R> call, boolean awaitAttempts) throws Exception {
+        //the requests run on other threads, so they get the cancellation token of the caller
+        CancellationToken token = CancellationToken.current();
+        ExecutorCompletionService<R> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<R>> futures = new ArrayList<>();
+        List<Attempt<R>> attempts = new ArrayList<>();
+        Provider<S> primary = candidates.get(0);
+        futures.add(submit(completionService, attempts, () -> token.call(() -> callMeasured(primary, call, false))));
+        int next = 1;
+        int pending = 1;
+        Exception failure = null;
+        try {
+            long hedgeDelay = getHedgeDelayMillis(primary);
+            Future<R> done = completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (done == null) {
+                Provider<S> secondary = candidates.get(next++);
+                boolean secondaryLast = next == candidates.size();
+                Main.LOGGER.info("{} of {} needs longer than {} ms. Sending a hedged request to {}.", operation, primary.getName(), hedgeDelay, secondary.getName());
+                futures.add(submit(completionService, attempts, () -> token.call(() -> callMeasured(secondary, call, secondaryLast))));
+                pending++;
+                done = completionService.take();
+            }
+            while (true) {
+                pending--;
+                try {
+                    return done.get();
+                } catch (ExecutionException ex) {
+                    Exception cause = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+                    if (failure != null) {
+                        cause.addSuppressed(failure);
+                    }
+                    failure = cause;
+                    Main.LOGGER.warn("{} failed: {}", operation, cause.getMessage());
+                }
+                //fail over to the next provider, if there is no other request running
+                if (pending == 0 && next < candidates.size()) {
+                    Provider<S> fallback = candidates.get(next++);
+                    boolean fallbackLast = next == candidates.size();
+                    futures.add(submit(completionService, attempts, () -> token.call(() -> callMeasured(fallback, call, fallbackLast))));
+                    pending++;
+                }
+                if (pending == 0) {
+                    throw failure;
+                }
+                done = completionService.take();
+            }
+        } finally {
+            for (Future<R> future : futures) {
+                future.cancel(true);
+            }
+            if (awaitAttempts) {
+                attempts.forEach(Attempt::awaitEnd);
+            }
+        }
+    }
+
+    private static <R> Future<R> submit(ExecutorCompletionService<R> completionService, List<Attempt<R>> attempts, Callable<R> task) {
+        Attempt<R> attempt = new Attempt<>(task);
+        attempts.add(attempt);
+        return completionService.submit(attempt);
+    }
+
+    private long getHedgeDelayMillis(Provider<S> provider) {
+        long defaultDelay = ConfigUtils.getIntPropertyOrDefault(CONFIG_HEDGE_DEFAULT_DELAY, 1000);
+        if (provider.getLatency().getCount() < ConfigUtils.getIntPropertyOrDefault(CONFIG_HEDGE_MIN_SAMPLES, 20)) {
+            return defaultDelay;
+        }
+        return Math.max(1, provider.getLatency().getPercentileMillis(ConfigUtils.getDoublePropertyOrDefault(CONFIG_HEDGE_PERCENTILE, 0.95)));
+    }
+
+    /**
+     * @param last the last remaining provider is called, even if its circuit is open
+     */
+    private <R> R callMeasured(Provider<S> provider, Call<S, R> call, boolean last) throws Exception {
+        if (provider.getQuota() != null) {
+            //a call, which is not admitted by the quota, fails over to the next provider without counting as failure
+            QuotaScheduler.get().acquire(provider.getQuota(), 0,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ConfigUtils.getIntProperty(CONFIG_QUOTA_WAIT)));
+        }
+        //the trial request of a half-open circuit is only taken, when the request is really sent
+        if (!provider.getCircuitBreaker().tryAcquireTrial() && !last) {
+            throw new Exception(operation + " of " + provider.getName() + " is unavailable.");
+        }
+        long start = System.nanoTime();
+        try (Span span = Metrics.start(stage, provider.getName(), CancellationToken.current().getConversionId())) {
+            try {
+                R result = call.call(provider.getService());
+                provider.getLatency().record(System.nanoTime() - start);
+                provider.getCircuitBreaker().recordSuccess();
+                return result;
+            } catch (Exception ex) {
+                //a request cancelled by the router is no failure of the provider. Its interruption mostly ends in an
+                //InterruptedException, which cleared the interrupt flag.
+                if (Thread.currentThread().isInterrupted() || isCancellation(ex)) {
+                    if (isInterruption(ex)) {
+                        Thread.currentThread().interrupt();
+                    }
+                    span.cancel();
+                    provider.getCircuitBreaker().recordIgnored();
+                } else {
+                    span.fail();
+                    //invalid requests, configuration errors and cancellations are caused by the caller
+                    if (CircuitBreaker.isProviderFailure(ex)) {
+                        provider.getCircuitBreaker().recordFailure();
+                    } else {
+                        provider.getCircuitBreaker().recordIgnored();
+                    }
+                }
+                throw ex;
+            }
+        }
+    }
+
+    private static boolean isCancellation(Throwable ex) {
+        return isInterruption(ex) || hasCause(ex, CancellationException.class);
+    }
+
+    private static boolean isInterruption(Throwable ex) {
+        return hasCause(ex, InterruptedException.class);
+    }
+
+    private static boolean hasCause(Throwable ex, Class<? extends Throwable> type) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+}
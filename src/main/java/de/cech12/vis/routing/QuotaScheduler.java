@@ -0,0 +1,260 @@
+package de.cech12.vis.routing;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.metrics.Span;
+import de.cech12.vis.service.CancellationToken;
+import de.cech12.vis.utils.ConfigUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Admits the calls of all providers according to the quotas of their APIs. Every API has a token bucket for the
+ * requests per minute ("quota.&lt;api&gt;.requests.per.minute") and one for the units per minute, e.g. characters or
+ * bytes ("quota.&lt;api&gt;.units.per.minute"). 0 means unlimited. A call, which exceeds the quota, waits in the lane
+ * of its priority ({@link CancellationToken#getPriority()}): waiting calls with a higher priority are always admitted
+ * first, calls with the same priority in their order of arrival. Background and prefetch lanes hold at most
+ * "quota.queue.max" calls, further calls are rejected, so optional work backs off instead of piling up.
+ * The waiting time of every call is recorded in the histogram "queue.&lt;api&gt;.&lt;priority&gt;".
+ */
+public class QuotaScheduler {
+
+    public static final String CONFIG_QUEUE_MAX = "quota.queue.max";
+    public static final String CONFIG_EXHAUSTED_PAUSE = "quota.exhausted.pause.ms";
+
+    private static final QuotaScheduler SHARED = new QuotaScheduler();
+    /** Waiting calls check their turn at least this often, so raised priorities take effect */
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Map<String, Quota> quotas = new ConcurrentHashMap<>();
+
+    private static class Bucket {
+        private final String config;
+        private double tokens = -1; //full on first use
+        private long updated;
+
+        Bucket(String config) {
+            this.config = config;
+            ConfigUtils.getIntPropertyOrDefault(config, 0);
+        }
+
+        /**
+         * @return 0, if the amount was taken, otherwise the nanoseconds until the amount is available
+         */
+        long nanosUntilAvailable(long amount, long now) {
+            long perMinute = ConfigUtils.getIntProperty(config);
+            if (perMinute <= 0) {
+                return 0;
+            }
+            double capacity = perMinute;
+            tokens = tokens < 0 ? capacity : Math.min(capacity, tokens + (now - updated) * capacity / TimeUnit.MINUTES.toNanos(1));
+            updated = now;
+            double needed = Math.min(amount, capacity); //larger calls would never fit
+            return needed <= tokens ? 0 : (long) Math.ceil((needed - tokens) * TimeUnit.MINUTES.toNanos(1) / capacity);
+        }
+
+        void take(long amount) {
+            long perMinute = ConfigUtils.getIntProperty(config);
+            if (perMinute > 0) {
+                tokens -= Math.min(amount, perMinute);
+            }
+        }
+
+        void drain() {
+            tokens = 0;
+        }
+    }
+
+    private record Waiter(CancellationToken token, long units) {}
+
+    private static class Quota {
+        private final Bucket requests;
+        private final Bucket units;
+        private final List<Waiter> waiters = new ArrayList<>(); //in their order of arrival
+        private long pausedUntil = 0;
+
+        Quota(String api) {
+            requests = new Bucket(getRequestsConfig(api));
+            units = new Bucket(getUnitsConfig(api));
+        }
+
+        /**
+         * @return the waiter with the highest priority, which arrived first
+         */
+        Waiter next() {
+            Waiter next = null;
+            for (Waiter waiter : waiters) {
+                if (next == null || waiter.token().getPriority().compareTo(next.token().getPriority()) > 0) {
+                    next = waiter;
+                }
+            }
+            return next;
+        }
+
+        int countWaiters(CancellationToken.Priority priority) {
+            int count = 0;
+            for (Waiter waiter : waiters) {
+                if (waiter.token().getPriority() == priority) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return 0, if the call was admitted, otherwise the nanoseconds until it can be admitted
+         */
+        long tryAdmit(Waiter waiter, long now) {
+            if (now < pausedUntil) {
+                return pausedUntil - now;
+            }
+            long wait = Math.max(requests.nanosUntilAvailable(1, now), units.nanosUntilAvailable(waiter.units(), now));
+            if (wait == 0) {
+                requests.take(1);
+                units.take(waiter.units());
+            }
+            return wait;
+        }
+    }
+
+    private QuotaScheduler() {
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_QUEUE_MAX, 64);
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_EXHAUSTED_PAUSE, 1000);
+    }
+
+    /**
+     * @return the scheduler, which is shared by all providers
+     */
+    public static QuotaScheduler get() {
+        return SHARED;
+    }
+
+    private static String getRequestsConfig(String api) {
+        return "quota." + api + ".requests.per.minute";
+    }
+
+    private static String getUnitsConfig(String api) {
+        return "quota." + api + ".units.per.minute";
+    }
+
+    /**
+     * Sets the default quota of an API, if it is not configured.
+     */
+    public void register(String api, int requestsPerMinute, int unitsPerMinute) {
+        ConfigUtils.getIntPropertyOrDefault(getRequestsConfig(api), requestsPerMinute);
+        ConfigUtils.getIntPropertyOrDefault(getUnitsConfig(api), unitsPerMinute);
+    }
+
+    /**
+     * Waits until the quota of the API allows the call. Waiting ends early, when the token of the current thread is
+     * cancelled.
+     * @param units units of the call (e.g. characters or bytes)
+     * @param deadline {@link System#nanoTime()}, until which the call must be admitted
+     * @throws RejectedExecutionException if the lane of a background or prefetch call is full
+     * @throws TimeoutException if the call cannot be admitted before its deadline
+     */
+    public void acquire(String api, long units, long deadline) throws InterruptedException, TimeoutException {
+        CancellationToken token = CancellationToken.current();
+        CancellationToken.Priority priority = token.getPriority();
+        Quota quota = quotas.computeIfAbsent(api, Quota::new);
+        Span span = Metrics.start(Metrics.STAGE_QUEUE, api + "." + priority.name().toLowerCase(Locale.ROOT), token.getConversionId());
+        try {
+            synchronized (quota) {
+                if (priority != CancellationToken.Priority.INTERACTIVE
+                        && quota.countWaiters(priority) >= ConfigUtils.getIntProperty(CONFIG_QUEUE_MAX)) {
+                    Metrics.count("quota." + api + ".rejected", 1);
+                    throw new RejectedExecutionException("Too many " + priority.name().toLowerCase(Locale.ROOT) + " calls are waiting for the quota of " + api + ".");
+                }
+                Waiter waiter = new Waiter(token, units);
+                quota.waiters.add(waiter);
+                Runnable removeListener = token.onCancel(() -> {
+                    synchronized (quota) {
+                        quota.notifyAll();
+                    }
+                });
+                try {
+                    awaitTurn(api, quota, waiter, deadline);
+                } finally {
+                    quota.waiters.remove(waiter);
+                    removeListener.run();
+                    quota.notifyAll(); //the next waiter may be admitted now
+                }
+            }
+        } catch (CancellationException ex) {
+            span.cancel();
+            throw ex;
+        } catch (InterruptedException | TimeoutException | RuntimeException ex) {
+            span.fail();
+            throw ex;
+        } finally {
+            span.close();
+        }
+    }
+
+    private static void awaitTurn(String api, Quota quota, Waiter waiter, long deadline) throws InterruptedException, TimeoutException {
+        while (true) {
+            waiter.token().throwIfCancelled();
+            long now = System.nanoTime();
+            long wait = quota.next() == waiter ? quota.tryAdmit(waiter, now) : MAX_WAIT_NANOS;
+            if (wait == 0) {
+                return;
+            }
+            if (now + Math.min(wait, MAX_WAIT_NANOS) - deadline >= 0) {
+                Metrics.count("quota." + api + ".timeouts", 1);
+                throw new TimeoutException("The quota of " + api + " does not allow the call before its deadline.");
+            }
+            TimeUnit.NANOSECONDS.timedWait(quota, Math.min(wait, MAX_WAIT_NANOS));
+        }
+    }
+
+    /**
+     * Pauses all calls of the API for a moment and empties its request bucket, because the backend reported that the
+     * quota is exhausted.
+     */
+    public void onQuotaExhausted(String api) {
+        Quota quota = quotas.computeIfAbsent(api, Quota::new);
+        synchronized (quota) {
+            quota.requests.drain();
+            quota.pausedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ConfigUtils.getIntProperty(CONFIG_EXHAUSTED_PAUSE));
+        }
+        Metrics.count("quota." + api + ".exhausted", 1);
+        Main.LOGGER.warn("Quota of {} is exhausted. Pausing its calls.", api);
+    }
+
+    /**
+     * Backpressure signal for optional work (e.g. prefetching).
+     * @return true, if calls are waiting for the quota of any API
+     */
+    public boolean isCongested() {
+        for (Quota quota : quotas.values()) {
+            synchronized (quota) {
+                if (!quota.waiters.isEmpty() || System.nanoTime() < quota.pausedUntil) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of calls, which are waiting for the quota of the API
+     */
+    public int getQueueLength(String api) {
+        Quota quota = quotas.get(api);
+        if (quota == null) {
+            return 0;
+        }
+        synchronized (quota) {
+            return quota.waiters.size();
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+package de.cech12.vis.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.cech12.vis.Main;
+import de.cech12.vis.audio.AudioDecoder;
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.metrics.Span;
+import de.cech12.vis.pipeline.ConversionPipeline;
+import de.cech12.vis.service.CancellationToken;
+import de.cech12.vis.service.IOCRService;
+import de.cech12.vis.service.IStreamingTTSService;
+import de.cech12.vis.service.ITTSService;
+import de.cech12.vis.service.ITranslationService;
+import de.cech12.vis.service.OCRResult;
+import de.cech12.vis.service.SpeechStream;
+import de.cech12.vis.utils.ConfigUtils;
+import de.cech12.vis.utils.ExecutorUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Local HTTP service, which converts posted images with the services (and therefore the caches) of the application,
+ * so all clients share them. Every request runs on its own thread of the configured executor (virtual threads by
+ * default). Identical concurrent requests are collapsed into one backend call by the caching services.
+ * <ul>
+ *     <li>POST /text: image to text (text/plain)</li>
+ *     <li>POST /speech: image to speech (audio/mpeg or audio/wav)</li>
+ *     <li>POST /convert: image to text and speech (JSON with the Base64 encoded audio)</li>
+ *     <li>GET /health</li>
+ * </ul>
+ * The query parameter "translate" (true/false) overrides "main.translation.active".
+ * The requests have the background priority, so they wait for quota behind the conversions of the user. If too many
+ * of them wait, a request is answered with 503.
+ */
+public class VisServer implements AutoCloseable {
+
+    public static final String CONFIG_PORT = "server.port";
+    public static final String CONFIG_BIND_ADDRESS = "server.bind.address";
+    public static final String CONFIG_EXECUTOR = "server.executor";
+    public static final String CONFIG_MAX_IMAGE_SIZE = "server.max.image.mb";
+
+    private final IOCRService ocrService;
+    private final ITranslationService translationService;
+    private final ITTSService ttsService;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private record Conversion(String text, byte[] audio, String extension) {}
+
+    private static class HttpException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        HttpException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws Exception;
+    }
+
+    public VisServer(IOCRService ocrService, ITranslationService translationService, ITTSService ttsService) {
+        this.ocrService = ocrService;
+        this.translationService = translationService;
+        this.ttsService = ttsService;
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_PORT, 8765);
+        ConfigUtils.getPropertyOrDefault(CONFIG_BIND_ADDRESS, "127.0.0.1");
+        ConfigUtils.getPropertyOrDefault(CONFIG_EXECUTOR, ExecutorUtils.VIRTUAL);
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_MAX_IMAGE_SIZE, 20);
+    }
+
+    public void start() throws IOException {
+        start(ConfigUtils.getIntProperty(CONFIG_PORT));
+    }
+
+    /**
+     * @param port port to listen on (0 for any free port)
+     */
+    public synchronized void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(ConfigUtils.getProperty(CONFIG_BIND_ADDRESS), port), 0);
+        executor = ExecutorUtils.createExecutor(ConfigUtils.getProperty(CONFIG_EXECUTOR), "vis-server");
+        server.setExecutor(executor);
+        server.createContext("/health", exchange -> handle(exchange, "health", "GET", e -> send(e, 200, "text/plain; charset=utf-8", "OK".getBytes(StandardCharsets.UTF_8))));
+        server.createContext("/text", exchange -> handle(exchange, "text", "POST", e -> {
+            Conversion conversion = convert(e, false);
+            send(e, 200, "text/plain; charset=utf-8", conversion.text().getBytes(StandardCharsets.UTF_8));
+        }));
+        server.createContext("/speech", exchange -> handle(exchange, "speech", "POST", e -> {
+            Conversion conversion = convert(e, true);
+            send(e, 200, getContentType(conversion.extension()), conversion.audio());
+        }));
+        server.createContext("/convert", exchange -> handle(exchange, "convert", "POST", e -> {
+            Conversion conversion = convert(e, true);
+            String json = "{\"text\":" + toJsonString(conversion.text())
+                    + ",\"format\":" + toJsonString(conversion.extension().substring(1))
+                    + ",\"audio\":" + toJsonString(Base64.getEncoder().encodeToString(conversion.audio())) + "}";
+            send(e, 200, "application/json", json.getBytes(StandardCharsets.UTF_8));
+        }));
+        server.start();
+        Main.LOGGER.info("Server is listening on http://{}:{}/", ConfigUtils.getProperty(CONFIG_BIND_ADDRESS), getPort());
+    }
+
+    public synchronized int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange, String endpoint, String method, Handler handler) {
+        Span span = Metrics.start(Metrics.STAGE_SERVER, endpoint);
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                throw new HttpException(405, "Use " + method + ".");
+            }
+            new CancellationToken(CancellationToken.Priority.BACKGROUND).call(() -> {
+                handler.handle(exchange);
+                return null;
+            });
+        } catch (HttpException ex) {
+            span.fail();
+            sendError(exchange, ex.status, ex.getMessage());
+        } catch (RejectedExecutionException ex) {
+            span.fail();
+            sendError(exchange, 503, ex.getMessage());
+        } catch (Exception ex) {
+            span.fail();
+            Main.LOGGER.error("Failed to handle {} request.", endpoint, ex);
+            sendError(exchange, 500, ex.getMessage());
+        } finally {
+            exchange.close();
+            span.close();
+        }
+    }
+
+    private Conversion convert(HttpExchange exchange, boolean withSpeech) throws Exception {
+        BufferedImage image = readImage(exchange);
+        OCRResult result = ocrService.getTextFromImage(image);
+        String text = result.text();
+        if (isTranslationRequested(exchange) && !text.isBlank()) {
+            String language = ttsService.getTargetLanguage();
+            if (translationService.isTranslationAvailableForLanguage(language)) {
+                text = ConversionPipeline.translate(result, language, translationService);
+            }
+        }
+        if (!withSpeech) {
+            return new Conversion(text, null, null);
+        }
+        if (text.isBlank()) {
+            throw new HttpException(422, "No text was found in the image.");
+        }
+        List<byte[]> chunks = new ArrayList<>();
+        List<Double> speeds = new ArrayList<>();
+        if (ttsService instanceof IStreamingTTSService streamingService) {
+            try (SpeechStream speech = streamingService.getSpeechStreamFromText(text)) {
+                InputStream chunk;
+                while ((chunk = speech.next()) != null) {
+                    chunks.add(chunk.readAllBytes());
+                    speeds.add(SpeechStream.getPlaybackSpeed(chunk, ttsService::getPlaybackSpeed).getAsDouble());
+                }
+            }
+        } else {
+            try (InputStream speech = ttsService.getSpeechFromText(text)) {
+                if (speech != null) {
+                    chunks.add(speech.readAllBytes());
+                    speeds.add(SpeechStream.getPlaybackSpeed(speech, ttsService::getPlaybackSpeed).getAsDouble());
+                }
+            }
+        }
+        if (chunks.isEmpty()) {
+            throw new HttpException(500, "No speech was generated.");
+        }
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        String extension = AudioDecoder.write(chunks, speeds.stream().mapToDouble(Double::doubleValue).toArray(), audio);
+        return new Conversion(text, audio.toByteArray(), extension);
+    }
+
+    private static BufferedImage readImage(HttpExchange exchange) throws Exception {
+        int maxBytes = ConfigUtils.getIntProperty(CONFIG_MAX_IMAGE_SIZE) * 1024 * 1024;
+        byte[] data;
+        try (InputStream body = exchange.getRequestBody()) {
+            data = body.readNBytes(maxBytes + 1);
+        }
+        if (data.length > maxBytes) {
+            throw new HttpException(413, "The image is larger than " + ConfigUtils.getIntProperty(CONFIG_MAX_IMAGE_SIZE) + " MB.");
+        }
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        if (image == null) {
+            throw new HttpException(400, "The request body is no supported image.");
+        }
+        return image;
+    }
+
+    private static boolean isTranslationRequested(HttpExchange exchange) {
+        String translate = getQueryParameters(exchange).get("translate");
+        if (translate == null) {
+            return ConfigUtils.getBooleanProperty(Main.CONFIG_TRANSLATION_ACTIVE);
+        }
+        return Boolean.parseBoolean(translate);
+    }
+
+    private static Map<String, String> getQueryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int index = parameter.indexOf('=');
+            if (index > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, index), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(index + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static String getContentType(String extension) {
+        return AudioDecoder.EXTENSION_WAV.equals(extension) ? "audio/wav" : "audio/mpeg";
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        try {
+            send(exchange, status, "text/plain; charset=utf-8", String.valueOf(message).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            Main.LOGGER.debug("Failed to send error response: {}", ex.getMessage());
+        }
+    }
+
+    private static String toJsonString(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(1);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+}
@@ -0,0 +1,275 @@
+package de.cech12.vis.service;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.cache.CacheFile;
+import de.cech12.vis.cache.LruCache;
+import de.cech12.vis.cache.SingleFlight;
+import de.cech12.vis.utils.ConfigUtils;
+import de.cech12.vis.utils.ImageUtils;
+
+import javax.swing.JPanel;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OCR result cache in front of another OCR service. Results are keyed by a hash of the decoded pixels and of the
+ * settings of the OCR services (see {@link IOCRService#getConfigurationFingerprint()}), so a hit skips the image
+ * encoding and the upload completely, and changed settings do not serve old texts. In perceptual mode, an image also
+ * hits, when its perceptual hash is close enough to the one of a cached image (e.g. the same screenshot with a
+ * slightly different crop). The cache is persisted into a file when the service is closed.
+ */
+public class CachingOCRService implements IOCRService, AutoCloseable {
+
+    public static final String CONFIG_ENTRIES = "cache.ocr.entries";
+    public static final String CONFIG_PERCEPTUAL = "cache.ocr.perceptual";
+    public static final String CONFIG_PERCEPTUAL_DISTANCE = "cache.ocr.perceptual.distance";
+
+    private static final int FILE_VERSION = 3;
+    /** Perceptual hash of entries, which were added while the perceptual mode was off */
+    private static final long[] NO_PERCEPTUAL_HASH = new long[0];
+
+    private record Entry(long configuration, long[] perceptualHash, OCRResult result) {}
+
+    private final IOCRService delegate;
+    private final Path cacheFile;
+    private final LruCache<Long, Entry> cache;
+    private final SingleFlight<Long, OCRResult> flights = new SingleFlight<>("cache.ocr");
+    private final boolean perceptual;
+    private final int maxDistance;
+
+    private final AtomicLong exactHits = new AtomicLong();
+    private final AtomicLong perceptualHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingOCRService(IOCRService delegate, File cacheFile) throws Exception {
+        this.delegate = delegate;
+        this.cacheFile = cacheFile.toPath();
+        this.cache = new LruCache<>(ConfigUtils.getIntPropertyOrDefault(CONFIG_ENTRIES, 500));
+        this.perceptual = ConfigUtils.getBooleanPropertyOrDefault(CONFIG_PERCEPTUAL, false);
+        this.maxDistance = ConfigUtils.getIntPropertyOrDefault(CONFIG_PERCEPTUAL_DISTANCE, 8);
+        load();
+    }
+
+    /**
+     * @return hash of the current settings of the OCR services
+     */
+    private long getConfigurationHash() {
+        long hash = 0xcbf29ce484222325L;
+        String fingerprint = delegate.getConfigurationFingerprint();
+        for (int i = 0; i < fingerprint.length(); i++) {
+            hash = (hash ^ fingerprint.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long getKey(long pixelHash, long configuration) {
+        long key = pixelHash ^ configuration * 0x9e3779b97f4a7c15L;
+        return key ^ (key >>> 31);
+    }
+
+    @Override
+    public OCRResult getTextFromImage(BufferedImage image) throws Exception {
+        long configuration = getConfigurationHash();
+        long key = getKey(ImageUtils.pixelHash(image), configuration);
+        Entry entry = cache.get(key);
+        if (entry != null) {
+            exactHits.incrementAndGet();
+            Main.LOGGER.info("OCR cache hit (exact). {}", getStatistics());
+            return entry.result();
+        }
+        //the perceptual hash is only needed after an exact miss in perceptual mode
+        long[] perceptualHash = perceptual ? ImageUtils.perceptualHash(image) : NO_PERCEPTUAL_HASH;
+        if (perceptual) {
+            OCRResult result = findSimilar(configuration, perceptualHash);
+            if (result != null) {
+                perceptualHits.incrementAndGet();
+                Main.LOGGER.info("OCR cache hit (perceptual). {}", getStatistics());
+                return result;
+            }
+        }
+        misses.incrementAndGet();
+        Main.LOGGER.info("OCR cache miss. {}", getStatistics());
+        //concurrent requests of the same image (e.g. prefetch and button press, or clients of the server) share one call
+        return flights.call(key, () -> {
+            OCRResult result = delegate.getTextFromImage(image);
+            cache.put(key, new Entry(configuration, perceptualHash, result));
+            return result;
+        });
+    }
+
+    @Override
+    public List<OCRResult> getTextsFromImages(List<BufferedImage> images) throws Exception {
+        OCRResult[] results = new OCRResult[images.size()];
+        List<BufferedImage> missingImages = new ArrayList<>();
+        List<Integer> missingIndices = new ArrayList<>();
+        List<Long> missingKeys = new ArrayList<>();
+        List<long[]> missingPerceptualHashes = new ArrayList<>();
+        long configuration = getConfigurationHash();
+        for (int i = 0; i < images.size(); i++) {
+            BufferedImage image = images.get(i);
+            long key = getKey(ImageUtils.pixelHash(image), configuration);
+            Entry entry = cache.get(key);
+            if (entry != null) {
+                exactHits.incrementAndGet();
+                results[i] = entry.result();
+                continue;
+            }
+            long[] perceptualHash = perceptual ? ImageUtils.perceptualHash(image) : NO_PERCEPTUAL_HASH;
+            OCRResult similarResult = perceptual ? findSimilar(configuration, perceptualHash) : null;
+            if (similarResult != null) {
+                perceptualHits.incrementAndGet();
+                results[i] = similarResult;
+                continue;
+            }
+            misses.incrementAndGet();
+            missingImages.add(image);
+            missingIndices.add(i);
+            missingKeys.add(key);
+            missingPerceptualHashes.add(perceptualHash);
+        }
+        if (!missingImages.isEmpty()) {
+            List<OCRResult> missingResults = delegate.getTextsFromImages(missingImages);
+            for (int i = 0; i < missingResults.size(); i++) {
+                results[missingIndices.get(i)] = missingResults.get(i);
+                if (!missingResults.get(i).isFailed()) {
+                    cache.put(missingKeys.get(i), new Entry(configuration, missingPerceptualHashes.get(i), missingResults.get(i)));
+                }
+            }
+        }
+        Main.LOGGER.info("OCR cache: {} of {} images were cached. {}", images.size() - missingImages.size(), images.size(), getStatistics());
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public List<OCRResult> getTextsFromImageData(List<ByteBuffer> images) throws Exception {
+        return delegate.getTextsFromImageData(images);
+    }
+
+    @Override
+    public List<OCRResult> getTextsFromImageData(List<ByteBuffer> images, List<ImageUtils.TextLayout> layouts) throws Exception {
+        return delegate.getTextsFromImageData(images, layouts);
+    }
+
+    private OCRResult findSimilar(long configuration, long[] perceptualHash) {
+        Long bestKey = null;
+        int bestDistance = Integer.MAX_VALUE;
+        for (Map.Entry<Long, Entry> entry : cache.snapshot().entrySet()) {
+            if (entry.getValue().configuration() != configuration || entry.getValue().perceptualHash().length != perceptualHash.length) {
+                continue;
+            }
+            int distance = ImageUtils.hammingDistance(perceptualHash, entry.getValue().perceptualHash());
+            if (distance <= maxDistance && distance < bestDistance) {
+                bestKey = entry.getKey();
+                bestDistance = distance;
+            }
+        }
+        if (bestKey == null) {
+            return null;
+        }
+        Entry entry = cache.get(bestKey); //marks the entry as recently used
+        return entry == null ? null : entry.result();
+    }
+
+    @Override
+    public OCRResult getTextFromImage(ByteBuffer image) throws Exception {
+        return delegate.getTextFromImage(image);
+    }
+
+    @Override
+    public OCRResult getTextFromImage(ByteBuffer image, ImageUtils.TextLayout layout) throws Exception {
+        return delegate.getTextFromImage(image, layout);
+    }
+
+    @Override
+    public void addOCRFrameConfiguration(JPanel panel) throws Exception {
+        delegate.addOCRFrameConfiguration(panel);
+    }
+
+    public void clear() {
+        cache.clear();
+        exactHits.set(0);
+        perceptualHits.set(0);
+        misses.set(0);
+    }
+
+    public String getStatistics() {
+        return String.format("[exact hits: %d, perceptual hits: %d, misses: %d, entries: %d]",
+                exactHits.get(), perceptualHits.get(), misses.get(), cache.size());
+    }
+
+    private void load() {
+        try {
+            int count = CacheFile.load(cacheFile, FILE_VERSION, cache, DataInputStream::readLong, in -> {
+                long configuration = in.readLong();
+                long[] perceptualHash = new long[in.readInt()];
+                for (int i = 0; i < perceptualHash.length; i++) {
+                    perceptualHash[i] = in.readLong();
+                }
+                return new Entry(configuration, perceptualHash, readResult(in));
+            });
+            if (count >= 0) {
+                Main.LOGGER.info("Loaded {} OCR cache entries.", count);
+            }
+        } catch (IOException ex) {
+            Main.LOGGER.warn("Failed to load OCR cache file {}.", cacheFile, ex);
+        }
+    }
+
+    private void save() throws IOException {
+        CacheFile.save(cacheFile, FILE_VERSION, cache, DataOutputStream::writeLong, (out, entry) -> {
+            out.writeLong(entry.configuration());
+            out.writeInt(entry.perceptualHash().length);
+            for (long value : entry.perceptualHash()) {
+                out.writeLong(value);
+            }
+            writeResult(out, entry.result());
+        });
+    }
+
+    private static OCRResult readResult(DataInputStream in) throws IOException {
+        String text = CacheFile.readString(in);
+        float confidence = in.readFloat();
+        List<OCRResult.Block> blocks = new ArrayList<>();
+        int blockCount = in.readInt();
+        for (int i = 0; i < blockCount; i++) {
+            String blockText = CacheFile.readString(in);
+            String language = in.readBoolean() ? CacheFile.readString(in) : null;
+            blocks.add(new OCRResult.Block(blockText, language, in.readFloat()));
+        }
+        return new OCRResult(text, blocks, confidence);
+    }
+
+    private static void writeResult(DataOutputStream out, OCRResult result) throws IOException {
+        CacheFile.writeString(out, result.text());
+        out.writeFloat(result.confidence());
+        out.writeInt(result.blocks().size());
+        for (OCRResult.Block block : result.blocks()) {
+            CacheFile.writeString(out, block.text());
+            out.writeBoolean(block.language() != null);
+            if (block.language() != null) {
+                CacheFile.writeString(out, block.language());
+            }
+            out.writeFloat(block.confidence());
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            save();
+        } catch (IOException ex) {
+            Main.LOGGER.warn("Failed to save OCR cache file {}.", cacheFile, ex);
+        }
+    }
+
+}
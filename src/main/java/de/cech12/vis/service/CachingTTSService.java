@@ -0,0 +1,145 @@
+package de.cech12.vis.service;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.cache.DiskCache;
+import de.cech12.vis.cache.LruCache;
+import de.cech12.vis.cache.SingleFlight;
+import de.cech12.vis.utils.ConfigUtils;
+import de.cech12.vis.utils.HashUtils;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier speech cache in front of another TTS service. Generated speech is stored in memory and on disk,
+ * keyed by a hash of the text and the voice configuration of the wrapped service.
+ */
+public class CachingTTSService implements ITTSService {
+
+    public static final String CONFIG_MEMORY_SIZE = "cache.tts.memory.mb";
+    public static final String CONFIG_DISK_SIZE = "cache.tts.disk.mb";
+
+    private final ITTSService delegate;
+    private final LruCache<String, byte[]> memoryCache;
+    private final DiskCache diskCache;
+    private final SingleFlight<String, GeneratedSpeech> flights = new SingleFlight<>("cache.tts");
+
+    /**
+     * @param provider provider, which generated the speech, if it is known (speech of a routed request)
+     */
+    private record GeneratedSpeech(byte[] data, RoutingTTSService.ProviderSpeech provider) {}
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingTTSService(ITTSService delegate, File cacheDir) throws Exception {
+        this.delegate = delegate;
+        long memoryBytes = ConfigUtils.getIntPropertyOrDefault(CONFIG_MEMORY_SIZE, 16) * 1024L * 1024;
+        long diskBytes = ConfigUtils.getIntPropertyOrDefault(CONFIG_DISK_SIZE, 256) * 1024L * 1024;
+        this.memoryCache = new LruCache<>(memoryBytes, data -> data.length);
+        this.diskCache = new DiskCache(cacheDir.toPath(), diskBytes);
+    }
+
+    @Override
+    public InputStream getSpeechFromText(String text) throws Exception {
+        String voiceConfiguration = delegate.getVoiceConfiguration();
+        String key = HashUtils.sha256(voiceConfiguration, text);
+        byte[] speech = memoryCache.get(key);
+        if (speech != null) {
+            memoryHits.incrementAndGet();
+            Main.LOGGER.info("Speech cache hit (memory). {}", getStatistics());
+            return new ByteArrayInputStream(speech);
+        }
+        speech = diskCache.get(key);
+        if (speech != null) {
+            diskHits.incrementAndGet();
+            memoryCache.put(key, speech);
+            Main.LOGGER.info("Speech cache hit (disk). {}", getStatistics());
+            return new ByteArrayInputStream(speech);
+        }
+        misses.incrementAndGet();
+        Main.LOGGER.info("Speech cache miss. {}", getStatistics());
+        //concurrent requests of the same speech share one call
+        GeneratedSpeech generated = flights.call(key, () -> {
+            InputStream speechStream = delegate.getSpeechFromText(text);
+            if (speechStream == null) {
+                return null;
+            }
+            byte[] data;
+            try (speechStream) {
+                data = speechStream.readAllBytes();
+            }
+            //speech of a hedged request may have been generated by another provider with another voice
+            String dataKey = key;
+            if (speechStream instanceof RoutingTTSService.ProviderSpeech providerSpeech
+                    && !providerSpeech.getVoiceConfiguration().equals(voiceConfiguration)) {
+                dataKey = HashUtils.sha256(providerSpeech.getVoiceConfiguration(), text);
+            }
+            memoryCache.put(dataKey, data);
+            diskCache.put(dataKey, data);
+            return new GeneratedSpeech(data, speechStream instanceof RoutingTTSService.ProviderSpeech providerSpeech ? providerSpeech : null);
+        });
+        if (generated == null) {
+            return null;
+        }
+        //the generated speech keeps the playback speed of its provider
+        InputStream generatedSpeech = new ByteArrayInputStream(generated.data());
+        return generated.provider() != null ? generated.provider().withSpeech(generatedSpeech) : generatedSpeech;
+    }
+
+    public void clear() {
+        memoryCache.clear();
+        diskCache.clear();
+        memoryHits.set(0);
+        diskHits.set(0);
+        misses.set(0);
+    }
+
+    public long getHits() {
+        return memoryHits.get() + diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public String getStatistics() {
+        return String.format("[memory hits: %d, disk hits: %d, misses: %d, disk size: %d KB]",
+                memoryHits.get(), diskHits.get(), misses.get(), diskCache.getSize() / 1024);
+    }
+
+    @Override
+    public String getTargetLanguage() throws Exception {
+        return delegate.getTargetLanguage();
+    }
+
+    @Override
+    public String getVoiceConfiguration() throws Exception {
+        return delegate.getVoiceConfiguration();
+    }
+
+    @Override
+    public double getPlaybackSpeed() {
+        return delegate.getPlaybackSpeed();
+    }
+
+    @Override
+    public void addTTSFrameConfiguration(JPanel panel) throws Exception {
+        delegate.addTTSFrameConfiguration(panel);
+
+        JButton clearButton = new JButton("Clear Speech Cache");
+        clearButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        clearButton.addActionListener(e -> {
+            clear();
+            Main.showInfoMessage("Speech cache cleared.");
+        });
+        panel.add(Box.createRigidArea(new Dimension(0, 10)));
+        panel.add(clearButton);
+    }
+
+}
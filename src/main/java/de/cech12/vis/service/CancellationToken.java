@@ -0,0 +1,174 @@
+package de.cech12.vis.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+/**
+ * Cancels all requests of one conversion. The token travels with the calls like a context: it is bound to the thread,
+ * which runs a task with {@link #call(Callable)} or on an executor of {@link #wrap(Executor)}, and services get it with
+ * {@link #current()}. Cancelling it cancels the running requests of the token.
+ * The token also carries the priority of its requests, which decides their order, when they wait for quota, and the
+ * id of its conversion, so the metrics of the services can be assigned to the conversion.
+ */
+public class CancellationToken {
+
+    /**
+     * Priority of the requests of a token (in ascending order).
+     */
+    public enum Priority {
+        PREFETCH, BACKGROUND, INTERACTIVE
+    }
+
+    /** Token of calls outside a conversion. It is never cancelled. */
+    public static final CancellationToken NONE = new CancellationToken();
+
+    private static final ThreadLocal<CancellationToken> CURRENT = new ThreadLocal<>();
+
+    private final CancellationToken parent;
+    private final long conversionId;
+    private final List<Runnable> listeners = new ArrayList<>();
+    private boolean cancelled = false;
+    private volatile Priority priority;
+
+    public CancellationToken() {
+        this(Priority.INTERACTIVE);
+    }
+
+    public CancellationToken(Priority priority) {
+        this(null, priority, 0);
+    }
+
+    private CancellationToken(CancellationToken parent, Priority priority, long conversionId) {
+        this.parent = parent;
+        this.priority = priority;
+        this.conversionId = conversionId;
+    }
+
+    /**
+     * @return the token of the current thread or {@link #NONE}
+     */
+    public static CancellationToken current() {
+        CancellationToken token = CURRENT.get();
+        return token != null ? token : NONE;
+    }
+
+    /**
+     * @return a token, which is cancelled together with this token, but can also be cancelled on its own
+     * (it has at least the priority of this token)
+     */
+    public CancellationToken child() {
+        return child(conversionId);
+    }
+
+    /**
+     * @return a child token (see {@link #child()}) of the given conversion
+     */
+    public CancellationToken child(long conversionId) {
+        CancellationToken child = new CancellationToken(this, priority, conversionId);
+        onCancel(child::cancel);
+        return child;
+    }
+
+    /**
+     * @return id of the conversion in the metrics or 0, if the token belongs to no conversion
+     */
+    public long getConversionId() {
+        return conversionId;
+    }
+
+    public Priority getPriority() {
+        Priority own = priority;
+        if (parent != null) {
+            Priority inherited = parent.getPriority();
+            return inherited.compareTo(own) > 0 ? inherited : own;
+        }
+        return own;
+    }
+
+    /**
+     * Raises the priority of the token (and its children), e.g. when an interactive request waits for its result.
+     */
+    public synchronized void raisePriority(Priority newPriority) {
+        if (this != NONE && newPriority.compareTo(priority) > 0) {
+            priority = newPriority;
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void throwIfCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException("The conversion was cancelled.");
+        }
+    }
+
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (cancelled || this == NONE) {
+                return;
+            }
+            cancelled = true;
+            toRun = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        toRun.forEach(Runnable::run);
+    }
+
+    /**
+     * @param listener is called on cancellation (directly, if the token is already cancelled)
+     * @return removes the listener again
+     */
+    public Runnable onCancel(Runnable listener) {
+        synchronized (this) {
+            if (this == NONE) {
+                return () -> {};
+            }
+            if (!cancelled) {
+                listeners.add(listener);
+                return () -> {
+                    synchronized (this) {
+                        listeners.remove(listener);
+                    }
+                };
+            }
+        }
+        listener.run();
+        return () -> {};
+    }
+
+    /**
+     * Runs the task with this token as token of the current thread.
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        CancellationToken previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            throwIfCancelled();
+            return task.call();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @return executor, which runs all tasks with this token as token of their thread
+     */
+    public Executor wrap(Executor executor) {
+        return runnable -> executor.execute(() -> {
+            CancellationToken previous = CURRENT.get();
+            CURRENT.set(this);
+            try {
+                runnable.run();
+            } finally {
+                CURRENT.set(previous);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,114 @@
+package de.cech12.vis.service;
+
+import de.cech12.vis.Main;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Local snapshot of the voice catalog and the translation language list, so the application can start without
+ * waiting for the services. Each list is stored with the time it was fetched.
+ */
+class CatalogSnapshot {
+
+    private static final String VOICES_TIMESTAMP = "voices.timestamp";
+    private static final String VOICE_PREFIX = "voices.";
+    private static final String TRANSLATION_TIMESTAMP = "translation.timestamp";
+    private static final String TRANSLATION_PROJECT = "translation.project";
+    private static final String TRANSLATION_LANGUAGES = "translation.languages";
+
+    private final Path file;
+    private final Properties properties = new Properties();
+
+    CatalogSnapshot(Path file) {
+        this.file = file;
+        if (Files.isRegularFile(file)) {
+            try (InputStream is = Files.newInputStream(file)) {
+                properties.load(is);
+            } catch (IOException ex) {
+                Main.LOGGER.warn("Failed to load catalog snapshot {}.", file, ex);
+            }
+        }
+    }
+
+    /**
+     * @return voice names by language or an empty map, if no voices were saved
+     */
+    synchronized Map<String, List<String>> getVoices() {
+        Map<String, List<String>> voices = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(VOICE_PREFIX) && !key.equals(VOICES_TIMESTAMP)) {
+                voices.put(key.substring(VOICE_PREFIX.length()), split(properties.getProperty(key)));
+            }
+        }
+        return voices;
+    }
+
+    synchronized void setVoices(Map<String, List<String>> voices) {
+        properties.stringPropertyNames().stream().filter(key -> key.startsWith(VOICE_PREFIX)).forEach(properties::remove);
+        voices.forEach((language, names) -> properties.setProperty(VOICE_PREFIX + language, String.join(",", names)));
+        properties.setProperty(VOICES_TIMESTAMP, String.valueOf(System.currentTimeMillis()));
+        save();
+    }
+
+    synchronized boolean areVoicesExpired(long ttlMillis) {
+        return isExpired(VOICES_TIMESTAMP, ttlMillis);
+    }
+
+    /**
+     * @return translation languages of the given project or an empty list, if none were saved for this project
+     */
+    synchronized List<String> getTranslationLanguages(String projectId) {
+        if (projectId == null || !projectId.equals(properties.getProperty(TRANSLATION_PROJECT))) {
+            return List.of();
+        }
+        return split(properties.getProperty(TRANSLATION_LANGUAGES, ""));
+    }
+
+    synchronized void setTranslationLanguages(String projectId, List<String> languages) {
+        properties.setProperty(TRANSLATION_PROJECT, projectId);
+        properties.setProperty(TRANSLATION_LANGUAGES, String.join(",", languages));
+        properties.setProperty(TRANSLATION_TIMESTAMP, String.valueOf(System.currentTimeMillis()));
+        save();
+    }
+
+    synchronized boolean areTranslationLanguagesExpired(long ttlMillis) {
+        return isExpired(TRANSLATION_TIMESTAMP, ttlMillis);
+    }
+
+    private boolean isExpired(String timestampKey, long ttlMillis) {
+        long timestamp = Long.parseLong(properties.getProperty(timestampKey, "0"));
+        return System.currentTimeMillis() - timestamp > ttlMillis;
+    }
+
+    private static List<String> split(String value) {
+        if (value.isEmpty()) {
+            return List.of();
+        }
+        return new ArrayList<>(Arrays.asList(value.split(",")));
+    }
+
+    private void save() {
+        try {
+            Files.createDirectories(file.getParent());
+            Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream os = Files.newOutputStream(tempFile)) {
+                properties.store(os, "Catalog snapshot of " + Main.APPLICATION_NAME);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            Main.LOGGER.warn("Failed to save catalog snapshot {}.", file, ex);
+        }
+    }
+
+}
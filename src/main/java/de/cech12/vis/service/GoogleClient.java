@@ -0,0 +1,232 @@
+package de.cech12.vis.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.core.BackgroundResource;
+import com.google.api.gax.grpc.GrpcCallContext;
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.api.gax.rpc.ApiCallContext;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import de.cech12.vis.Main;
+import de.cech12.vis.routing.QuotaScheduler;
+import de.cech12.vis.utils.ConfigUtils;
+import org.threeten.bp.Duration;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Holds one long-lived Google Cloud client and recreates it when its channel is no longer usable.
+ * Calls have a deadline, are retried a bounded number of times with jittered backoff and are cancelled together
+ * with the {@link CancellationToken} of the current thread. Every attempt waits for the quota of the API
+ * (see {@link QuotaScheduler}).
+ */
+class GoogleClient<C extends BackgroundResource> implements AutoCloseable {
+
+    static final String CONFIG_RETRY_ATTEMPTS = "google.retry.attempts";
+    static final String CONFIG_RETRY_BACKOFF = "google.retry.backoff.ms";
+    static final String CONFIG_RETRY_MAX_BACKOFF = "google.retry.max.backoff.ms";
+
+    private static final Set<StatusCode.Code> RETRYABLE_CODES = Set.of(StatusCode.Code.UNAVAILABLE,
+            StatusCode.Code.RESOURCE_EXHAUSTED, StatusCode.Code.ABORTED);
+
+    interface Factory<C> {
+        C create() throws IOException;
+    }
+
+    /**
+     * Starts a request with the given client. The call context contains the deadline of the request.
+     */
+    interface Call<C, R> {
+        ApiFuture<R> call(C client, ApiCallContext context) throws Exception;
+    }
+
+    private final String name;
+    private final String api;
+    private final Factory<C> factory;
+    private final String deadlineConfig;
+    private final RetryBudget retryBudget = new RetryBudget(0.1, 10);
+    private C client;
+
+    /**
+     * @param api name of the quota of the API (see {@link QuotaScheduler})
+     * @param deadlineConfig config key of the deadline in milliseconds of all calls (including retries and the time
+     *                       waiting for the quota)
+     */
+    GoogleClient(String name, String api, Factory<C> factory, String deadlineConfig) {
+        this.name = name;
+        this.api = api;
+        this.factory = factory;
+        this.deadlineConfig = deadlineConfig;
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_RETRY_ATTEMPTS, 3);
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_RETRY_BACKOFF, 200);
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_RETRY_MAX_BACKOFF, 3000);
+    }
+
+    synchronized C get() throws IOException {
+        if (client != null && (client.isShutdown() || client.isTerminated())) {
+            Main.LOGGER.warn("{} client was shut down. Reconnecting.", name);
+            client = null;
+        }
+        if (client == null) {
+            long start = System.nanoTime();
+            client = factory.create();
+            Main.LOGGER.info("{} client created in {} ms.", name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        return client;
+    }
+
+    <R> R call(Call<C, R> call) throws Exception {
+        return call(0, call);
+    }
+
+    /**
+     * Runs the given call with the current client. Temporary errors are retried with jittered exponential backoff
+     * as long as the deadline, the attempts and the retry budget allow it. If the backend reports the channel as
+     * unavailable, the client is recreated before the next attempt.
+     * @param units units of the call, which count against the quota of the API (e.g. characters or bytes)
+     */
+    <R> R call(long units, Call<C, R> call) throws Exception {
+        CancellationToken token = CancellationToken.current();
+        long deadlineMillis = ConfigUtils.getIntProperty(deadlineConfig);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        int maxAttempts = Math.max(1, ConfigUtils.getIntProperty(CONFIG_RETRY_ATTEMPTS));
+        retryBudget.recordRequest();
+        for (int attempt = 1; ; attempt++) {
+            token.throwIfCancelled();
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException(name + " call exceeded its deadline of " + deadlineMillis + " ms.");
+            }
+            QuotaScheduler.get().acquire(api, units, deadline);
+            C current = get();
+            try {
+                return callOnce(current, call, remaining, token);
+            } catch (ApiException ex) {
+                StatusCode.Code code = ex.getStatusCode().getCode();
+                if (code == StatusCode.Code.UNAVAILABLE) {
+                    reconnect(current);
+                } else if (code == StatusCode.Code.RESOURCE_EXHAUSTED) {
+                    QuotaScheduler.get().onQuotaExhausted(api);
+                }
+                if (!RETRYABLE_CODES.contains(code) || attempt >= maxAttempts) {
+                    throw ex;
+                }
+                long backoff = getBackoffMillis(attempt);
+                if (TimeUnit.MILLISECONDS.toNanos(backoff) >= deadline - System.nanoTime()) {
+                    throw ex;
+                }
+                if (!retryBudget.tryRetry()) {
+                    Main.LOGGER.warn("{} call failed with {}. No retry, because the retry budget is used up.", name, code);
+                    throw ex;
+                }
+                Main.LOGGER.warn("{} call failed with {} (attempt {} of {}). Retrying in {} ms.", name, code, attempt, maxAttempts, backoff);
+                sleep(backoff, token);
+            }
+        }
+    }
+
+    private <R> R callOnce(C current, Call<C, R> call, long timeoutNanos, CancellationToken token) throws Exception {
+        //the deadline is sent to the backend, the built-in retries of the client are replaced by the own ones
+        Duration timeout = Duration.ofNanos(timeoutNanos);
+        ApiCallContext context = GrpcCallContext.createDefault()
+                .withTimeout(timeout)
+                .withRetrySettings(RetrySettings.newBuilder()
+                        .setMaxAttempts(1)
+                        .setTotalTimeout(timeout)
+                        .setInitialRpcTimeout(timeout)
+                        .setMaxRpcTimeout(timeout)
+                        .build());
+        ApiFuture<R> future = call.call(current, context);
+        Runnable removeListener = token.onCancel(() -> future.cancel(true));
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw ex;
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            throw ex;
+        } catch (CancellationException ex) {
+            token.throwIfCancelled();
+            throw ex;
+        } finally {
+            removeListener.run();
+        }
+    }
+
+    /**
+     * Full jitter: a random time between 0 and the exponentially growing backoff.
+     */
+    private static long getBackoffMillis(int attempt) {
+        long backoff = ConfigUtils.getIntProperty(CONFIG_RETRY_BACKOFF) * (1L << Math.min(attempt - 1, 16));
+        long maxBackoff = Math.min(backoff, ConfigUtils.getIntProperty(CONFIG_RETRY_MAX_BACKOFF));
+        return ThreadLocalRandom.current().nextLong(maxBackoff + 1);
+    }
+
+    private static void sleep(long millis, CancellationToken token) throws InterruptedException {
+        Object monitor = new Object();
+        Runnable removeListener = token.onCancel(() -> {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        });
+        try {
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            synchronized (monitor) {
+                long remaining;
+                while (!token.isCancelled() && (remaining = end - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+                }
+            }
+        } finally {
+            removeListener.run();
+        }
+        token.throwIfCancelled();
+    }
+
+    /**
+     * Opens the channel by performing the given cheap call. Errors are only logged, because the call only
+     * exists to get the connection and the authentication done before the first real request.
+     */
+    <R> void warmUp(Call<C, R> call) {
+        long start = System.nanoTime();
+        try {
+            call.call(get(), GrpcCallContext.createDefault()).get();
+        } catch (Exception ex) {
+            Main.LOGGER.debug("{} warm-up call failed: {}", name, ex.getMessage());
+        }
+        Main.LOGGER.info("{} client warmed up in {} ms.", name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private synchronized void reconnect(C broken) {
+        if (client == broken) {
+            client.shutdownNow();
+            client = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (client != null) {
+            client.shutdown();
+            try {
+                if (!client.awaitTermination(5, TimeUnit.SECONDS)) {
+                    client.shutdownNow();
+                }
+            } catch (InterruptedException ex) {
+                client.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            client = null;
+        }
+    }
+
+}
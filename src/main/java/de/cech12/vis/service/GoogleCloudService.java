@@ -1,95 +1,317 @@
 package de.cech12.vis.service;
 
 import com.google.api.gax.core.CredentialsProvider;
+import com.google.api.gax.core.ExecutorProvider;
 import com.google.api.gax.core.FixedCredentialsProvider;
+import com.google.api.gax.core.FixedExecutorProvider;
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.texttospeech.v1.AudioConfig;
 import com.google.cloud.texttospeech.v1.AudioEncoding;
 import com.google.cloud.texttospeech.v1.ListVoicesRequest;
 import com.google.cloud.texttospeech.v1.ListVoicesResponse;
 import com.google.cloud.texttospeech.v1.SynthesisInput;
+import com.google.cloud.texttospeech.v1.SynthesizeSpeechRequest;
 import com.google.cloud.texttospeech.v1.SynthesizeSpeechResponse;
 import com.google.cloud.texttospeech.v1.TextToSpeechClient;
 import com.google.cloud.texttospeech.v1.TextToSpeechSettings;
 import com.google.cloud.texttospeech.v1.Voice;
 import com.google.cloud.texttospeech.v1.VoiceSelectionParams;
-import com.google.cloud.translate.v3.GetSupportedLanguagesRequest;
-import com.google.cloud.translate.v3.LocationName;
-import com.google.cloud.translate.v3.SupportedLanguage;
-import com.google.cloud.translate.v3.SupportedLanguages;
-import com.google.cloud.translate.v3.TranslateTextRequest;
-import com.google.cloud.translate.v3.TranslateTextResponse;
-import com.google.cloud.translate.v3.Translation;
-import com.google.cloud.translate.v3.TranslationServiceClient;
-import com.google.cloud.translate.v3.TranslationServiceSettings;
-import com.google.cloud.vision.v1.AnnotateImageRequest;
-import com.google.cloud.vision.v1.AnnotateImageResponse;
-import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
-import com.google.cloud.vision.v1.Feature;
-import com.google.cloud.vision.v1.Image;
-import com.google.cloud.vision.v1.ImageAnnotatorClient;
-import com.google.cloud.vision.v1.ImageAnnotatorSettings;
 import com.google.protobuf.ByteString;
 import de.cech12.vis.Main;
+import de.cech12.vis.audio.TimeStretcher;
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.routing.QuotaScheduler;
+import de.cech12.vis.utils.ByteBufferInputStream;
 import de.cech12.vis.utils.ConfigUtils;
+import de.cech12.vis.utils.ExecutorUtils;
+import de.cech12.vis.utils.ImageUtils;
+import org.threeten.bp.Duration;
 
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import java.awt.*;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-
-public class GoogleCloudService implements IOCRService, ITranslationService, ITTSService {
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+public class GoogleCloudService implements IOCRService, ITranslationService, ITTSService, IQuotaManagedService, AutoCloseable {
 
     public static final String CONFIG_PROJECT_ID = "google.project.id";
     public static final String CONFIG_LANGUAGE = "google.tts.language";
     public static final String CONFIG_VOICE = "google.tts.voice";
     public static final String CONFIG_SPEED = "google.tts.speed";
     public static final String CONFIG_PITCH = "google.tts.pitch";
-
+    public static final String CONFIG_ENCODING = "google.tts.encoding";
+    /** Maximal number of images in one Vision request */
+    public static final int MAX_IMAGES_PER_REQUEST = 16;
+
+    private static final long TRANSLATION_LANGUAGES_RETRY_MILLIS = 60_000;
+
+    public static final String CONFIG_WARM_UP = "google.client.warmup";
+    public static final String CONFIG_WARM_UP_DELAY = "google.client.warmup.delay.ms";
+    public static final String CONFIG_THREADS = "google.client.threads";
+    public static final String CONFIG_KEEP_ALIVE = "google.client.keepalive";
+    public static final String CONFIG_CATALOG_TTL = "google.catalog.ttl.hours";
+    public static final String CONFIG_DEADLINE_VISION = "google.deadline.vision.ms";
+    public static final String CONFIG_DEADLINE_TTS = "google.deadline.tts.ms";
+    public static final String CONFIG_DEADLINE_TRANSLATION = "google.deadline.translation.ms";
+    /** "adaptive", "document" (DOCUMENT_TEXT_DETECTION) or "text" (TEXT_DETECTION) */
+    public static final String CONFIG_VISION_FEATURE = "google.vision.feature";
+    public static final String CONFIG_VISION_DOCUMENT_EDGE_DENSITY = "google.vision.adaptive.document.edge.density";
+    public static final String CONFIG_VISION_DOCUMENT_LINE_COVERAGE = "google.vision.adaptive.document.line.coverage";
+    public static final String CONFIG_VISION_DOCUMENT_MIN_PIXELS = "google.vision.adaptive.document.min.pixels";
+    public static final String CONFIG_VISION_LANGUAGE_HINTS = "google.vision.language.hints";
+    /** Names of the API quotas (see {@link QuotaScheduler}), units: bytes of the images & characters of the texts */
+    public static final String QUOTA_VISION = "google.vision";
+    public static final String QUOTA_TTS = "google.tts";
+    public static final String QUOTA_TRANSLATION = "google.translation";
+
+    private final GoogleCredentials credentials;
     private final CredentialsProvider credentialsProvider;
-
-    private final Map<String, List<String>> allVoices = new HashMap<>(); // language > names
-    private final List<String> translationLanguages = new ArrayList<>();
+    private final ScheduledExecutorService executor;
+    private final ExecutorProvider executorProvider;
+    private final Function<InstantiatingGrpcChannelProvider.Builder, TransportChannelProvider> channels;
+    private final GoogleClient<TextToSpeechClient> ttsClient;
+    private GoogleVision vision = null; //created on the first use
+    private GoogleTranslation translation = null; //created on the first use
+
+    private final CatalogSnapshot catalogSnapshot;
+    private final long catalogTtlMillis;
+    private final List<Runnable> voiceCatalogListeners = new CopyOnWriteArrayList<>();
+    private volatile Map<String, List<String>> allVoices = Map.of(); // language > names
+    private volatile Set<String> translationLanguages = Set.of();
+    private volatile long translationLanguagesFailedAt = 0;
+    private volatile String translationLanguagesFailedProjectId = null;
 
     public GoogleCloudService(File configDir) throws Exception {
-        GoogleCredentials credentials = GoogleCredentials.fromStream(new FileInputStream(new File(configDir.toURI().resolve("./credentials.json"))));
-        credentialsProvider = FixedCredentialsProvider.create(credentials);
-        getAllVoices();
-    }
-
-    private void getAllVoices() throws IOException {
-        // Instantiates a client
-        TextToSpeechSettings settings = TextToSpeechSettings.newBuilder().setCredentialsProvider(credentialsProvider).build();
-        try (TextToSpeechClient textToSpeechClient = TextToSpeechClient.create(settings)) {
-            // Builds the text to speech list voices request
-            ListVoicesRequest request = ListVoicesRequest.getDefaultInstance();
-
-            // Performs the list voices request
-            ListVoicesResponse response = textToSpeechClient.listVoices(request);
-            List<Voice> voices = response.getVoicesList();
-
-            for (Voice voice : voices) {
-                List<ByteString> languageCodes = voice.getLanguageCodesList().asByteStringList();
-                for (ByteString languageCode : languageCodes) {
-                    String language = languageCode.toStringUtf8();
-                    if (!allVoices.containsKey(language)) {
-                        allVoices.put(language, new ArrayList<>());
-                    }
-                    List<String> voiceList = allVoices.get(language);
-                    voiceList.add(voice.getName());
+        this(configDir, loadCredentials(configDir), null);
+    }
+
+    /**
+     * @param channelProvider channel of all clients (e.g. to a local fake backend) or null to connect to Google Cloud
+     */
+    public GoogleCloudService(File configDir, GoogleCredentials credentials, TransportChannelProvider channelProvider) throws Exception {
+        this.credentials = credentials;
+        credentialsProvider = credentials != null ? FixedCredentialsProvider.create(credentials) : NoCredentialsProvider.create();
+
+        //one executor and one channel configuration shared by all clients
+        int threads = ConfigUtils.getIntPropertyOrDefault(CONFIG_THREADS, 4);
+        long keepAliveSeconds = ConfigUtils.getIntPropertyOrDefault(CONFIG_KEEP_ALIVE, 60);
+        executor = createExecutor(threads);
+        executorProvider = FixedExecutorProvider.create(executor);
+        channels = builder -> channelProvider != null ? channelProvider : configureChannel(builder, keepAliveSeconds);
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_DEADLINE_VISION, 20000);
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_DEADLINE_TTS, 20000);
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_DEADLINE_TRANSLATION, 10000);
+        ConfigUtils.getPropertyOrDefault(CONFIG_VISION_FEATURE, GoogleVision.FEATURE_ADAPTIVE);
+        ConfigUtils.getDoublePropertyOrDefault(CONFIG_VISION_DOCUMENT_EDGE_DENSITY, 0.05);
+        ConfigUtils.getDoublePropertyOrDefault(CONFIG_VISION_DOCUMENT_LINE_COVERAGE, 0.4);
+        ConfigUtils.getIntPropertyOrDefault(CONFIG_VISION_DOCUMENT_MIN_PIXELS, 300_000);
+        ConfigUtils.getBooleanPropertyOrDefault(CONFIG_VISION_LANGUAGE_HINTS, true);
+
+        //default quotas of a Google Cloud project
+        QuotaScheduler.get().register(QUOTA_VISION, 1800, 0);
+        QuotaScheduler.get().register(QUOTA_TTS, 1000, 0);
+        QuotaScheduler.get().register(QUOTA_TRANSLATION, 0, 6_000_000);
+        ttsClient = new GoogleClient<>("Text-To-Speech", QUOTA_TTS, () -> TextToSpeechClient.create(TextToSpeechSettings.newBuilder()
+                .setCredentialsProvider(credentialsProvider)
+                .setBackgroundExecutorProvider(executorProvider)
+                .setTransportChannelProvider(channels.apply(TextToSpeechSettings.defaultGrpcTransportProviderBuilder()))
+                .build()), CONFIG_DEADLINE_TTS);
+
+        //use the catalog snapshot (if available) and refresh it in the background
+        catalogSnapshot = new CatalogSnapshot(new File(configDir, "cache/catalog.snapshot").toPath());
+        catalogTtlMillis = TimeUnit.HOURS.toMillis(ConfigUtils.getIntPropertyOrDefault(CONFIG_CATALOG_TTL, 24));
+        Map<String, List<String>> snapshotVoices = catalogSnapshot.getVoices();
+        if (snapshotVoices.isEmpty()) {
+            getAllVoices();
+        } else {
+            allVoices = snapshotVoices;
+            Main.LOGGER.info("Loaded {} voice languages from the catalog snapshot.", snapshotVoices.size());
+            if (catalogSnapshot.areVoicesExpired(catalogTtlMillis)) {
+                executor.execute(() -> runInBackground(this::refreshVoices));
+            }
+        }
+        translationLanguages = Set.copyOf(catalogSnapshot.getTranslationLanguages(ConfigUtils.getProperty(CONFIG_PROJECT_ID)));
+        initTTSDefaults();
+        if (ConfigUtils.getBooleanPropertyOrDefault(CONFIG_WARM_UP, true)) {
+            //delayed, so loading the Vision and Translation clients does not slow down the startup
+            executor.schedule(() -> runInBackground(this::warmUp), ConfigUtils.getIntPropertyOrDefault(CONFIG_WARM_UP_DELAY, 3000), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static GoogleCredentials loadCredentials(File configDir) throws IOException {
+        try (InputStream credentialsStream = new FileInputStream(new File(configDir.toURI().resolve("./credentials.json")))) {
+            return GoogleCredentials.fromStream(credentialsStream);
+        }
+    }
+
+    private synchronized GoogleVision getVision() {
+        if (vision == null) {
+            vision = new GoogleVision(credentialsProvider, executorProvider, channels, CONFIG_DEADLINE_VISION);
+        }
+        return vision;
+    }
+
+    private synchronized GoogleTranslation getTranslation() {
+        if (translation == null) {
+            translation = new GoogleTranslation(credentialsProvider, executorProvider, channels, CONFIG_DEADLINE_TRANSLATION);
+        }
+        return translation;
+    }
+
+    /**
+     * Runs the task with a background token, so its calls give way to the calls of conversions.
+     */
+    private static void runInBackground(Runnable task) {
+        try {
+            new CancellationToken(CancellationToken.Priority.BACKGROUND).call(() -> {
+                task.run();
+                return null;
+            });
+        } catch (Exception ex) {
+            Main.LOGGER.warn("Background task failed.", ex);
+        }
+    }
+
+    private void refreshVoices() {
+        try {
+            getAllVoices();
+        } catch (Exception ex) {
+            Main.LOGGER.warn("Failed to refresh the voice catalog.", ex);
+        }
+    }
+
+    private static ScheduledExecutorService createExecutor(int threads) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, ExecutorUtils.daemonThreadFactory("vis-google"));
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    private InstantiatingGrpcChannelProvider configureChannel(InstantiatingGrpcChannelProvider.Builder builder, long keepAliveSeconds) {
+        return builder
+                .setExecutor(executor)
+                .setKeepAliveTime(Duration.ofSeconds(keepAliveSeconds))
+                .setKeepAliveTimeout(Duration.ofSeconds(20))
+                .setKeepAliveWithoutCalls(true)
+                .build();
+    }
+
+    /**
+     * Fetches the access token and opens the channels of the clients before the first conversion is started.
+     * The Text-To-Speech channel is already open at this point, because the voices were loaded with it.
+     */
+    private void warmUp() {
+        try {
+            if (credentials != null) {
+                credentials.refreshIfExpired();
+            }
+        } catch (IOException ex) {
+            Main.LOGGER.warn("Failed to fetch the access token during warm-up.", ex);
+        }
+        getVision().warmUp();
+        String projectId = ConfigUtils.getProperty(CONFIG_PROJECT_ID);
+        if (projectId != null && !projectId.isEmpty() && (translationLanguages.isEmpty() || catalogSnapshot.areTranslationLanguagesExpired(catalogTtlMillis))) {
+            //the language list is needed anyway, so it is the warm-up call of the translation client
+            long start = System.nanoTime();
+            try {
+                getAllTranslationLanguages();
+            } catch (Exception ex) {
+                Main.LOGGER.debug("Translation warm-up call failed: {}", ex.getMessage());
+            }
+            Main.LOGGER.info("Translation client warmed up in {} ms.", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (vision != null) {
+                vision.close();
+            }
+            if (translation != null) {
+                translation.close();
+            }
+        }
+        ttsClient.close();
+        executor.shutdown();
+    }
+
+    private void getAllVoices() throws Exception {
+        // Builds the text to speech list voices request
+        ListVoicesRequest request = ListVoicesRequest.getDefaultInstance();
+
+        // Performs the list voices request
+        ListVoicesResponse response = ttsClient.call((client, context) -> client.listVoicesCallable().futureCall(request, context));
+        List<Voice> voices = response.getVoicesList();
+
+        Map<String, List<String>> loadedVoices = new TreeMap<>();
+        for (Voice voice : voices) {
+            List<ByteString> languageCodes = voice.getLanguageCodesList().asByteStringList();
+            for (ByteString languageCode : languageCodes) {
+                String language = languageCode.toStringUtf8();
+                if (!loadedVoices.containsKey(language)) {
+                    loadedVoices.put(language, new ArrayList<>());
                 }
+                List<String> voiceList = loadedVoices.get(language);
+                voiceList.add(voice.getName());
             }
         }
+        loadedVoices.values().forEach(Collections::sort);
+        if (loadedVoices.isEmpty()) {
+            throw new Exception("The voice list of the Text-To-Speech service is empty.");
+        }
+        catalogSnapshot.setVoices(loadedVoices);
+        if (!loadedVoices.equals(allVoices)) {
+            allVoices = loadedVoices;
+            Main.LOGGER.info("Voice catalog changed. {} languages available.", loadedVoices.size());
+            voiceCatalogListeners.forEach(Runnable::run);
+        }
+    }
+
+    private void initTTSDefaults() {
+        String language = ConfigUtils.getPropertyOrDefault(CONFIG_LANGUAGE, "en-US");
+        List<String> voices = allVoices.get(language);
+        if (voices != null && !voices.isEmpty()) {
+            ConfigUtils.getPropertyOrDefault(CONFIG_VOICE, voices.stream().sorted().findFirst().get());
+        }
+        ConfigUtils.getDoublePropertyOrDefault(CONFIG_SPEED, 1);
+        ConfigUtils.getDoublePropertyOrDefault(CONFIG_PITCH, 0);
+        ConfigUtils.getPropertyOrDefault(CONFIG_ENCODING, AudioEncoding.MP3.name());
+    }
+
+    /**
+     * Only encodings, which can be decoded by the speech player, are supported (MP3 & LINEAR16).
+     */
+    private static AudioEncoding getAudioEncoding() {
+        String encoding = ConfigUtils.getProperty(CONFIG_ENCODING);
+        if (AudioEncoding.LINEAR16.name().equals(encoding)) {
+            return AudioEncoding.LINEAR16;
+        }
+        if (!AudioEncoding.MP3.name().equals(encoding)) {
+            Main.LOGGER.warn("Audio encoding {} is not supported. Using MP3.", encoding);
+        }
+        return AudioEncoding.MP3;
     }
 
     private void getAllTranslationLanguages() throws Exception {
@@ -99,19 +321,34 @@ public class GoogleCloudService implements IOCRService, ITranslationService, ITT
             return;
         }
 
-        TranslationServiceSettings settings = TranslationServiceSettings.newBuilder().setCredentialsProvider(credentialsProvider).build();
-        try (TranslationServiceClient client = TranslationServiceClient.create(settings)) {
-            LocationName parent = LocationName.of(projectId, "global");
-            GetSupportedLanguagesRequest request = GetSupportedLanguagesRequest.newBuilder()
-                    .setParent(parent.toString())
-                    .build();
-
-            SupportedLanguages response = client.getSupportedLanguages(request);
+        List<String> languages = getTranslation().getSupportedLanguages(projectId);
+        translationLanguages = Set.copyOf(languages);
+        catalogSnapshot.setTranslationLanguages(projectId, languages);
+    }
 
-            for (SupportedLanguage language : response.getLanguagesList()) {
-                translationLanguages.add(language.getLanguageCode());
+    /**
+     * Loads the translation languages, if they are not loaded yet. After a failed attempt, no new attempt is made
+     * for the same project id for some time, so the check does not cost a request on every conversion.
+     * @return true, if translation languages are available
+     */
+    private boolean loadTranslationLanguagesIfNeeded() throws Exception {
+        if (!translationLanguages.isEmpty()) {
+            return true;
+        }
+        String projectId = ConfigUtils.getProperty(CONFIG_PROJECT_ID);
+        if (Objects.equals(projectId, translationLanguagesFailedProjectId)
+                && System.currentTimeMillis() - translationLanguagesFailedAt < TRANSLATION_LANGUAGES_RETRY_MILLIS) {
+            return false;
+        }
+        try {
+            getAllTranslationLanguages();
+        } finally {
+            if (translationLanguages.isEmpty()) {
+                translationLanguagesFailedProjectId = projectId;
+                translationLanguagesFailedAt = System.currentTimeMillis();
             }
         }
+        return !translationLanguages.isEmpty();
     }
 
     @Override
@@ -144,11 +381,8 @@ public class GoogleCloudService implements IOCRService, ITranslationService, ITT
 
             private void changeConfigValue() {
                 String text = projectIdTextField.getText();
-                try {
-                    ConfigUtils.setProperty(CONFIG_PROJECT_ID, text);
-                } catch (IOException ex) {
-                    throw new RuntimeException(ex);
-                }
+                ConfigUtils.setProperty(CONFIG_PROJECT_ID, text);
+                translationLanguages = Set.of(); //languages of the old project
             }
         });
 
@@ -158,7 +392,7 @@ public class GoogleCloudService implements IOCRService, ITranslationService, ITT
     }
 
     @Override
-    public void addTTSFrameConfiguration(JPanel panel) throws IOException {
+    public void addTTSFrameConfiguration(JPanel panel) {
         //load configured values
         String[] languages = allVoices.keySet().stream().sorted().toArray(String[]::new);
         String language = ConfigUtils.getPropertyOrDefault(CONFIG_LANGUAGE, "en-US");
@@ -176,11 +410,7 @@ public class GoogleCloudService implements IOCRService, ITranslationService, ITT
         voiceComboBox.addActionListener(event -> {
             String item = (String) voiceComboBox.getSelectedItem();
             if (item != null) {
-                try {
-                    ConfigUtils.setProperty(CONFIG_VOICE, item);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+                ConfigUtils.setProperty(CONFIG_VOICE, item);
             }
         });
 
@@ -190,13 +420,13 @@ public class GoogleCloudService implements IOCRService, ITranslationService, ITT
         languageComboBox.setSelectedIndex(Arrays.asList(languages).indexOf(language));
         languageComboBox.setMaximumSize(languageComboBox.getPreferredSize());
         languageComboBox.setAlignmentX(Component.CENTER_ALIGNMENT);
+        AtomicBoolean updatingCatalog = new AtomicBoolean(false);
         languageComboBox.addActionListener(event -> {
-            String item = (String) languageComboBox.getSelectedItem();
-            try {
-                ConfigUtils.setProperty(CONFIG_LANGUAGE, item);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+            if (updatingCatalog.get()) {
+                return;
             }
+            String item = (String) languageComboBox.getSelectedItem();
+            ConfigUtils.setProperty(CONFIG_LANGUAGE, item);
             //change voice combo box
             voiceComboBox.removeAllItems();
             for (String voiceOfLanguage : allVoices.get(item).stream().sorted().toArray(String[]::new)) {
@@ -205,18 +435,34 @@ public class GoogleCloudService implements IOCRService, ITranslationService, ITT
             voiceComboBox.setSelectedIndex(0);
         });
 
+        //update the combo boxes, when the voice catalog was refreshed in the background
+        voiceCatalogListeners.add(() -> Main.runOnEdt(() -> {
+            Map<String, List<String>> voicesByLanguage = allVoices;
+            String selectedLanguage = (String) languageComboBox.getSelectedItem();
+            if (!voicesByLanguage.containsKey(selectedLanguage)) {
+                selectedLanguage = voicesByLanguage.containsKey("en-US") ? "en-US" : voicesByLanguage.keySet().iterator().next();
+            }
+            String selectedVoice = (String) voiceComboBox.getSelectedItem();
+            List<String> voicesOfLanguage = voicesByLanguage.get(selectedLanguage);
+            updatingCatalog.set(true);
+            try {
+                languageComboBox.setModel(new DefaultComboBoxModel<>(voicesByLanguage.keySet().stream().sorted().toArray(String[]::new)));
+                languageComboBox.setSelectedItem(selectedLanguage);
+                voiceComboBox.setModel(new DefaultComboBoxModel<>(voicesOfLanguage.stream().sorted().toArray(String[]::new)));
+                voiceComboBox.setSelectedItem(voicesOfLanguage.contains(selectedVoice) ? selectedVoice : voiceComboBox.getItemAt(0));
+            } finally {
+                updatingCatalog.set(false);
+            }
+            ConfigUtils.setProperty(CONFIG_LANGUAGE, selectedLanguage);
+            ConfigUtils.setProperty(CONFIG_VOICE, (String) voiceComboBox.getSelectedItem());
+        }));
+
         JLabel speedLabel = new JLabel("Select the voice speed");
         speedLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
         JSlider speedSlider = new JSlider(SwingConstants.HORIZONTAL, 25, 400, (int) (speed * 100D));
         speedSlider.setMaximumSize(voiceComboBox.getPreferredSize());
         speedSlider.setAlignmentX(Component.CENTER_ALIGNMENT);
-        speedSlider.addChangeListener(event -> {
-            try {
-                ConfigUtils.setDoubleProperty(CONFIG_SPEED, speedSlider.getValue() / 100D);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
+        speedSlider.addChangeListener(event -> ConfigUtils.setDoubleProperty(CONFIG_SPEED, speedSlider.getValue() / 100D));
         JButton speedButton = new JButton("Reset Speed");
         speedButton.setAlignmentX(Component.CENTER_ALIGNMENT);
         speedButton.addActionListener(e -> speedSlider.setValue(100));
@@ -226,13 +472,7 @@ public class GoogleCloudService implements IOCRService, ITranslationService, ITT
         JSlider pitchSlider = new JSlider(SwingConstants.HORIZONTAL, -2000, 2000, (int) (pitch * 100D));
         pitchSlider.setMaximumSize(pitchSlider.getPreferredSize());
         pitchSlider.setAlignmentX(Component.CENTER_ALIGNMENT);
-        pitchSlider.addChangeListener(event -> {
-            try {
-                ConfigUtils.setDoubleProperty(CONFIG_PITCH, pitchSlider.getValue() / 100D);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
+        pitchSlider.addChangeListener(event -> ConfigUtils.setDoubleProperty(CONFIG_PITCH, pitchSlider.getValue() / 100D));
         JButton pitchButton = new JButton("Reset Pitch");
         pitchButton.setAlignmentX(Component.CENTER_ALIGNMENT);
         pitchButton.addActionListener(e -> pitchSlider.setValue(0));
@@ -253,27 +493,32 @@ public class GoogleCloudService implements IOCRService, ITranslationService, ITT
     }
 
     @Override
-    public String getTextFromImage(InputStream imageData) throws Exception {
-        StringBuilder result = new StringBuilder();
+    public OCRResult getTextFromImage(ByteBuffer imageData) throws Exception {
+        return getTextFromImage(imageData, null);
+    }
 
-        List<AnnotateImageRequest> requests = new ArrayList<>();
-        AnnotateImageRequest request = AnnotateImageRequest.newBuilder()
-                .addFeatures(Feature.newBuilder().setType(Feature.Type.DOCUMENT_TEXT_DETECTION).build())
-                .setImage(Image.newBuilder().setContent(ByteString.readFrom(imageData)).build())
-                .build();
-        requests.add(request);
-
-        ImageAnnotatorSettings settings = ImageAnnotatorSettings.newBuilder().setCredentialsProvider(credentialsProvider).build();
-        try (ImageAnnotatorClient client = ImageAnnotatorClient.create(settings)) {
-            BatchAnnotateImagesResponse response = client.batchAnnotateImages(requests);
-            for (AnnotateImageResponse res : response.getResponsesList()) {
-                if (res.hasError()) {
-                    throw new Exception("Error in AnnotateImageResponse: " + res.getError().getMessage());
-                }
-                result.append(res.getFullTextAnnotation().getText());
-            }
+    @Override
+    public OCRResult getTextFromImage(ByteBuffer imageData, ImageUtils.TextLayout layout) throws Exception {
+        OCRResult result = getVision().getTextsFromImageData(List.of(imageData), Collections.singletonList(layout)).get(0);
+        if (result.isFailed()) {
+            throw new Exception(result.error());
         }
-        return result.toString();
+        return result;
+    }
+
+    @Override
+    public List<OCRResult> getTextsFromImageData(List<ByteBuffer> images) throws Exception {
+        return getVision().getTextsFromImageData(images, null);
+    }
+
+    @Override
+    public List<OCRResult> getTextsFromImageData(List<ByteBuffer> images, List<ImageUtils.TextLayout> layouts) throws Exception {
+        return getVision().getTextsFromImageData(images, layouts);
+    }
+
+    @Override
+    public String getConfigurationFingerprint() {
+        return GoogleVision.getConfigurationFingerprint();
     }
 
     @Override
@@ -283,66 +528,78 @@ public class GoogleCloudService implements IOCRService, ITranslationService, ITT
 
     @Override
     public String getTranslationOfText(String language, String text) throws Exception {
-        if (translationLanguages.isEmpty()) {
-            this.getAllTranslationLanguages();
-            if (translationLanguages.isEmpty()) {
-                return text;
-            }
+        return String.join("", getTranslationOfTexts(language, List.of(text)));
+    }
+
+    @Override
+    public List<String> getTranslationOfTexts(String language, List<String> texts) throws Exception {
+        if (!loadTranslationLanguagesIfNeeded()) {
+            return texts;
         }
+        return getTranslation().translate(ConfigUtils.getProperty(CONFIG_PROJECT_ID), language, texts);
+    }
 
-        StringBuilder result = new StringBuilder();
-
-        LocationName parent = LocationName.of(ConfigUtils.getProperty(CONFIG_PROJECT_ID), "global");
-
-        TranslationServiceSettings settings = TranslationServiceSettings.newBuilder().setCredentialsProvider(credentialsProvider).build();
-        try (TranslationServiceClient client = TranslationServiceClient.create(settings)) {
-            TranslateTextRequest request = TranslateTextRequest.newBuilder()
-                    .setParent(parent.toString())
-                    .setMimeType("text/plain")
-                    .setTargetLanguageCode(language)
-                    .addContents(text)
-                    .build();
-            TranslateTextResponse response = client.translateText(request);
-            for (Translation translation : response.getTranslationsList()) {
-                result.append(translation.getTranslatedText());
+    @Override
+    public boolean isTranslationAvailableForLanguage(String language) throws Exception {
+        if (!loadTranslationLanguagesIfNeeded()) {
+            return false;
+        }
+        //e.g. "en-US" is available, when "en" is a translation language
+        Set<String> languages = translationLanguages;
+        for (int separator = language.indexOf('-'); separator > 0; separator = language.indexOf('-', separator + 1)) {
+            if (languages.contains(language.substring(0, separator))) {
+                return true;
             }
         }
+        return false;
+    }
 
-        return result.toString();
+    @Override
+    public String getVoiceConfiguration() {
+        return String.join("|", "google", getAudioEncoding().name(),
+                ConfigUtils.getProperty(CONFIG_LANGUAGE),
+                ConfigUtils.getProperty(CONFIG_VOICE),
+                String.valueOf(getSpeakingRate()),
+                ConfigUtils.getProperty(CONFIG_PITCH));
     }
 
     @Override
-    public boolean isTranslationAvailableForLanguage(String language) throws Exception {
-        if (translationLanguages.isEmpty()) {
-            this.getAllTranslationLanguages();
-        }
-        return translationLanguages.stream().anyMatch(availableLanguage -> language.startsWith(availableLanguage + "-"));
+    public double getPlaybackSpeed() {
+        return TimeStretcher.isActive() ? ConfigUtils.getDoubleProperty(CONFIG_SPEED) : 1;
+    }
+
+    /**
+     * With time stretching, the speech is always generated with the normal speed, so it can be reused from the cache
+     * for all speeds.
+     */
+    private static double getSpeakingRate() {
+        return TimeStretcher.isActive() ? 1 : ConfigUtils.getDoubleProperty(CONFIG_SPEED);
     }
 
     @Override
     public InputStream getSpeechFromText(String text) throws Exception {
-        TextToSpeechSettings settings = TextToSpeechSettings.newBuilder().setCredentialsProvider(credentialsProvider).build();
-        try (TextToSpeechClient textToSpeechClient = TextToSpeechClient.create(settings)) {
-            // Set the text input to be synthesized
-            SynthesisInput input = SynthesisInput.newBuilder().setText(text).build();
-
-            // Build the voice request
-            VoiceSelectionParams voice = VoiceSelectionParams.newBuilder()
-                    .setLanguageCode(ConfigUtils.getProperty(CONFIG_LANGUAGE))
-                    .setName(ConfigUtils.getProperty(CONFIG_VOICE))
-                    .build();
-
-            // Select the type of audio file you want returned
-            AudioConfig audioConfig = AudioConfig.newBuilder()
-                    .setAudioEncoding(AudioEncoding.MP3)
-                    .setSpeakingRate(ConfigUtils.getDoubleProperty(CONFIG_SPEED))
-                    .setPitch(ConfigUtils.getDoubleProperty(CONFIG_PITCH))
-                    .build();
-
-            // Perform the text-to-speech request
-            SynthesizeSpeechResponse response = textToSpeechClient.synthesizeSpeech(input, voice, audioConfig);
-
-            return new ByteArrayInputStream(response.getAudioContent().toByteArray());
-        }
+        // Set the text input to be synthesized
+        SynthesisInput input = SynthesisInput.newBuilder().setText(text).build();
+
+        // Build the voice request
+        VoiceSelectionParams voice = VoiceSelectionParams.newBuilder()
+                .setLanguageCode(ConfigUtils.getProperty(CONFIG_LANGUAGE))
+                .setName(ConfigUtils.getProperty(CONFIG_VOICE))
+                .build();
+
+        // Select the type of audio file you want returned
+        AudioConfig audioConfig = AudioConfig.newBuilder()
+                .setAudioEncoding(getAudioEncoding())
+                .setSpeakingRate(getSpeakingRate())
+                .setPitch(ConfigUtils.getDoubleProperty(CONFIG_PITCH))
+                .build();
+
+        // Perform the text-to-speech request
+        SynthesizeSpeechRequest request = SynthesizeSpeechRequest.newBuilder().setInput(input).setVoice(voice).setAudioConfig(audioConfig).build();
+        SynthesizeSpeechResponse response = ttsClient.call(text.length(), (client, context) -> client.synthesizeSpeechCallable().futureCall(request, context));
+        Metrics.count("google.tts.characters", text.length());
+        Metrics.count("google.tts.bytes.received", response.getAudioContent().size());
+
+        return new ByteBufferInputStream(response.getAudioContent().asReadOnlyByteBuffer());
     }
 }
@@ -0,0 +1,19 @@
+package de.cech12.vis.service;
+
+import java.io.File;
+
+public class GoogleCloudServiceProvider implements IServiceProvider {
+
+    public static final String NAME = "google";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Object createService(File configDir) throws Exception {
+        return new GoogleCloudService(configDir);
+    }
+
+}
@@ -0,0 +1,83 @@
+package de.cech12.vis.service;
+
+import com.google.api.gax.core.CredentialsProvider;
+import com.google.api.gax.core.ExecutorProvider;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.cloud.translate.v3.GetSupportedLanguagesRequest;
+import com.google.cloud.translate.v3.LocationName;
+import com.google.cloud.translate.v3.SupportedLanguage;
+import com.google.cloud.translate.v3.SupportedLanguages;
+import com.google.cloud.translate.v3.TranslateTextRequest;
+import com.google.cloud.translate.v3.TranslateTextResponse;
+import com.google.cloud.translate.v3.Translation;
+import com.google.cloud.translate.v3.TranslationServiceClient;
+import com.google.cloud.translate.v3.TranslationServiceSettings;
+import de.cech12.vis.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Translation requests of the {@link GoogleCloudService}. It is only created when it is used for the first time, so
+ * the classes of the Translation client (and its protobuf messages) are not loaded during the startup.
+ */
+class GoogleTranslation implements AutoCloseable {
+
+    private final GoogleClient<TranslationServiceClient> client;
+
+    /**
+     * @param channels creates the channel provider of the client from the default builder
+     */
+    GoogleTranslation(CredentialsProvider credentialsProvider, ExecutorProvider executorProvider,
+                      Function<InstantiatingGrpcChannelProvider.Builder, TransportChannelProvider> channels, String deadlineConfig) {
+        client = new GoogleClient<>("Translation", GoogleCloudService.QUOTA_TRANSLATION, () -> TranslationServiceClient.create(TranslationServiceSettings.newBuilder()
+                .setCredentialsProvider(credentialsProvider)
+                .setBackgroundExecutorProvider(executorProvider)
+                .setTransportChannelProvider(channels.apply(TranslationServiceSettings.defaultGrpcTransportProviderBuilder()))
+                .build()), deadlineConfig);
+    }
+
+    List<String> getSupportedLanguages(String projectId) throws Exception {
+        LocationName parent = LocationName.of(projectId, "global");
+        GetSupportedLanguagesRequest request = GetSupportedLanguagesRequest.newBuilder()
+                .setParent(parent.toString())
+                .build();
+
+        SupportedLanguages response = client.call((client, context) -> client.getSupportedLanguagesCallable().futureCall(request, context));
+
+        List<String> languages = new ArrayList<>();
+        for (SupportedLanguage language : response.getLanguagesList()) {
+            languages.add(language.getLanguageCode());
+        }
+        return languages;
+    }
+
+    List<String> translate(String projectId, String language, List<String> texts) throws Exception {
+        List<String> result = new ArrayList<>();
+
+        LocationName parent = LocationName.of(projectId, "global");
+
+        TranslateTextRequest request = TranslateTextRequest.newBuilder()
+                .setParent(parent.toString())
+                .setMimeType("text/plain")
+                .setTargetLanguageCode(language)
+                .addAllContents(texts)
+                .build();
+        long characters = texts.stream().mapToLong(String::length).sum();
+        TranslateTextResponse response = client.call(characters, (client, context) -> client.translateTextCallable().futureCall(request, context));
+        Metrics.count("google.translation.characters", characters);
+        for (Translation translation : response.getTranslationsList()) {
+            result.add(translation.getTranslatedText());
+        }
+
+        return result;
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+}
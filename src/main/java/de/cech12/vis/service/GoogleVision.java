@@ -0,0 +1,275 @@
+package de.cech12.vis.service;
+
+import com.google.api.gax.core.CredentialsProvider;
+import com.google.api.gax.core.ExecutorProvider;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BatchAnnotateImagesRequest;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.cloud.vision.v1.Block;
+import com.google.cloud.vision.v1.Feature;
+import com.google.cloud.vision.v1.Image;
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import com.google.cloud.vision.v1.ImageContext;
+import com.google.cloud.vision.v1.ImageAnnotatorSettings;
+import com.google.cloud.vision.v1.Page;
+import com.google.cloud.vision.v1.Paragraph;
+import com.google.cloud.vision.v1.Symbol;
+import com.google.cloud.vision.v1.TextAnnotation;
+import com.google.cloud.vision.v1.Word;
+import com.google.protobuf.UnsafeByteOperations;
+import de.cech12.vis.Main;
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.metrics.Span;
+import de.cech12.vis.utils.ConfigUtils;
+import de.cech12.vis.utils.ImageUtils;
+import de.cech12.vis.utils.LanguageUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Text recognition of the {@link GoogleCloudService}. It is only created when it is used for the first time, so the
+ * classes of the Vision client (and its protobuf messages) are not loaded during the startup.
+ * In the adaptive mode, the layout of each image is estimated locally: only pages of running text are sent with the
+ * heavier DOCUMENT_TEXT_DETECTION, sparse texts (e.g. labels of user interfaces) with the faster TEXT_DETECTION.
+ * The latency of each feature is recorded in "ocr.vision.&lt;feature&gt;", its results in the counters
+ * "ocr.feature.&lt;feature&gt;.*". "dense" and "sparse" count results, which suggest that the other feature would have
+ * been the better choice, so the thresholds can be tuned.
+ */
+class GoogleVision implements AutoCloseable {
+
+    static final String FEATURE_ADAPTIVE = "adaptive";
+    static final String FEATURE_DOCUMENT = "document";
+    static final String FEATURE_TEXT = "text";
+
+    /** Number of recently detected languages, which are sent as language hints */
+    private static final int RECENT_LANGUAGES = 3;
+    /** Results of TEXT_DETECTION with at least this number of lines look like documents */
+    private static final int DENSE_LINES = 15;
+    /** Results of DOCUMENT_TEXT_DETECTION with less than this number of lines look like sparse texts */
+    private static final int SPARSE_LINES = 5;
+
+    private final GoogleClient<ImageAnnotatorClient> client;
+    private final Deque<String> recentLanguages = new ArrayDeque<>(); //most recent first
+
+    /**
+     * @param channels creates the channel provider of the client from the default builder
+     */
+    GoogleVision(CredentialsProvider credentialsProvider, ExecutorProvider executorProvider,
+                 Function<InstantiatingGrpcChannelProvider.Builder, TransportChannelProvider> channels, String deadlineConfig) {
+        client = new GoogleClient<>("Vision", GoogleCloudService.QUOTA_VISION, () -> ImageAnnotatorClient.create(ImageAnnotatorSettings.newBuilder()
+                .setCredentialsProvider(credentialsProvider)
+                .setBackgroundExecutorProvider(executorProvider)
+                .setTransportChannelProvider(channels.apply(ImageAnnotatorSettings.defaultGrpcTransportProviderBuilder()))
+                .build()), deadlineConfig);
+    }
+
+    void warmUp() {
+        client.warmUp((client, context) -> client.batchAnnotateImagesCallable().futureCall(BatchAnnotateImagesRequest.getDefaultInstance(), context));
+    }
+
+    /**
+     * @param layouts text layouts of the images or null, if they are estimated here
+     */
+    List<OCRResult> getTextsFromImageData(List<ByteBuffer> images, List<ImageUtils.TextLayout> layouts) throws Exception {
+        List<OCRResult> result = new ArrayList<>();
+        for (int start = 0; start < images.size(); start += GoogleCloudService.MAX_IMAGES_PER_REQUEST) {
+            List<AnnotateImageRequest> requests = new ArrayList<>();
+            List<Feature.Type> features = new ArrayList<>();
+            ImageContext imageContext = getImageContext();
+            long bytes = 0;
+            for (int index = start; index < Math.min(images.size(), start + GoogleCloudService.MAX_IMAGES_PER_REQUEST); index++) {
+                ByteBuffer imageData = images.get(index);
+                Feature.Type feature = selectFeature(imageData, layouts == null ? null : layouts.get(index));
+                AnnotateImageRequest request = AnnotateImageRequest.newBuilder()
+                        .addFeatures(Feature.newBuilder().setType(feature).build())
+                        .setImageContext(imageContext)
+                        //the image is wrapped without a copy, it is only read while the request is sent
+                        .setImage(Image.newBuilder().setContent(UnsafeByteOperations.unsafeWrap(imageData)).build())
+                        .build();
+                requests.add(request);
+                features.add(feature);
+                bytes += request.getImage().getContent().size();
+                Metrics.count("google.vision.bytes.sent", request.getImage().getContent().size());
+            }
+
+            BatchAnnotateImagesRequest request = BatchAnnotateImagesRequest.newBuilder().addAllRequests(requests).build();
+            //the latency of a batch is recorded for its heaviest feature
+            Feature.Type batchFeature = features.contains(Feature.Type.DOCUMENT_TEXT_DETECTION) ? Feature.Type.DOCUMENT_TEXT_DETECTION : Feature.Type.TEXT_DETECTION;
+            BatchAnnotateImagesResponse response;
+            try (Span span = Metrics.start(Metrics.STAGE_OCR, "vision." + getFeatureName(batchFeature), CancellationToken.current().getConversionId())) {
+                span.addBytes(bytes);
+                try {
+                    response = client.call(bytes, (client, context) -> client.batchAnnotateImagesCallable().futureCall(request, context));
+                } catch (Exception ex) {
+                    span.fail();
+                    throw ex;
+                }
+            }
+            for (int i = 0; i < response.getResponsesCount(); i++) {
+                AnnotateImageResponse res = response.getResponses(i);
+                if (res.hasError()) {
+                    //only this image failed, the results of the other images of the batch are kept
+                    Metrics.count("ocr.feature." + getFeatureName(features.get(i)) + ".failed", 1);
+                    result.add(OCRResult.failed("Error in AnnotateImageResponse: " + res.getError().getMessage()));
+                    continue;
+                }
+                OCRResult ocrResult = toOCRResult(res.getFullTextAnnotation());
+                recordResult(features.get(i), ocrResult);
+                result.add(ocrResult);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return configured feature or the feature, which fits to the estimated text layout of the image
+     */
+    private static Feature.Type selectFeature(ByteBuffer imageData, ImageUtils.TextLayout layout) {
+        switch (ConfigUtils.getPropertyOrDefault(GoogleCloudService.CONFIG_VISION_FEATURE, FEATURE_ADAPTIVE).toLowerCase(Locale.ROOT)) {
+            case FEATURE_DOCUMENT:
+                return Feature.Type.DOCUMENT_TEXT_DETECTION;
+            case FEATURE_TEXT:
+                return Feature.Type.TEXT_DETECTION;
+            default:
+                break;
+        }
+        if (layout == null) {
+            //the image was not preprocessed, so it is decoded to estimate its layout
+            try {
+                layout = ImageUtils.analyzeTextLayout(imageData);
+            } catch (Exception ex) {
+                Main.LOGGER.debug("Text layout of the image could not be estimated: {}", ex.getMessage());
+                return Feature.Type.DOCUMENT_TEXT_DETECTION;
+            }
+        }
+        boolean document = layout.getPixels() >= ConfigUtils.getIntProperty(GoogleCloudService.CONFIG_VISION_DOCUMENT_MIN_PIXELS)
+                && layout.edgeDensity() >= ConfigUtils.getDoubleProperty(GoogleCloudService.CONFIG_VISION_DOCUMENT_EDGE_DENSITY)
+                && layout.lineCoverage() >= ConfigUtils.getDoubleProperty(GoogleCloudService.CONFIG_VISION_DOCUMENT_LINE_COVERAGE);
+        Feature.Type feature = document ? Feature.Type.DOCUMENT_TEXT_DETECTION : Feature.Type.TEXT_DETECTION;
+        Main.LOGGER.debug("Image {}x{} has an edge density of {} and a line coverage of {}. Using {}.", layout.width(), layout.height(),
+                String.format(Locale.ROOT, "%.3f", layout.edgeDensity()), String.format(Locale.ROOT, "%.2f", layout.lineCoverage()), feature);
+        return feature;
+    }
+
+    /**
+     * @return settings, which select the feature and the language hints. The recently detected languages are left out,
+     * so the cached results are not invalidated by every detected language.
+     */
+    static String getConfigurationFingerprint() {
+        String feature = ConfigUtils.getPropertyOrDefault(GoogleCloudService.CONFIG_VISION_FEATURE, FEATURE_ADAPTIVE).toLowerCase(Locale.ROOT);
+        if (!FEATURE_DOCUMENT.equals(feature) && !FEATURE_TEXT.equals(feature)) {
+            feature = String.join(",", FEATURE_ADAPTIVE, ConfigUtils.getProperty(GoogleCloudService.CONFIG_VISION_DOCUMENT_MIN_PIXELS),
+                    ConfigUtils.getProperty(GoogleCloudService.CONFIG_VISION_DOCUMENT_EDGE_DENSITY),
+                    ConfigUtils.getProperty(GoogleCloudService.CONFIG_VISION_DOCUMENT_LINE_COVERAGE));
+        }
+        String hints = !ConfigUtils.getBooleanProperty(GoogleCloudService.CONFIG_VISION_LANGUAGE_HINTS) ? "off"
+                : "on," + ConfigUtils.getProperty(GoogleCloudService.CONFIG_LANGUAGE);
+        return "google.vision.feature=" + feature + ";google.vision.language.hints=" + hints + ";";
+    }
+
+    /**
+     * @return language hints of the configured speech language and the recently detected languages
+     */
+    private ImageContext getImageContext() {
+        if (!ConfigUtils.getBooleanProperty(GoogleCloudService.CONFIG_VISION_LANGUAGE_HINTS)) {
+            return ImageContext.getDefaultInstance();
+        }
+        Set<String> hints = new LinkedHashSet<>();
+        String language = ConfigUtils.getProperty(GoogleCloudService.CONFIG_LANGUAGE);
+        if (language != null && !language.isEmpty()) {
+            hints.add(LanguageUtils.getPrimaryLanguage(language));
+        }
+        synchronized (recentLanguages) {
+            hints.addAll(recentLanguages);
+        }
+        return ImageContext.newBuilder().addAllLanguageHints(hints).build();
+    }
+
+    private void recordResult(Feature.Type feature, OCRResult result) {
+        String name = "ocr.feature." + getFeatureName(feature);
+        long lines = result.text().lines().filter(line -> !line.isBlank()).count();
+        Metrics.count(name + ".images", 1);
+        Metrics.count(name + ".characters", result.text().length());
+        if (result.text().isBlank()) {
+            Metrics.count(name + ".empty", 1);
+        } else if (feature == Feature.Type.TEXT_DETECTION && lines >= DENSE_LINES) {
+            Metrics.count(name + ".dense", 1);
+        } else if (feature == Feature.Type.DOCUMENT_TEXT_DETECTION && lines < SPARSE_LINES) {
+            Metrics.count(name + ".sparse", 1);
+        }
+        synchronized (recentLanguages) {
+            for (String language : result.getLanguages()) {
+                String primaryLanguage = LanguageUtils.getPrimaryLanguage(language);
+                recentLanguages.remove(primaryLanguage);
+                recentLanguages.addFirst(primaryLanguage);
+                if (recentLanguages.size() > RECENT_LANGUAGES) {
+                    recentLanguages.removeLast();
+                }
+            }
+        }
+    }
+
+    private static String getFeatureName(Feature.Type feature) {
+        return feature == Feature.Type.DOCUMENT_TEXT_DETECTION ? FEATURE_DOCUMENT : FEATURE_TEXT;
+    }
+
+    private static OCRResult toOCRResult(TextAnnotation annotation) {
+        List<OCRResult.Block> blocks = new ArrayList<>();
+        float confidence = 0;
+        for (Page page : annotation.getPagesList()) {
+            String pageLanguage = getDetectedLanguage(page.getProperty());
+            for (Block block : page.getBlocksList()) {
+                String blockLanguage = getDetectedLanguage(block.getProperty());
+                blocks.add(new OCRResult.Block(getBlockText(block), blockLanguage != null ? blockLanguage : pageLanguage, block.getConfidence()));
+            }
+            confidence += page.getConfidence() / annotation.getPagesCount();
+        }
+        if (blocks.isEmpty() && !annotation.getText().isEmpty()) {
+            blocks.add(new OCRResult.Block(annotation.getText(), null, 0));
+        }
+        return new OCRResult(annotation.getText(), blocks, confidence);
+    }
+
+    private static String getDetectedLanguage(TextAnnotation.TextProperty property) {
+        return property.getDetectedLanguagesList().stream()
+                .max(Comparator.comparingDouble(TextAnnotation.DetectedLanguage::getConfidence))
+                .map(TextAnnotation.DetectedLanguage::getLanguageCode)
+                .orElse(null);
+    }
+
+    private static String getBlockText(Block block) {
+        StringBuilder text = new StringBuilder();
+        for (Paragraph paragraph : block.getParagraphsList()) {
+            for (Word word : paragraph.getWordsList()) {
+                for (Symbol symbol : word.getSymbolsList()) {
+                    text.append(symbol.getText());
+                    switch (symbol.getProperty().getDetectedBreak().getType()) {
+                        case SPACE, SURE_SPACE -> text.append(' ');
+                        case EOL_SURE_SPACE, LINE_BREAK -> text.append('\n');
+                        case HYPHEN -> text.append("-\n");
+                        default -> {}
+                    }
+                }
+            }
+        }
+        return text.toString().strip();
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+}
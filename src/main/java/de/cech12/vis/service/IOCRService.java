@@ -1,11 +1,85 @@
 package de.cech12.vis.service;
 
+import de.cech12.vis.utils.BufferPool;
+import de.cech12.vis.utils.ExecutorUtils;
+import de.cech12.vis.utils.ImageUtils;
+
 import javax.swing.JPanel;
-import java.io.InputStream;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public interface IOCRService {
 
-    String getTextFromImage(InputStream image) throws Exception;
+    /**
+     * @param image encoded image. The buffer may be a view of a pooled buffer, so it is only valid during the call
+     *              and must not be kept.
+     */
+    OCRResult getTextFromImage(ByteBuffer image) throws Exception;
+
+    /**
+     * @param layout text layout of the image, which was estimated before it was encoded, or null. Services, which
+     *               need it, don't have to decode the image again.
+     */
+    default OCRResult getTextFromImage(ByteBuffer image, ImageUtils.TextLayout layout) throws Exception {
+        return getTextFromImage(image);
+    }
+
+    default OCRResult getTextFromImage(BufferedImage image) throws Exception {
+        try (BufferPool.Buffer buffer = ImageUtils.ENCODING_BUFFERS.acquire()) {
+            ImageUtils.encodePng(image, buffer);
+            return getTextFromImage(buffer.asByteBuffer());
+        }
+    }
+
+    /**
+     * @return texts of all given images in the same order. Services should process multiple images per request.
+     */
+    default List<OCRResult> getTextsFromImages(List<BufferedImage> images) throws Exception {
+        List<BufferPool.Buffer> buffers = new ArrayList<>();
+        try {
+            List<ByteBuffer> imageData = new ArrayList<>();
+            for (BufferedImage image : images) {
+                BufferPool.Buffer buffer = ImageUtils.ENCODING_BUFFERS.acquire();
+                buffers.add(buffer);
+                ImageUtils.encodePng(image, buffer);
+                imageData.add(buffer.asByteBuffer());
+            }
+            return getTextsFromImageData(imageData);
+        } finally {
+            buffers.forEach(BufferPool.Buffer::close);
+        }
+    }
+
+    default List<OCRResult> getTextsFromImageData(List<ByteBuffer> images) throws Exception {
+        List<OCRResult> texts = new ArrayList<>();
+        for (ByteBuffer image : images) {
+            texts.add(getTextFromImage(image));
+        }
+        return texts;
+    }
+
+    /**
+     * @param layouts text layouts of the images (see {@link #getTextFromImage(ByteBuffer, ImageUtils.TextLayout)})
+     */
+    default List<OCRResult> getTextsFromImageData(List<ByteBuffer> images, List<ImageUtils.TextLayout> layouts) throws Exception {
+        return getTextsFromImageData(images);
+    }
+
+    default CompletableFuture<OCRResult> getTextFromImageAsync(BufferedImage image, Executor executor) {
+        return ExecutorUtils.supplyAsync(() -> getTextFromImage(image), executor);
+    }
+
+    /**
+     * @return settings of the service (and its delegates), which change the detected text. Cached results are only
+     * used again with the same settings.
+     */
+    default String getConfigurationFingerprint() {
+        return "";
+    }
 
     void addOCRFrameConfiguration(JPanel panel) throws Exception;
 
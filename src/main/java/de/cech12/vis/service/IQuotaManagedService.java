@@ -0,0 +1,11 @@
+package de.cech12.vis.service;
+
+import de.cech12.vis.routing.ProviderRouter;
+import de.cech12.vis.routing.QuotaScheduler;
+
+/**
+ * Service, which waits for the quotas of its APIs itself (see {@link QuotaScheduler}), e.g. for every request it
+ * sends with the units of the request. The {@link ProviderRouter} does not wait for the quota of its provider then.
+ */
+public interface IQuotaManagedService {
+}
@@ -0,0 +1,21 @@
+package de.cech12.vis.service;
+
+import java.io.File;
+
+/**
+ * Plugin interface for OCR, translation and TTS providers. Implementations are discovered with the
+ * {@link java.util.ServiceLoader} and have to be listed in "META-INF/services/de.cech12.vis.service.IServiceProvider".
+ */
+public interface IServiceProvider {
+
+    /**
+     * @return name of the provider, which is used in the "providers.order" config
+     */
+    String getName();
+
+    /**
+     * @return a service, which implements at least one of {@link IOCRService}, {@link ITranslationService} and {@link ITTSService}
+     */
+    Object createService(File configDir) throws Exception;
+
+}
@@ -0,0 +1,20 @@
+package de.cech12.vis.service;
+
+import de.cech12.vis.utils.ExecutorUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+public interface IStreamingTTSService extends ITTSService {
+
+    /**
+     * Starts the generation of the speech and returns it as ordered chunks. The first chunk should be available
+     * as soon as possible, so that its playback can start while the other chunks are generated.
+     */
+    SpeechStream getSpeechStreamFromText(String text) throws Exception;
+
+    default CompletableFuture<SpeechStream> getSpeechStreamFromTextAsync(String text, Executor executor) {
+        return ExecutorUtils.supplyAsync(() -> getSpeechStreamFromText(text), executor);
+    }
+
+}
@@ -1,14 +1,36 @@
 package de.cech12.vis.service;
 
+import de.cech12.vis.utils.ExecutorUtils;
+
 import javax.swing.JPanel;
 import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public interface ITTSService {
 
     InputStream getSpeechFromText(String text) throws Exception;
 
+    default CompletableFuture<InputStream> getSpeechFromTextAsync(String text, Executor executor) {
+        return ExecutorUtils.supplyAsync(() -> getSpeechFromText(text), executor);
+    }
+
     String getTargetLanguage() throws Exception;
 
     void addTTSFrameConfiguration(JPanel panel) throws Exception;
 
+    /**
+     * @return all currently configured parameters, which influence the generated speech (besides the text itself)
+     */
+    default String getVoiceConfiguration() throws Exception {
+        return getClass().getName();
+    }
+
+    /**
+     * @return speed, which is applied to the generated speech while playing it (1, if it is generated with the configured speed)
+     */
+    default double getPlaybackSpeed() {
+        return 1;
+    }
+
 }
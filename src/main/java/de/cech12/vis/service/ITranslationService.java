@@ -1,13 +1,38 @@
 package de.cech12.vis.service;
 
+import de.cech12.vis.utils.ExecutorUtils;
+
 import javax.swing.JPanel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public interface ITranslationService {
 
     String getTranslationOfText(String language, String text) throws Exception;
 
+    /**
+     * @return translations of all given texts in the same order. Services should translate them with a single request.
+     */
+    default List<String> getTranslationOfTexts(String language, List<String> texts) throws Exception {
+        List<String> translations = new ArrayList<>();
+        for (String text : texts) {
+            translations.add(getTranslationOfText(language, text));
+        }
+        return translations;
+    }
+
+    default CompletableFuture<String> getTranslationOfTextAsync(String language, String text, Executor executor) {
+        return ExecutorUtils.supplyAsync(() -> getTranslationOfText(language, text), executor);
+    }
+
     boolean isTranslationAvailableForLanguage(String language) throws Exception;
 
+    default CompletableFuture<Boolean> isTranslationAvailableForLanguageAsync(String language, Executor executor) {
+        return ExecutorUtils.supplyAsync(() -> isTranslationAvailableForLanguage(language), executor);
+    }
+
     void addTranslationFrameConfiguration(JPanel panel) throws Exception;
 
 }
@@ -0,0 +1,43 @@
+package de.cech12.vis.service;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Text detected in an image, split into blocks with their detected language (may be null, if unknown) and
+ * the confidence of the detection (0 - 1, 0 if unknown).
+ * In results of several images, the detection of a single image may have failed: its result has no text and
+ * contains the error message.
+ */
+public record OCRResult(String text, List<Block> blocks, float confidence, String error) {
+
+    public record Block(String text, String language, float confidence) {}
+
+    public OCRResult(String text, List<Block> blocks, float confidence) {
+        this(text, blocks, confidence, null);
+    }
+
+    public static OCRResult of(String text) {
+        return new OCRResult(text, List.of(new Block(text, null, 0)), 0);
+    }
+
+    public static OCRResult failed(String error) {
+        return new OCRResult("", List.of(), 0, error);
+    }
+
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    public Set<String> getLanguages() {
+        Set<String> languages = new LinkedHashSet<>();
+        for (Block block : blocks) {
+            if (block.language() != null) {
+                languages.add(block.language());
+            }
+        }
+        return languages;
+    }
+
+}
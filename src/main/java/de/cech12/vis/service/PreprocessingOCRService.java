@@ -0,0 +1,160 @@
+package de.cech12.vis.service;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.metrics.Span;
+import de.cech12.vis.utils.BufferPool;
+import de.cech12.vis.utils.ConfigUtils;
+import de.cech12.vis.utils.ImageUtils;
+
+import javax.swing.JPanel;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shrinks images before they are uploaded to another OCR service: empty borders are trimmed, the image is converted
+ * to grayscale, large images are scaled down (but not so far that text gets illegible) and the encoder and its
+ * compression level are configurable.
+ */
+public class PreprocessingOCRService implements IOCRService {
+
+    public static final String CONFIG_ACTIVE = "ocr.preprocess.active";
+    public static final String CONFIG_GRAYSCALE = "ocr.preprocess.grayscale";
+    public static final String CONFIG_TRIM = "ocr.preprocess.trim";
+    public static final String CONFIG_MAX_SIZE = "ocr.preprocess.max.size";
+    public static final String CONFIG_MIN_SCALE = "ocr.preprocess.min.scale";
+    public static final String CONFIG_FORMAT = "ocr.preprocess.format";
+    public static final String CONFIG_COMPRESSION = "ocr.preprocess.compression";
+    public static final String CONFIG_COMPARE = "ocr.preprocess.compare";
+
+    private final IOCRService delegate;
+
+    public PreprocessingOCRService(IOCRService delegate) throws Exception {
+        this.delegate = delegate;
+        //write the defaults into the config file, so they can be tuned there
+        ConfigUtils.getPropertyOrDefault(CONFIG_ACTIVE, "true");
+        ConfigUtils.getPropertyOrDefault(CONFIG_GRAYSCALE, "true");
+        ConfigUtils.getPropertyOrDefault(CONFIG_TRIM, "true");
+        ConfigUtils.getPropertyOrDefault(CONFIG_MAX_SIZE, "3000");
+        ConfigUtils.getPropertyOrDefault(CONFIG_MIN_SCALE, "0.6");
+        ConfigUtils.getPropertyOrDefault(CONFIG_FORMAT, ImageUtils.FORMAT_PNG);
+        ConfigUtils.getPropertyOrDefault(CONFIG_COMPRESSION, "6");
+        ConfigUtils.getPropertyOrDefault(CONFIG_COMPARE, "false");
+    }
+
+    @Override
+    public OCRResult getTextFromImage(BufferedImage image) throws Exception {
+        if (!ConfigUtils.getBooleanProperty(CONFIG_ACTIVE)) {
+            return delegate.getTextFromImage(image);
+        }
+        ImageUtils.TextLayout[] layout = new ImageUtils.TextLayout[1];
+        try (BufferPool.Buffer buffer = preprocess(image, layout)) {
+            return delegate.getTextFromImage(buffer.asByteBuffer(), layout[0]);
+        }
+    }
+
+    @Override
+    public List<OCRResult> getTextsFromImages(List<BufferedImage> images) throws Exception {
+        if (!ConfigUtils.getBooleanProperty(CONFIG_ACTIVE)) {
+            return delegate.getTextsFromImages(images);
+        }
+        List<BufferPool.Buffer> buffers = new ArrayList<>();
+        try {
+            List<ByteBuffer> imageData = new ArrayList<>();
+            List<ImageUtils.TextLayout> layouts = new ArrayList<>();
+            ImageUtils.TextLayout[] layout = new ImageUtils.TextLayout[1];
+            for (BufferedImage image : images) {
+                BufferPool.Buffer buffer = preprocess(image, layout);
+                buffers.add(buffer);
+                imageData.add(buffer.asByteBuffer());
+                layouts.add(layout[0]);
+            }
+            return delegate.getTextsFromImageData(imageData, layouts);
+        } finally {
+            buffers.forEach(BufferPool.Buffer::close);
+        }
+    }
+
+    @Override
+    public List<OCRResult> getTextsFromImageData(List<ByteBuffer> images) throws Exception {
+        return delegate.getTextsFromImageData(images);
+    }
+
+    @Override
+    public List<OCRResult> getTextsFromImageData(List<ByteBuffer> images, List<ImageUtils.TextLayout> layouts) throws Exception {
+        return delegate.getTextsFromImageData(images, layouts);
+    }
+
+    /**
+     * @param layout receives the text layout of the processed image, which is estimated before it is encoded
+     * @return pooled buffer with the encoded image, which has to be closed after the upload
+     */
+    private BufferPool.Buffer preprocess(BufferedImage image, ImageUtils.TextLayout[] layout) throws Exception {
+        long start = System.nanoTime();
+        int originalWidth = image.getWidth();
+        int originalHeight = image.getHeight();
+
+        BufferedImage processed = image;
+        if (ConfigUtils.getBooleanProperty(CONFIG_TRIM)) {
+            processed = ImageUtils.trimBorders(processed, 8, 4);
+        }
+        if (ConfigUtils.getBooleanProperty(CONFIG_GRAYSCALE)) {
+            processed = ImageUtils.toGrayscale(processed);
+        }
+        processed = ImageUtils.limitSize(processed, ConfigUtils.getIntProperty(CONFIG_MAX_SIZE),
+                ConfigUtils.getDoubleProperty(CONFIG_MIN_SCALE));
+        //the decoded image is at hand here, the OCR service would have to decode the encoded image again
+        layout[0] = ImageUtils.analyzeTextLayout(processed);
+        long processedTime = System.nanoTime();
+
+        String format = ConfigUtils.getProperty(CONFIG_FORMAT);
+        BufferPool.Buffer data = ImageUtils.ENCODING_BUFFERS.acquire();
+        try (Span span = Metrics.start(Metrics.STAGE_ENCODE, CancellationToken.current().getConversionId())) {
+            ImageUtils.encode(processed, format, ConfigUtils.getIntProperty(CONFIG_COMPRESSION), data);
+            span.addBytes(data.size());
+        } catch (Exception ex) {
+            data.close();
+            throw ex;
+        }
+        long encodedTime = System.nanoTime();
+
+        Main.LOGGER.info("Preprocessed image {}x{} ({} KB raw) to {}x{} in {} ms, encoded as {} with {} KB in {} ms.",
+                originalWidth, originalHeight, originalWidth * originalHeight * 4 / 1024,
+                processed.getWidth(), processed.getHeight(), (processedTime - start) / 1_000_000,
+                format, data.size() / 1024, (encodedTime - processedTime) / 1_000_000);
+        if (ConfigUtils.getBooleanProperty(CONFIG_COMPARE)) {
+            long compareStart = System.nanoTime();
+            byte[] original = ImageUtils.encodePng(image);
+            Main.LOGGER.info("Unprocessed image would have been encoded as png with {} KB in {} ms.",
+                    original.length / 1024, (System.nanoTime() - compareStart) / 1_000_000);
+        }
+        return data;
+    }
+
+    @Override
+    public OCRResult getTextFromImage(ByteBuffer image) throws Exception {
+        return delegate.getTextFromImage(image);
+    }
+
+    @Override
+    public OCRResult getTextFromImage(ByteBuffer image, ImageUtils.TextLayout layout) throws Exception {
+        return delegate.getTextFromImage(image, layout);
+    }
+
+    @Override
+    public String getConfigurationFingerprint() {
+        String preprocessing = !ConfigUtils.getBooleanProperty(CONFIG_ACTIVE) ? "off" : String.join(",",
+                ConfigUtils.getProperty(CONFIG_GRAYSCALE), ConfigUtils.getProperty(CONFIG_TRIM),
+                ConfigUtils.getProperty(CONFIG_MAX_SIZE), ConfigUtils.getProperty(CONFIG_MIN_SCALE),
+                ConfigUtils.getProperty(CONFIG_FORMAT), ConfigUtils.getProperty(CONFIG_COMPRESSION));
+        return "preprocessing=" + preprocessing + ";" + delegate.getConfigurationFingerprint();
+    }
+
+    @Override
+    public void addOCRFrameConfiguration(JPanel panel) throws Exception {
+        delegate.addOCRFrameConfiguration(panel);
+    }
+
+}
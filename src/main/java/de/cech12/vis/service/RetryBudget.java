@@ -0,0 +1,31 @@
+package de.cech12.vis.service;
+
+/**
+ * Limits retries to a share of the requests, so a failing backend does not get several times the usual load.
+ * Every request deposits a fraction of a token, every retry needs a whole token.
+ */
+class RetryBudget {
+
+    private final double depositPerRequest;
+    private final double maxTokens;
+    private double tokens;
+
+    RetryBudget(double retryRatio, double maxTokens) {
+        this.depositPerRequest = retryRatio;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    synchronized void recordRequest() {
+        tokens = Math.min(maxTokens, tokens + depositPerRequest);
+    }
+
+    synchronized boolean tryRetry() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+}
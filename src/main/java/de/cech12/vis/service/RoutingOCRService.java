@@ -0,0 +1,85 @@
+package de.cech12.vis.service;
+
+import de.cech12.vis.routing.ProviderRouter;
+import de.cech12.vis.utils.ImageUtils;
+
+import javax.swing.JPanel;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Distributes the OCR requests over all OCR providers (see {@link ProviderRouter}).
+ */
+public class RoutingOCRService implements IOCRService {
+
+    private final ProviderRouter<IOCRService> router;
+
+    public RoutingOCRService(Map<String, IOCRService> services, ExecutorService executor) {
+        router = new ProviderRouter<>("OCR", services, executor);
+    }
+
+    public ProviderRouter<IOCRService> getRouter() {
+        return router;
+    }
+
+    @Override
+    public OCRResult getTextFromImage(ByteBuffer image) throws Exception {
+        //every request gets its own view of the image, so a hedged request can read it, too. The image may be a pooled
+        //buffer, which is released after this call, so the call waits until also the cancelled requests ended.
+        return router.call(service -> service.getTextFromImage(image.duplicate()), true);
+    }
+
+    @Override
+    public OCRResult getTextFromImage(ByteBuffer image, ImageUtils.TextLayout layout) throws Exception {
+        return router.call(service -> service.getTextFromImage(image.duplicate(), layout), true);
+    }
+
+    @Override
+    public OCRResult getTextFromImage(BufferedImage image) throws Exception {
+        return router.call(service -> service.getTextFromImage(image));
+    }
+
+    @Override
+    public List<OCRResult> getTextsFromImages(List<BufferedImage> images) throws Exception {
+        return router.call(service -> service.getTextsFromImages(images));
+    }
+
+    @Override
+    public List<OCRResult> getTextsFromImageData(List<ByteBuffer> images) throws Exception {
+        return router.call(service -> service.getTextsFromImageData(duplicate(images)), true);
+    }
+
+    @Override
+    public List<OCRResult> getTextsFromImageData(List<ByteBuffer> images, List<ImageUtils.TextLayout> layouts) throws Exception {
+        return router.call(service -> service.getTextsFromImageData(duplicate(images), layouts), true);
+    }
+
+    private static List<ByteBuffer> duplicate(List<ByteBuffer> images) {
+        List<ByteBuffer> views = new ArrayList<>();
+        for (ByteBuffer image : images) {
+            views.add(image.duplicate());
+        }
+        return views;
+    }
+
+    @Override
+    public String getConfigurationFingerprint() {
+        StringBuilder fingerprint = new StringBuilder();
+        for (ProviderRouter.Provider<IOCRService> provider : router.getProviders()) {
+            fingerprint.append(provider.getName()).append('=').append(provider.getService().getConfigurationFingerprint()).append(';');
+        }
+        return fingerprint.toString();
+    }
+
+    @Override
+    public void addOCRFrameConfiguration(JPanel panel) throws Exception {
+        for (ProviderRouter.Provider<IOCRService> provider : router.getProviders()) {
+            provider.getService().addOCRFrameConfiguration(panel);
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package de.cech12.vis.service;
+
+import de.cech12.vis.routing.ProviderRouter;
+
+import javax.swing.JPanel;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Distributes the TTS requests over all TTS providers (see {@link ProviderRouter}).
+ * Language and voice configuration are always the ones of the primary provider. The generated speech tells, which
+ * voice configuration and playback speed belong to it (see {@link ProviderSpeech}), since a hedged request may be
+ * answered by another provider.
+ */
+public class RoutingTTSService implements ITTSService {
+
+    /**
+     * Speech of the provider, which answered the request.
+     */
+    public static class ProviderSpeech extends FilterInputStream {
+
+        private final String voiceConfiguration;
+        private final ITTSService provider;
+
+        ProviderSpeech(InputStream speech, String voiceConfiguration, ITTSService provider) {
+            super(speech);
+            this.voiceConfiguration = voiceConfiguration;
+            this.provider = provider;
+        }
+
+        public String getVoiceConfiguration() {
+            return voiceConfiguration;
+        }
+
+        /**
+         * @return current playback speed of the provider, which generated the speech
+         */
+        public double getPlaybackSpeed() {
+            return provider.getPlaybackSpeed();
+        }
+
+        /**
+         * @return the same speech read from another stream (e.g. from a cache)
+         */
+        ProviderSpeech withSpeech(InputStream speech) {
+            return new ProviderSpeech(speech, voiceConfiguration, provider);
+        }
+    }
+
+    private final ProviderRouter<ITTSService> router;
+
+    public RoutingTTSService(Map<String, ITTSService> services, ExecutorService executor) {
+        router = new ProviderRouter<>("TTS", services, executor);
+    }
+
+    public ProviderRouter<ITTSService> getRouter() {
+        return router;
+    }
+
+    @Override
+    public InputStream getSpeechFromText(String text) throws Exception {
+        return router.call(service -> {
+            InputStream speech = service.getSpeechFromText(text);
+            return speech == null ? null : new ProviderSpeech(speech, service.getVoiceConfiguration(), service);
+        });
+    }
+
+    @Override
+    public String getTargetLanguage() throws Exception {
+        return router.getPrimary().getTargetLanguage();
+    }
+
+    @Override
+    public void addTTSFrameConfiguration(JPanel panel) throws Exception {
+        for (ProviderRouter.Provider<ITTSService> provider : router.getProviders()) {
+            provider.getService().addTTSFrameConfiguration(panel);
+        }
+    }
+
+    @Override
+    public String getVoiceConfiguration() throws Exception {
+        return router.getPrimary().getVoiceConfiguration();
+    }
+
+    /**
+     * @return playback speed of the primary provider. Speech of another provider has its own speed (see
+     * {@link SpeechStream#getPlaybackSpeed(InputStream, DoubleSupplier)}).
+     */
+    @Override
+    public double getPlaybackSpeed() {
+        return router.getPrimary().getPlaybackSpeed();
+    }
+
+}
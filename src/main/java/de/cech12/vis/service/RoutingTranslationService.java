@@ -0,0 +1,47 @@
+package de.cech12.vis.service;
+
+import de.cech12.vis.routing.ProviderRouter;
+
+import javax.swing.JPanel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Distributes the translation requests over all translation providers (see {@link ProviderRouter}).
+ */
+public class RoutingTranslationService implements ITranslationService {
+
+    private final ProviderRouter<ITranslationService> router;
+
+    public RoutingTranslationService(Map<String, ITranslationService> services, ExecutorService executor) {
+        router = new ProviderRouter<>("Translation", services, executor);
+    }
+
+    public ProviderRouter<ITranslationService> getRouter() {
+        return router;
+    }
+
+    @Override
+    public String getTranslationOfText(String language, String text) throws Exception {
+        return router.call(service -> service.getTranslationOfText(language, text));
+    }
+
+    @Override
+    public List<String> getTranslationOfTexts(String language, List<String> texts) throws Exception {
+        return router.call(service -> service.getTranslationOfTexts(language, texts));
+    }
+
+    @Override
+    public boolean isTranslationAvailableForLanguage(String language) throws Exception {
+        return router.call(service -> service.isTranslationAvailableForLanguage(language));
+    }
+
+    @Override
+    public void addTranslationFrameConfiguration(JPanel panel) throws Exception {
+        for (ProviderRouter.Provider<ITranslationService> provider : router.getProviders()) {
+            provider.getService().addTranslationFrameConfiguration(panel);
+        }
+    }
+
+}
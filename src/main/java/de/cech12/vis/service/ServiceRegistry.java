@@ -0,0 +1,67 @@
+package de.cech12.vis.service;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.utils.ConfigUtils;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Discovers all service providers and creates their services in the configured order ("providers.order").
+ */
+public class ServiceRegistry implements AutoCloseable {
+
+    public static final String CONFIG_PROVIDERS = "providers.order";
+
+    private final Map<String, Object> services = new LinkedHashMap<>();
+
+    public ServiceRegistry(File configDir) throws Exception {
+        Map<String, IServiceProvider> providers = new HashMap<>();
+        for (IServiceProvider provider : ServiceLoader.load(IServiceProvider.class)) {
+            providers.put(provider.getName(), provider);
+        }
+        Main.LOGGER.info("Found service providers: {}", providers.keySet());
+        for (String name : ConfigUtils.getPropertyOrDefault(CONFIG_PROVIDERS, GoogleCloudServiceProvider.NAME).split(",")) {
+            name = name.trim();
+            IServiceProvider provider = providers.get(name);
+            if (provider == null) {
+                Main.LOGGER.warn("Configured service provider \"{}\" was not found.", name);
+                continue;
+            }
+            services.put(name, provider.createService(configDir));
+        }
+        if (services.isEmpty()) {
+            throw new Exception("No configured service provider is available.");
+        }
+    }
+
+    /**
+     * @return all services of the given type by their provider names in the configured order
+     */
+    public <S> Map<String, S> getServices(Class<S> type) {
+        Map<String, S> result = new LinkedHashMap<>();
+        services.forEach((name, service) -> {
+            if (type.isInstance(service)) {
+                result.put(name, type.cast(service));
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void close() {
+        services.forEach((name, service) -> {
+            if (service instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception ex) {
+                    Main.LOGGER.error("Failed to close the services of {}.", name, ex);
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,90 @@
+package de.cech12.vis.service;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Ordered sequence of speech chunks, which may still be generated while the first chunks are already played.
+ */
+public class SpeechStream implements AutoCloseable {
+
+    private final List<? extends Future<InputStream>> chunks;
+    private final Runnable onClose;
+    private int index = 0;
+    private volatile long conversionId = 0;
+
+    public SpeechStream(List<? extends Future<InputStream>> chunks) {
+        this(chunks, () -> {});
+    }
+
+    /**
+     * @param onClose called on {@link #close()}, e.g. to cancel the requests, which generate the chunks
+     */
+    public SpeechStream(List<? extends Future<InputStream>> chunks, Runnable onClose) {
+        this.chunks = chunks;
+        this.onClose = onClose;
+    }
+
+    public static SpeechStream of(InputStream speech) {
+        return new SpeechStream(List.of(CompletableFuture.completedFuture(speech)));
+    }
+
+    /**
+     * The chunks of a stream may be generated by different providers (see {@link RoutingTTSService.ProviderSpeech}),
+     * which apply different playback speeds.
+     * @param defaultSpeed speed of the service, which generated the stream
+     * @return playback speed of the chunk
+     */
+    public static DoubleSupplier getPlaybackSpeed(InputStream chunk, DoubleSupplier defaultSpeed) {
+        return chunk instanceof RoutingTTSService.ProviderSpeech providerSpeech ? providerSpeech::getPlaybackSpeed : defaultSpeed;
+    }
+
+    public int size() {
+        return chunks.size();
+    }
+
+    /**
+     * @return id of the conversion, which generated the chunks, in the metrics (0, if unknown)
+     */
+    public long getConversionId() {
+        return conversionId;
+    }
+
+    public void setConversionId(long conversionId) {
+        this.conversionId = conversionId;
+    }
+
+    /**
+     * Waits until the next chunk is generated.
+     * @return next chunk or null, if all chunks were returned
+     */
+    public synchronized InputStream next() throws Exception {
+        if (index >= chunks.size()) {
+            return null;
+        }
+        try {
+            return chunks.get(index++).get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Cancels the generation of all chunks, which are not finished yet.
+     */
+    @Override
+    public void close() {
+        onClose.run();
+        for (Future<InputStream> chunk : chunks) {
+            chunk.cancel(true);
+        }
+    }
+
+}
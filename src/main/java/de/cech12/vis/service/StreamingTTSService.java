@@ -0,0 +1,79 @@
+package de.cech12.vis.service;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.utils.ConfigUtils;
+import de.cech12.vis.utils.ExecutorUtils;
+import de.cech12.vis.utils.TextUtils;
+
+import javax.swing.JPanel;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Streaming variant for any TTS service. The text is split into sentence sized chunks, which are generated
+ * concurrently (with bounded parallelism) by the wrapped service and returned in their original order.
+ */
+public class StreamingTTSService implements IStreamingTTSService, AutoCloseable {
+
+    public static final String CONFIG_CHUNK_LENGTH = "tts.streaming.chunk.length";
+    public static final String CONFIG_PARALLELISM = "tts.streaming.parallelism";
+
+    private final ITTSService delegate;
+    private final ExecutorService executor;
+    private final int chunkLength;
+
+    public StreamingTTSService(ITTSService delegate) throws Exception {
+        this.delegate = delegate;
+        this.chunkLength = ConfigUtils.getIntPropertyOrDefault(CONFIG_CHUNK_LENGTH, 400);
+        int parallelism = ConfigUtils.getIntPropertyOrDefault(CONFIG_PARALLELISM, 3);
+        this.executor = ExecutorUtils.createExecutor(String.valueOf(parallelism), "vis-tts");
+    }
+
+    @Override
+    public SpeechStream getSpeechStreamFromText(String text) {
+        List<String> chunks = TextUtils.splitIntoChunks(text, chunkLength);
+        Main.LOGGER.info("Generate speech in {} chunks.", chunks.size());
+        List<CompletableFuture<InputStream>> futures = new ArrayList<>();
+        //closing the stream cancels the running requests of its chunks
+        CancellationToken streamToken = CancellationToken.current().child();
+        //the executor processes the chunks in order, so the first chunk is always generated first
+        for (String chunk : chunks) {
+            futures.add(ExecutorUtils.supplyAsync(() -> streamToken.call(() -> delegate.getSpeechFromText(chunk)), executor));
+        }
+        return new SpeechStream(futures, streamToken::cancel);
+    }
+
+    @Override
+    public InputStream getSpeechFromText(String text) throws Exception {
+        return delegate.getSpeechFromText(text);
+    }
+
+    @Override
+    public String getTargetLanguage() throws Exception {
+        return delegate.getTargetLanguage();
+    }
+
+    @Override
+    public String getVoiceConfiguration() throws Exception {
+        return delegate.getVoiceConfiguration();
+    }
+
+    @Override
+    public double getPlaybackSpeed() {
+        return delegate.getPlaybackSpeed();
+    }
+
+    @Override
+    public void addTTSFrameConfiguration(JPanel panel) throws Exception {
+        delegate.addTTSFrameConfiguration(panel);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
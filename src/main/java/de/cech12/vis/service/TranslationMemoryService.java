@@ -0,0 +1,135 @@
+package de.cech12.vis.service;
+
+import de.cech12.vis.Main;
+import de.cech12.vis.cache.CacheFile;
+import de.cech12.vis.cache.LruCache;
+import de.cech12.vis.cache.SingleFlight;
+import de.cech12.vis.utils.ConfigUtils;
+import de.cech12.vis.utils.HashUtils;
+import de.cech12.vis.utils.TextUtils;
+
+import javax.swing.JPanel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Translation memory in front of another translation service. Texts are split into sentences and already known
+ * translations of sentences are taken from a local store. Only unknown sentences are sent to the wrapped service
+ * (all in one request) and the translated text is put back together in the original order.
+ */
+public class TranslationMemoryService implements ITranslationService, AutoCloseable {
+
+    public static final String CONFIG_ENTRIES = "cache.translation.entries";
+
+    private static final int FILE_VERSION = 1;
+
+    private final ITranslationService delegate;
+    private final Path memoryFile;
+    private final LruCache<String, String> memory;
+    private final SingleFlight<String, List<String>> flights = new SingleFlight<>("cache.translation");
+
+    public TranslationMemoryService(ITranslationService delegate, File memoryFile) throws Exception {
+        this.delegate = delegate;
+        this.memoryFile = memoryFile.toPath();
+        this.memory = new LruCache<>(ConfigUtils.getIntPropertyOrDefault(CONFIG_ENTRIES, 20000));
+        try {
+            int count = CacheFile.load(this.memoryFile, FILE_VERSION, memory, CacheFile::readString, CacheFile::readString);
+            if (count >= 0) {
+                Main.LOGGER.info("Loaded {} translation memory entries.", count);
+            }
+        } catch (IOException ex) {
+            Main.LOGGER.warn("Failed to load translation memory file {}.", memoryFile, ex);
+        }
+    }
+
+    @Override
+    public String getTranslationOfText(String language, String text) throws Exception {
+        return getTranslationOfTexts(language, List.of(text)).get(0);
+    }
+
+    @Override
+    public List<String> getTranslationOfTexts(String language, List<String> texts) throws Exception {
+        List<List<TextUtils.Segment>> segmentsOfTexts = new ArrayList<>();
+        for (String text : texts) {
+            segmentsOfTexts.add(TextUtils.splitIntoSentences(text));
+        }
+
+        //collect all sentences without known translation
+        Map<String, String> translations = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (List<TextUtils.Segment> segments : segmentsOfTexts) {
+            for (TextUtils.Segment segment : segments) {
+                if (segment.text().isBlank() || translations.containsKey(segment.text())) {
+                    continue;
+                }
+                String translation = memory.get(getKey(language, segment.text()));
+                if (translation != null) {
+                    translations.put(segment.text(), translation);
+                } else {
+                    missing.add(segment.text());
+                }
+            }
+        }
+        Main.LOGGER.info("Translation memory: {} known and {} unknown sentences.", translations.size(), missing.size());
+
+        if (!missing.isEmpty()) {
+            List<String> missingTexts = new ArrayList<>(missing);
+            //concurrent requests of the same sentences share one call
+            List<String> missingTranslations = flights.call(HashUtils.sha256(language, String.join("\u0000", missingTexts)),
+                    () -> delegate.getTranslationOfTexts(language, missingTexts));
+            if (missingTranslations.size() != missingTexts.size()) {
+                throw new Exception("Translation service returned " + missingTranslations.size() + " translations for " + missingTexts.size() + " texts.");
+            }
+            for (int i = 0; i < missingTexts.size(); i++) {
+                String original = missingTexts.get(i);
+                String translation = missingTranslations.get(i);
+                translations.put(original, translation);
+                //unchanged texts are not stored, because the service returns the original text, when it is not usable
+                if (!original.equals(translation)) {
+                    memory.put(getKey(language, original), translation);
+                }
+            }
+        }
+
+        List<String> result = new ArrayList<>();
+        for (List<TextUtils.Segment> segments : segmentsOfTexts) {
+            StringBuilder translatedText = new StringBuilder();
+            for (TextUtils.Segment segment : segments) {
+                translatedText.append(translations.getOrDefault(segment.text(), segment.text())).append(segment.separator());
+            }
+            result.add(translatedText.toString());
+        }
+        return result;
+    }
+
+    private static String getKey(String language, String text) {
+        return HashUtils.sha256(language, text);
+    }
+
+    @Override
+    public boolean isTranslationAvailableForLanguage(String language) throws Exception {
+        return delegate.isTranslationAvailableForLanguage(language);
+    }
+
+    @Override
+    public void addTranslationFrameConfiguration(JPanel panel) throws Exception {
+        delegate.addTranslationFrameConfiguration(panel);
+    }
+
+    @Override
+    public void close() {
+        try {
+            CacheFile.save(memoryFile, FILE_VERSION, memory, CacheFile::writeString, CacheFile::writeString);
+        } catch (IOException ex) {
+            Main.LOGGER.warn("Failed to save translation memory file {}.", memoryFile, ex);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package de.cech12.vis.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pool of growable byte buffers for encoded images. A buffer keeps its grown array, when it is returned, so encoding
+ * a large screenshot does not allocate (and grow) a new array of several megabytes for every request.
+ * The arrays of the kept buffers sum up to a fixed maximum, buffers, which grew larger, are dropped on release.
+ */
+public class BufferPool {
+
+    private static final int INITIAL_SIZE = 256 * 1024;
+
+    private final int maxBuffers;
+    private final int maxBufferSize;
+    private final long maxRetainedBytes;
+    private final Deque<Buffer> buffers = new ArrayDeque<>();
+    private long retainedBytes = 0;
+
+    /**
+     * @param maxBuffers number of buffers, which are kept for reuse
+     * @param maxBufferSize buffers, which grew larger, are not kept
+     * @param maxRetainedBytes maximum size of all kept buffers together
+     */
+    public BufferPool(int maxBuffers, int maxBufferSize, long maxRetainedBytes) {
+        this.maxBuffers = maxBuffers;
+        this.maxBufferSize = maxBufferSize;
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * @return an empty buffer, which has to be closed after its content was used
+     */
+    public synchronized Buffer acquire() {
+        Buffer buffer = buffers.pollFirst();
+        if (buffer == null) {
+            return new Buffer(this);
+        }
+        retainedBytes -= buffer.capacity();
+        buffer.reset();
+        return buffer;
+    }
+
+    private synchronized void release(Buffer buffer) {
+        if (buffers.size() < maxBuffers && buffer.capacity() <= maxBufferSize
+                && retainedBytes + buffer.capacity() <= maxRetainedBytes && !buffers.contains(buffer)) {
+            buffers.addFirst(buffer);
+            retainedBytes += buffer.capacity();
+        }
+    }
+
+    /**
+     * @return size of all buffers, which are kept for reuse
+     */
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * Output stream, whose content can be read without copying it.
+     */
+    public static class Buffer extends ByteArrayOutputStream {
+
+        private final BufferPool pool;
+
+        private Buffer(BufferPool pool) {
+            super(INITIAL_SIZE);
+            this.pool = pool;
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+
+        /**
+         * @return read-only view of the written bytes. It is only valid until the buffer is closed.
+         */
+        public synchronized ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+        }
+
+        /**
+         * Returns the buffer into its pool.
+         */
+        @Override
+        public void close() {
+            pool.release(this);
+        }
+    }
+
+}
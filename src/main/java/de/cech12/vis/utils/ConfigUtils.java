@@ -1,14 +1,39 @@
 package de.cech12.vis.utils;
 
+import de.cech12.vis.Main;
+
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
+/**
+ * Configuration store of the application. All values are held in memory. Changes are collected and written to the
+ * config file by a background thread 500 ms after the last change (and on shutdown), so fast changes like slider
+ * movements do not block the caller with file writes. Every change postpones the write. The file is replaced atomically.
+ */
 public class ConfigUtils {
 
+    private static final long FLUSH_DELAY_MILLIS = 500;
+
     private final static Properties properties = new Properties();
+    private final static Map<String, Object> typedValues = new ConcurrentHashMap<>();
+    private final static AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final static Object flushLock = new Object();
+    private static ScheduledFuture<?> scheduledFlush = null;
+    private final static ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(ExecutorUtils.daemonThreadFactory("vis-config"));
     private static File configFile;
 
     private ConfigUtils() {}
@@ -22,38 +47,102 @@ public class ConfigUtils {
         try (FileInputStream fis = new FileInputStream(configFile)) {
             properties.load(fis);
         }
+        typedValues.clear();
+        Runtime.getRuntime().addShutdownHook(new Thread(ConfigUtils::flush, "vis-config-flush"));
     }
 
     public static String getProperty(String key){
         return properties.getProperty(key);
     }
 
-    public static String getPropertyOrDefault(String key, String defaultValue) throws IOException {
+    public static String getPropertyOrDefault(String key, String defaultValue) {
         if (!properties.containsKey(key)) {
             setProperty(key, defaultValue);
         }
         return getProperty(key);
     }
 
-    public static void setProperty(String key, String value) throws IOException {
-        properties.setProperty(key, value);
-        properties.store(new FileOutputStream(configFile), null);
+    public static void setProperty(String key, String value) {
+        Object old = properties.setProperty(key, value);
+        if (value.equals(old)) {
+            return;
+        }
+        typedValues.remove(key);
+        scheduleFlush();
     }
 
     public static double getDoubleProperty(String key){
-        return Double.parseDouble(properties.getProperty(key));
+        return getTypedProperty(key, Double::parseDouble);
     }
 
-    public static double getDoublePropertyOrDefault(String key, double defaultValue) throws IOException {
+    public static double getDoublePropertyOrDefault(String key, double defaultValue) {
         if (!properties.containsKey(key)) {
             setDoubleProperty(key, defaultValue);
         }
         return getDoubleProperty(key);
     }
 
-    public static void setDoubleProperty(String key, double value) throws IOException {
+    public static void setDoubleProperty(String key, double value) {
         setProperty(key, String.valueOf(value));
-        properties.store(new FileOutputStream(configFile), null);
+    }
+
+    public static int getIntProperty(String key) {
+        return getTypedProperty(key, Integer::parseInt);
+    }
+
+    public static int getIntPropertyOrDefault(String key, int defaultValue) {
+        if (!properties.containsKey(key)) {
+            setProperty(key, String.valueOf(defaultValue));
+        }
+        return getIntProperty(key);
+    }
+
+    public static boolean getBooleanProperty(String key) {
+        return getTypedProperty(key, Boolean::parseBoolean);
+    }
+
+    public static boolean getBooleanPropertyOrDefault(String key, boolean defaultValue) {
+        if (!properties.containsKey(key)) {
+            setProperty(key, String.valueOf(defaultValue));
+        }
+        return getBooleanProperty(key);
+    }
+
+    /**
+     * Parses the value only once after each change of it.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T getTypedProperty(String key, Function<String, T> parser) {
+        return (T) typedValues.computeIfAbsent(key, k -> parser.apply(properties.getProperty(k)));
+    }
+
+    private static void scheduleFlush() {
+        flushScheduled.set(true);
+        synchronized (flushLock) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+            }
+            scheduledFlush = flushExecutor.schedule(ConfigUtils::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes all values into the config file, if there are unwritten changes.
+     */
+    public static synchronized void flush() {
+        if (!flushScheduled.getAndSet(false) || configFile == null) {
+            return;
+        }
+        Path file = configFile.toPath();
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tempFile)) {
+                properties.store(os, null);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            Main.LOGGER.error("Failed to write config file.", ex);
+        }
     }
 
 }
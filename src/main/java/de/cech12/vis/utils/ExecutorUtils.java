@@ -0,0 +1,67 @@
+package de.cech12.vis.utils;
+
+import de.cech12.vis.Main;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExecutorUtils {
+
+    public static final String VIRTUAL = "virtual";
+    public static final String CACHED = "cached";
+
+    private ExecutorUtils() {}
+
+    /**
+     * Creates an executor by its configured type:
+     * "virtual" (one virtual thread per task, falls back to "cached" on Java versions without virtual threads),
+     * "cached" (growing pool of daemon threads) or a number (fixed pool of daemon threads).
+     */
+    public static ExecutorService createExecutor(String type, String name) {
+        if (VIRTUAL.equals(type)) {
+            try {
+                //called via reflection to stay compatible with Java 17
+                ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                Main.LOGGER.info("Using virtual threads for {}.", name);
+                return executor;
+            } catch (ReflectiveOperationException ex) {
+                Main.LOGGER.info("Virtual threads are not available. Using a cached thread pool for {}.", name);
+                type = CACHED;
+            }
+        }
+        if (CACHED.equals(type)) {
+            return Executors.newCachedThreadPool(daemonThreadFactory(name));
+        }
+        return Executors.newFixedThreadPool(Integer.parseInt(type), daemonThreadFactory(name));
+    }
+
+    public static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Like {@link CompletableFuture#supplyAsync(java.util.function.Supplier, Executor)}, but for tasks, which throw
+     * checked exceptions. The future is completed exceptionally with the original exception.
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Callable<T> task, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+}
@@ -0,0 +1,332 @@
+package de.cech12.vis.utils;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+public class ImageUtils {
+
+    public static final String FORMAT_PNG = "png";
+    public static final String FORMAT_JPEG = "jpeg";
+
+    private static final int PERCEPTUAL_HASH_SIZE = 16;
+    /** Longer side, to which images are subsampled for the text layout analysis */
+    private static final int TEXT_LAYOUT_SIZE = 1600;
+    /** Luminance difference of neighbouring pixels, which counts as edge of a glyph */
+    private static final int TEXT_LAYOUT_EDGE = 48;
+
+    /** Reused buffers for images, which are encoded for an upload (a preprocessed 4K screenshot needs about 1.5 MB). */
+    public static final BufferPool ENCODING_BUFFERS = new BufferPool(8, 4 * 1024 * 1024, 16 * 1024 * 1024);
+
+    private ImageUtils() {}
+
+    public static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        encodePng(image, os);
+        return os.toByteArray();
+    }
+
+    public static void encodePng(BufferedImage image, OutputStream os) throws IOException {
+        ImageIO.write(image, "png", os);
+    }
+
+    /**
+     * Encodes the image with the given format.
+     * @param compression PNG: deflate level (0 - 9), JPEG: quality in percent (1 - 100)
+     */
+    public static byte[] encode(BufferedImage image, String format, int compression) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        encode(image, format, compression, os);
+        return os.toByteArray();
+    }
+
+    /**
+     * Encodes the image with the given format into the given stream (e.g. a pooled buffer).
+     * @param compression PNG: deflate level (0 - 9), JPEG: quality in percent (1 - 100)
+     */
+    public static void encode(BufferedImage image, String format, int compression, OutputStream os) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            if (FORMAT_PNG.equals(format)) {
+                //the PNG writer maps the quality to the deflate level: level = 9 - round(9 * quality)
+                param.setCompressionQuality((9 - Math.max(0, Math.min(9, compression))) / 9F);
+            } else {
+                param.setCompressionQuality(Math.max(1, Math.min(100, compression)) / 100F);
+            }
+        }
+        if (FORMAT_JPEG.equals(format) && image.getColorModel().hasAlpha()) {
+            image = convert(image, BufferedImage.TYPE_INT_RGB);
+        }
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(os)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    public static BufferedImage toGrayscale(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+        return convert(image, BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+    private static BufferedImage convert(BufferedImage image, int type) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D graphics = result.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return result;
+    }
+
+    /**
+     * Scales the image down, so that its longer side does not exceed the given maximum. To keep small text legible,
+     * the image is never scaled below the given minimal scale factor.
+     */
+    public static BufferedImage limitSize(BufferedImage image, int maxSize, double minScale) {
+        int longerSide = Math.max(image.getWidth(), image.getHeight());
+        if (longerSide <= maxSize) {
+            return image;
+        }
+        double scale = Math.max(minScale, (double) maxSize / longerSide);
+        if (scale >= 1) {
+            return image;
+        }
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        int type = image.getType() == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_ARGB : image.getType();
+        BufferedImage result = new BufferedImage(width, height, type);
+        Graphics2D graphics = result.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return result;
+    }
+
+    /**
+     * Removes borders, which have the same color as the top left pixel (with the given tolerance per channel).
+     * A small margin is kept around the remaining content.
+     */
+    public static BufferedImage trimBorders(BufferedImage image, int tolerance, int margin) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int background = image.getRGB(0, 0);
+        int[] row = new int[width];
+        int top = height;
+        int bottom = -1;
+        int left = width;
+        int right = -1;
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                if (!isSimilarColor(row[x], background, tolerance)) {
+                    top = Math.min(top, y);
+                    bottom = y;
+                    left = Math.min(left, x);
+                    right = Math.max(right, x);
+                }
+            }
+        }
+        if (bottom < 0) {
+            return image; //only background
+        }
+        left = Math.max(0, left - margin);
+        top = Math.max(0, top - margin);
+        right = Math.min(width - 1, right + margin);
+        bottom = Math.min(height - 1, bottom + margin);
+        if (left == 0 && top == 0 && right == width - 1 && bottom == height - 1) {
+            return image;
+        }
+        return image.getSubimage(left, top, right - left + 1, bottom - top + 1);
+    }
+
+    private static boolean isSimilarColor(int rgb, int otherRgb, int tolerance) {
+        return Math.abs(((rgb >> 16) & 0xFF) - ((otherRgb >> 16) & 0xFF)) <= tolerance
+                && Math.abs(((rgb >> 8) & 0xFF) - ((otherRgb >> 8) & 0xFF)) <= tolerance
+                && Math.abs((rgb & 0xFF) - (otherRgb & 0xFF)) <= tolerance;
+    }
+
+    /**
+     * Rough text layout of an image.
+     * @param edgeDensity share of pixels with a sharp luminance change to their right neighbour (0 - 1)
+     * @param lineCoverage share of rows, which look like they cross a line of text (0 - 1)
+     */
+    public record TextLayout(int width, int height, double edgeDensity, double lineCoverage) {
+
+        public long getPixels() {
+            return (long) width * height;
+        }
+
+    }
+
+    /**
+     * Estimates the text layout of an encoded image without recognizing its text: pages of running text have many
+     * glyph edges in most rows, while sparse labels of user interfaces have few edges in some rows. Large images
+     * are subsampled while they are decoded.
+     */
+    public static TextLayout analyzeTextLayout(ByteBuffer encodedImage) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteBufferInputStream(encodedImage))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format.");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.max(width, height) / TEXT_LAYOUT_SIZE);
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage image = reader.read(0, param);
+                return analyzeTextLayout(image, width, height, 1);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Estimates the text layout of a decoded image (see {@link #analyzeTextLayout(ByteBuffer)}). Only every n-th
+     * pixel of large images is analyzed.
+     */
+    public static TextLayout analyzeTextLayout(BufferedImage image) {
+        int step = Math.max(1, Math.max(image.getWidth(), image.getHeight()) / TEXT_LAYOUT_SIZE);
+        return analyzeTextLayout(image, image.getWidth(), image.getHeight(), step);
+    }
+
+    /**
+     * @param step distance of the analyzed pixels in both directions
+     */
+    private static TextLayout analyzeTextLayout(BufferedImage image, int width, int height, int step) {
+        int sampledWidth = (image.getWidth() + step - 1) / step;
+        int sampledHeight = (image.getHeight() + step - 1) / step;
+        //grayscale images (as sent by the preprocessing) are read without a color conversion
+        Raster raster = image.getRaster();
+        boolean gray = raster.getNumBands() == 1 && image.getColorModel().getPixelSize() == 8;
+        int[] row = new int[image.getWidth()];
+        long edges = 0;
+        int textRows = 0;
+        for (int y = 0; y < image.getHeight(); y += step) {
+            if (gray) {
+                raster.getSamples(0, y, image.getWidth(), 1, 0, row);
+            } else {
+                image.getRGB(0, y, image.getWidth(), 1, row, 0, image.getWidth());
+            }
+            int rowEdges = 0;
+            double previous = gray ? row[0] : luminance(row[0]);
+            for (int x = step; x < image.getWidth(); x += step) {
+                double current = gray ? row[x] : luminance(row[x]);
+                if (Math.abs(current - previous) >= TEXT_LAYOUT_EDGE) {
+                    rowEdges++;
+                }
+                previous = current;
+            }
+            edges += rowEdges;
+            if (rowEdges * 50 >= sampledWidth) { //at least 2 % of the row
+                textRows++;
+            }
+        }
+        long pixels = (long) sampledWidth * sampledHeight;
+        return new TextLayout(width, height, pixels == 0 ? 0 : (double) edges / pixels,
+                sampledHeight == 0 ? 0 : (double) textRows / sampledHeight);
+    }
+
+    /**
+     * Fast 64 bit hash over the size and all pixels of the image. Identical images always get the same hash.
+     */
+    public static long pixelHash(BufferedImage image) {
+        return sampledPixelHash(image, 1);
+    }
+
+    /**
+     * Hash over the size and every n-th row of the image. It is cheaper than {@link #pixelHash(BufferedImage)}, but
+     * misses changes, which are lower than the row step.
+     */
+    public static long sampledPixelHash(BufferedImage image, int rowStep) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long hash = 0xcbf29ce484222325L ^ (((long) width << 32) | height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y += rowStep) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int pixel : row) {
+                hash = (hash ^ pixel) * 0x100000001b3L;
+                hash ^= hash >>> 29;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Difference hash (dHash) with 256 bits. The image is reduced to a 17x16 grayscale grid and each bit tells,
+     * if a cell is brighter than its right neighbour. Images, which differ only slightly (e.g. by a crop of a few
+     * pixels), get hashes with a small hamming distance.
+     */
+    public static long[] perceptualHash(BufferedImage image) {
+        int gridWidth = PERCEPTUAL_HASH_SIZE + 1;
+        int gridHeight = PERCEPTUAL_HASH_SIZE;
+        double[] grid = new double[gridWidth * gridHeight];
+        int[] counts = new int[gridWidth * gridHeight];
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellY = y * gridHeight / height;
+            for (int x = 0; x < width; x++) {
+                int cell = cellY * gridWidth + x * gridWidth / width;
+                grid[cell] += luminance(row[x]);
+                counts[cell]++;
+            }
+        }
+        long[] hash = new long[PERCEPTUAL_HASH_SIZE * PERCEPTUAL_HASH_SIZE / 64];
+        int bit = 0;
+        for (int y = 0; y < gridHeight; y++) {
+            for (int x = 0; x < gridWidth - 1; x++) {
+                int cell = y * gridWidth + x;
+                double left = counts[cell] == 0 ? 0 : grid[cell] / counts[cell];
+                double right = counts[cell + 1] == 0 ? 0 : grid[cell + 1] / counts[cell + 1];
+                if (left > right) {
+                    hash[bit / 64] |= 1L << (bit % 64);
+                }
+                bit++;
+            }
+        }
+        return hash;
+    }
+
+    public static int hammingDistance(long[] hash, long[] otherHash) {
+        int distance = 0;
+        for (int i = 0; i < Math.min(hash.length, otherHash.length); i++) {
+            distance += Long.bitCount(hash[i] ^ otherHash[i]);
+        }
+        return distance;
+    }
+
+    public static double luminance(int rgb) {
+        return 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+    }
+
+}
@@ -0,0 +1,29 @@
+package de.cech12.vis.utils;
+
+import java.util.Locale;
+import java.util.Map;
+
+public class LanguageUtils {
+
+    /** Language codes of TTS voices, which are named differently by OCR & translation services */
+    private static final Map<String, String> ALIASES = Map.of("cmn", "zh", "yue", "zh");
+
+    private LanguageUtils() {}
+
+    /**
+     * @return lower case primary language subtag of the given code (e.g. "en" for "en-US")
+     */
+    public static String getPrimaryLanguage(String languageCode) {
+        int separator = languageCode.indexOf('-');
+        String language = (separator < 0 ? languageCode : languageCode.substring(0, separator)).toLowerCase(Locale.ROOT);
+        return ALIASES.getOrDefault(language, language);
+    }
+
+    public static boolean isSameLanguage(String languageCode, String otherLanguageCode) {
+        if (languageCode == null || otherLanguageCode == null) {
+            return false;
+        }
+        return getPrimaryLanguage(languageCode).equals(getPrimaryLanguage(otherLanguageCode));
+    }
+
+}
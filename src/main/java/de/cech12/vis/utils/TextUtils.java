@@ -0,0 +1,77 @@
+package de.cech12.vis.utils;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class TextUtils {
+
+    /**
+     * Part of a text. Concatenating text and separator of all segments results in the original text again.
+     */
+    public record Segment(String text, String separator) {}
+
+    private TextUtils() {}
+
+    /**
+     * Splits the text into sentences. Line breaks also end a sentence, because OCR texts of UI elements
+     * (labels, buttons, list items) often have no punctuation at all.
+     */
+    public static List<Segment> splitIntoSentences(String text) {
+        List<Segment> segments = new ArrayList<>();
+        BreakIterator iterator = BreakIterator.getSentenceInstance(Locale.ROOT);
+        iterator.setText(text);
+        int start = iterator.first();
+        for (int end = iterator.next(); end != BreakIterator.DONE; start = end, end = iterator.next()) {
+            splitLines(text.substring(start, end), segments);
+        }
+        return segments;
+    }
+
+    private static void splitLines(String sentence, List<Segment> segments) {
+        int start = 0;
+        while (start < sentence.length()) {
+            int lineEnd = sentence.indexOf('\n', start);
+            int end = lineEnd < 0 ? sentence.length() : lineEnd + 1;
+            String part = sentence.substring(start, end);
+            String content = part.stripTrailing();
+            segments.add(new Segment(content, part.substring(content.length())));
+            start = end;
+        }
+    }
+
+    /**
+     * Combines consecutive sentences into chunks, which do not exceed the given maximal length (if possible).
+     * Sentences, which are longer than the maximal length, are split at whitespace.
+     */
+    public static List<String> splitIntoChunks(String text, int maxLength) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder chunk = new StringBuilder();
+        for (Segment segment : splitIntoSentences(text)) {
+            String sentence = segment.text() + segment.separator();
+            if (chunk.length() > 0 && chunk.length() + sentence.length() > maxLength) {
+                addChunk(chunks, chunk.toString());
+                chunk.setLength(0);
+            }
+            while (sentence.length() > maxLength) {
+                int splitIndex = sentence.lastIndexOf(' ', maxLength);
+                if (splitIndex <= 0) {
+                    splitIndex = maxLength;
+                }
+                addChunk(chunks, sentence.substring(0, splitIndex));
+                sentence = sentence.substring(splitIndex);
+            }
+            chunk.append(sentence);
+        }
+        addChunk(chunks, chunk.toString());
+        return chunks;
+    }
+
+    private static void addChunk(List<String> chunks, String chunk) {
+        if (!chunk.isBlank()) {
+            chunks.add(chunk.strip());
+        }
+    }
+
+}
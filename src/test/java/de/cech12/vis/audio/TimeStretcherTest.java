@@ -0,0 +1,107 @@
+package de.cech12.vis.audio;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimeStretcherTest {
+
+    private static final float SAMPLE_RATE = 24000;
+    private static final double FREQUENCY = 440;
+    private static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+
+    /**
+     * @return 16 bit little endian samples of a sine wave
+     */
+    private static byte[] sine(double seconds) {
+        int frames = (int) (SAMPLE_RATE * seconds);
+        byte[] data = new byte[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            short value = (short) (Math.sin(2 * Math.PI * FREQUENCY * i / SAMPLE_RATE) * 12000);
+            data[2 * i] = (byte) value;
+            data[2 * i + 1] = (byte) (value >> 8);
+        }
+        return data;
+    }
+
+    /**
+     * Puts the input in blocks, like the speech player, and returns all output samples.
+     */
+    private static byte[] stretch(TimeStretcher stretcher, byte[] input) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int offset = 0; offset < input.length; offset += buffer.length) {
+            stretcher.put(input, offset, Math.min(buffer.length, input.length - offset));
+            receive(stretcher, buffer, output);
+        }
+        stretcher.flush();
+        receive(stretcher, buffer, output);
+        return output.toByteArray();
+    }
+
+    private static void receive(TimeStretcher stretcher, byte[] buffer, ByteArrayOutputStream output) {
+        int length;
+        while ((length = stretcher.receive(buffer)) > 0) {
+            output.write(buffer, 0, length);
+        }
+    }
+
+    private static int countZeroCrossings(byte[] data) {
+        int crossings = 0;
+        short previous = 0;
+        for (int i = 0; i + 1 < data.length; i += 2) {
+            short value = (short) ((data[i + 1] << 8) | (data[i] & 0xFF));
+            if (i > 0 && (previous < 0) != (value < 0)) {
+                crossings++;
+            }
+            previous = value;
+        }
+        return crossings;
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = {0.5, 0.75, 1, 1.5, 2, 3})
+    void outputLengthMatchesSpeed(double speed) {
+        //the rest of the input is flushed without stretching, so the input is long compared to that rest
+        byte[] input = sine(10);
+        TimeStretcher stretcher = new TimeStretcher(FORMAT);
+        stretcher.setSpeed(speed);
+        byte[] output = stretch(stretcher, input);
+        double expected = input.length / speed;
+        assertEquals(expected, output.length, expected * 0.03, "speed " + speed);
+        assertTrue(stretcher.isEmpty());
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = {0.5, 2})
+    void pitchIsKept(double speed) {
+        TimeStretcher stretcher = new TimeStretcher(FORMAT);
+        stretcher.setSpeed(speed);
+        byte[] output = stretch(stretcher, sine(3));
+        //a sine wave crosses zero twice per period
+        double frequency = countZeroCrossings(output) / 2.0 / (output.length / 2.0 / SAMPLE_RATE);
+        assertEquals(FREQUENCY, frequency, FREQUENCY * 0.05, "speed " + speed);
+    }
+
+    @Test
+    void speedIsLimited() {
+        byte[] input = sine(30);
+        TimeStretcher stretcher = new TimeStretcher(FORMAT);
+        stretcher.setSpeed(10);
+        double expected = input.length / 4.0;
+        assertEquals(expected, stretch(stretcher, input).length, expected * 0.03);
+    }
+
+    @Test
+    void rejectsUnsupportedFormats() {
+        assertThrows(IllegalArgumentException.class, () -> new TimeStretcher(new AudioFormat(SAMPLE_RATE, 8, 1, true, false)));
+    }
+
+}
@@ -0,0 +1,54 @@
+package de.cech12.vis.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LruCacheTest {
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        LruCache<String, String> cache = new LruCache<>(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+
+    @Test
+    void evictsByWeight() {
+        LruCache<String, byte[]> cache = new LruCache<>(10, value -> value.length);
+        cache.put("a", new byte[4]);
+        cache.put("b", new byte[4]);
+        cache.put("c", new byte[4]);
+        assertNull(cache.get("a"));
+        assertEquals(2, cache.size());
+        //replacing an entry does not count its old weight
+        cache.put("c", new byte[6]);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void ignoresTooHeavyValues() {
+        LruCache<String, byte[]> cache = new LruCache<>(10, value -> value.length);
+        cache.put("a", new byte[4]);
+        cache.put("b", new byte[11]);
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void removeFreesWeight() {
+        LruCache<String, byte[]> cache = new LruCache<>(10, value -> value.length);
+        cache.put("a", new byte[8]);
+        cache.remove("a");
+        cache.put("b", new byte[5]);
+        cache.put("c", new byte[5]);
+        assertEquals(2, cache.size());
+    }
+
+}
@@ -0,0 +1,146 @@
+package de.cech12.vis.cache;
+
+import de.cech12.vis.service.CancellationToken;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final SingleFlight<String, String> flights = new SingleFlight<>("test.flight");
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts a leader, which blocks until the returned latch is released.
+     */
+    private Future<String> startLeader(CancellationToken token, AtomicInteger calls, CountDownLatch started, CountDownLatch release) {
+        return executor.submit(() -> token.call(() -> flights.call("key", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            release.await();
+            return "value";
+        })));
+    }
+
+    @Test
+    void concurrentCallsShareOneExecution() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = startLeader(new CancellationToken(), calls, started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<String> follower = executor.submit(() -> flights.call("key", () -> {
+            calls.incrementAndGet();
+            return "other";
+        }));
+        Thread.sleep(50);
+        release.countDown();
+        assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("value", follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void followerRaisesPriorityOfLeader() throws Exception {
+        CancellationToken leaderToken = new CancellationToken(CancellationToken.Priority.PREFETCH);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = startLeader(leaderToken, new AtomicInteger(), started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CancellationToken followerToken = new CancellationToken(CancellationToken.Priority.INTERACTIVE);
+        Future<String> follower = executor.submit(() -> followerToken.call(() -> flights.call("key", () -> "other")));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (leaderToken.getPriority() != CancellationToken.Priority.INTERACTIVE && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(CancellationToken.Priority.INTERACTIVE, leaderToken.getPriority());
+        release.countDown();
+        assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("value", follower.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cancelledFollowerDoesNotCancelLeader() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = startLeader(new CancellationToken(), new AtomicInteger(), started, release);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CancellationToken followerToken = new CancellationToken();
+        Future<String> follower = executor.submit(() -> followerToken.call(() -> flights.call("key", () -> "other")));
+        Thread.sleep(50);
+        followerToken.cancel();
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(CancellationException.class, ex.getCause());
+        release.countDown();
+        assertEquals("value", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void followerRunsItselfWhenLeaderIsCancelled() throws Exception {
+        CancellationToken leaderToken = new CancellationToken();
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> leaderToken.call(() -> flights.call("key", () -> {
+            started.countDown();
+            //the leader is cancelled while it waits for its result
+            while (true) {
+                CancellationToken.current().throwIfCancelled();
+                Thread.sleep(5);
+            }
+        })));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<String> follower = executor.submit(() -> flights.call("key", () -> "other"));
+        Thread.sleep(50);
+        leaderToken.cancel();
+        assertEquals("other", follower.get(5, TimeUnit.SECONDS));
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(CancellationException.class, ex.getCause());
+    }
+
+    @Test
+    void followerRunsItselfWhenInterruptedLeaderIsCancelled() throws Exception {
+        CancellationToken leaderToken = new CancellationToken();
+        CountDownLatch started = new CountDownLatch(1);
+        //like a blocking backend call, the cancellation interrupts the leader, so it ends with an InterruptedException
+        Future<String> leader = executor.submit(() -> leaderToken.call(() -> flights.call("key", () -> {
+            Thread leaderThread = Thread.currentThread();
+            leaderToken.onCancel(leaderThread::interrupt);
+            started.countDown();
+            new CountDownLatch(1).await();
+            return "value";
+        })));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<String> follower = executor.submit(() -> flights.call("key", () -> "other"));
+        Thread.sleep(50);
+        leaderToken.cancel();
+        assertEquals("other", follower.get(5, TimeUnit.SECONDS));
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(InterruptedException.class, ex.getCause());
+    }
+
+    @Test
+    void failureIsSharedAndNextCallRunsAgain() throws Exception {
+        assertThrows(IllegalStateException.class, () -> flights.call("key", () -> {
+            throw new IllegalStateException("failed");
+        }));
+        assertEquals("value", flights.call("key", () -> "value"));
+    }
+
+}
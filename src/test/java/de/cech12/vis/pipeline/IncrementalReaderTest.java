@@ -0,0 +1,65 @@
+package de.cech12.vis.pipeline;
+
+import de.cech12.vis.service.OCRResult;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IncrementalReaderTest {
+
+    private static String read(IncrementalReader reader, String text) {
+        IncrementalReader.Update update = reader.update(OCRResult.of(text));
+        update.commit();
+        return update.changes().text();
+    }
+
+    @Test
+    void firstTextIsReadCompletely() {
+        IncrementalReader reader = new IncrementalReader();
+        assertEquals("Hello\nWorld", read(reader, "Hello\n\nWorld"));
+    }
+
+    @Test
+    void onlyNewParagraphsAreRead() {
+        IncrementalReader reader = new IncrementalReader();
+        read(reader, "First message\n\nSecond message");
+        assertEquals("Third message", read(reader, "First message\n\nSecond message\n\nThird message"));
+    }
+
+    @Test
+    void repeatedParagraphIsReadAgain() {
+        IncrementalReader reader = new IncrementalReader();
+        read(reader, "Question?\n\nYes");
+        assertEquals("Yes", read(reader, "Question?\n\nYes\n\nYes"));
+    }
+
+    @Test
+    void sameTextHasNoChanges() {
+        IncrementalReader reader = new IncrementalReader();
+        read(reader, "Some   text\n\nMore text");
+        assertEquals("", read(reader, "Some text\n\nMore text"));
+    }
+
+    @Test
+    void grownParagraphIsReducedToItsEnd() {
+        IncrementalReader reader = new IncrementalReader();
+        read(reader, "Log line one.");
+        assertEquals("Log line two.", read(reader, "Log line one. Log line two."));
+    }
+
+    @Test
+    void grownParagraphMustEndAtWordBoundary() {
+        IncrementalReader reader = new IncrementalReader();
+        read(reader, "Run");
+        assertEquals("Running", read(reader, "Running"));
+    }
+
+    @Test
+    void resetReadsEverythingAgain() {
+        IncrementalReader reader = new IncrementalReader();
+        read(reader, "Text");
+        reader.reset();
+        assertEquals("Text", read(reader, "Text"));
+    }
+
+}
@@ -0,0 +1,271 @@
+package de.cech12.vis.pipeline;
+
+import de.cech12.vis.audio.SpeechPlayer;
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.service.CancellationToken;
+import de.cech12.vis.service.IOCRService;
+import de.cech12.vis.service.ITTSService;
+import de.cech12.vis.service.OCRResult;
+import de.cech12.vis.service.SpeechStream;
+import de.cech12.vis.utils.ConfigUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.JPanel;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReadQueueTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<Long> converted = new CopyOnWriteArrayList<>();
+    private final Map<Long, CancellationToken> tokens = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<InputStream>> ends = new ConcurrentHashMap<>();
+    private final BlockingQueue<String> played = new LinkedBlockingQueue<>();
+    private final List<String> errors = new CopyOnWriteArrayList<>();
+
+    /**
+     * Reads the chunks of the streams instead of playing them.
+     */
+    private class FakePlayer extends SpeechPlayer {
+
+        private Future<?> playback = null;
+        private SpeechStream speech = null;
+
+        FakePlayer() {
+            super(executor, () -> 1);
+        }
+
+        @Override
+        public synchronized void play(SpeechStream speech, Runnable onStart, Runnable onFirstChunk, Consumer<Exception> onError, Runnable onFinish) {
+            stop();
+            this.speech = speech;
+            playback = executor.submit(() -> {
+                onStart.run();
+                try {
+                    InputStream chunk;
+                    while ((chunk = speech.next()) != null) {
+                        played.add(new String(chunk.readAllBytes(), StandardCharsets.UTF_8));
+                    }
+                } catch (InterruptedException | CancellationException ex) {
+                    return;
+                } catch (Exception ex) {
+                    onError.accept(ex);
+                }
+                synchronized (this) {
+                    if (this.speech != speech) {
+                        return; //stopped
+                    }
+                    this.speech = null;
+                }
+                onFinish.run();
+            });
+        }
+
+        @Override
+        public synchronized void stop() {
+            if (playback != null) {
+                playback.cancel(true);
+                playback = null;
+            }
+            if (speech != null) {
+                speech.close();
+                speech = null;
+            }
+        }
+
+        @Override
+        public synchronized boolean isPlaying() {
+            return playback != null && !playback.isDone();
+        }
+    }
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+        ConfigUtils.setProperty(ReadQueue.CONFIG_LOOKAHEAD, "2");
+        ConfigUtils.setProperty(IncrementalReader.CONFIG_ACTIVE, "false");
+    }
+
+    /**
+     * The speech of an image is the chunk "&lt;id&gt;" followed by the chunk "end &lt;id&gt;", which is generated,
+     * when the test finishes the image (see {@link #finish(long)}).
+     */
+    private ReadQueue createQueue(int lookahead) {
+        ConfigUtils.setProperty(ReadQueue.CONFIG_LOOKAHEAD, String.valueOf(lookahead));
+        ReadQueue.Converter converter = (image, conversionId, token, turn) -> {
+            converted.add(conversionId);
+            tokens.put(conversionId, token);
+            CompletableFuture<InputStream> end = new CompletableFuture<>();
+            ends.put(conversionId, end);
+            return CompletableFuture.completedFuture(new SpeechStream(List.of(chunk(String.valueOf(conversionId)), end)));
+        };
+        return new ReadQueue(converter, new FakePlayer(), executor, () -> {}, errors::add);
+    }
+
+    private static CompletableFuture<InputStream> chunk(String text) {
+        return CompletableFuture.completedFuture(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void add(ReadQueue queue, long conversionId) {
+        assertTrue(queue.add(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB), conversionId,
+                Metrics.start(Metrics.STAGE_PRESS_TO_SPEECH, conversionId)));
+    }
+
+    private void finish(long conversionId) {
+        ends.get(conversionId).complete(new ByteArrayInputStream(("end " + conversionId).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void assertPlayed(String expected) throws InterruptedException {
+        assertEquals(expected, played.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void skipContinuesWithNextImage() throws Exception {
+        ReadQueue queue = createQueue(2);
+        add(queue, 1);
+        assertPlayed("1");
+        add(queue, 2);
+        add(queue, 3);
+        queue.skip();
+        assertTrue(tokens.get(1L).isCancelled());
+        assertPlayed("2");
+        assertEquals(2, queue.getItems().size());
+        finish(2);
+        assertPlayed("end 2");
+        assertPlayed("3");
+        assertFalse(tokens.get(3L).isCancelled());
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    void removeCancelsConversionAndConvertsNextImage() throws Exception {
+        ReadQueue queue = createQueue(1);
+        add(queue, 1);
+        assertPlayed("1");
+        add(queue, 2);
+        add(queue, 3);
+        assertEquals(List.of(1L, 2L), converted);
+        queue.remove(queue.getItems().get(1));
+        assertTrue(tokens.get(2L).isCancelled());
+        assertEquals(List.of(1L, 2L, 3L), converted);
+        finish(1);
+        assertPlayed("end 1");
+        assertPlayed("3");
+        assertEquals(1, queue.getItems().size());
+    }
+
+    @Test
+    void moveKeepsNumberOfConversions() throws Exception {
+        ReadQueue queue = createQueue(1);
+        add(queue, 1);
+        assertPlayed("1");
+        add(queue, 2);
+        add(queue, 3);
+        queue.move(queue.getItems().get(1), 1);
+        //the converted image left the look-ahead, but it still takes its place
+        assertEquals(List.of(1L, 2L), converted);
+        assertFalse(tokens.get(2L).isCancelled());
+        finish(1);
+        assertPlayed("end 1");
+        assertPlayed("3");
+        assertEquals(List.of(1L, 2L, 3L), converted);
+        finish(3);
+        assertPlayed("end 3");
+        assertPlayed("2");
+    }
+
+    @Test
+    void pressToSpeechEndsWhenSpeechIsReady() throws Exception {
+        long pressToSpeech = Metrics.histogram(Metrics.STAGE_PRESS_TO_SPEECH).getCount();
+        long queueWait = Metrics.histogram(Metrics.STAGE_QUEUE_WAIT).getCount();
+        ReadQueue queue = createQueue(2);
+        add(queue, 1);
+        assertPlayed("1");
+        assertEquals(pressToSpeech + 1, Metrics.histogram(Metrics.STAGE_PRESS_TO_SPEECH).getCount());
+        assertEquals(queueWait + 1, Metrics.histogram(Metrics.STAGE_QUEUE_WAIT).getCount());
+        //the speech of the second image is ready at once, but it waits for the first image
+        add(queue, 2);
+        assertEquals(pressToSpeech + 2, Metrics.histogram(Metrics.STAGE_PRESS_TO_SPEECH).getCount());
+        assertEquals(queueWait + 1, Metrics.histogram(Metrics.STAGE_QUEUE_WAIT).getCount());
+        finish(1);
+        assertPlayed("end 1");
+        assertPlayed("2");
+        assertEquals(queueWait + 2, Metrics.histogram(Metrics.STAGE_QUEUE_WAIT).getCount());
+    }
+
+    @Test
+    void incrementalReadingFollowsQueueOrder() throws Exception {
+        ConfigUtils.setProperty(IncrementalReader.CONFIG_ACTIVE, "true");
+        ConfigUtils.setProperty(ReadQueue.CONFIG_LOOKAHEAD, "2");
+        Map<BufferedImage, CompletableFuture<String>> texts = new ConcurrentHashMap<>();
+        CountDownLatch recognized = new CountDownLatch(1);
+        IOCRService ocrService = new IOCRService() {
+            @Override
+            public OCRResult getTextFromImage(BufferedImage image) throws Exception {
+                OCRResult result = OCRResult.of(texts.get(image).get());
+                recognized.countDown();
+                return result;
+            }
+
+            @Override
+            public OCRResult getTextFromImage(ByteBuffer image) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void addOCRFrameConfiguration(JPanel panel) {}
+        };
+        ITTSService ttsService = new ITTSService() {
+            @Override
+            public InputStream getSpeechFromText(String text) {
+                return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public String getTargetLanguage() {
+                return "en-US";
+            }
+
+            @Override
+            public void addTTSFrameConfiguration(JPanel panel) {}
+        };
+        ConversionPipeline pipeline = new ConversionPipeline(ocrService, null, ttsService, executor, new IncrementalReader());
+        ReadQueue queue = new ReadQueue((image, conversionId, token, turn) -> pipeline.run(image, false, false, conversionId, token, turn),
+                new FakePlayer(), executor, () -> {}, errors::add);
+        BufferedImage first = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        BufferedImage second = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        texts.put(first, new CompletableFuture<>());
+        texts.put(second, CompletableFuture.completedFuture("Hello\n\nHow are you?\n\nFine, thanks."));
+        assertTrue(queue.add(first, 1, Metrics.start(Metrics.STAGE_PRESS_TO_SPEECH, 1)));
+        assertTrue(queue.add(second, 2, Metrics.start(Metrics.STAGE_PRESS_TO_SPEECH, 2)));
+        //the text of the second image is recognized first, but it is compared with the text of the first image
+        assertTrue(recognized.await(5, TimeUnit.SECONDS));
+        texts.get(first).complete("Hello\n\nHow are you?");
+        assertPlayed("Hello\nHow are you?");
+        assertPlayed("Fine, thanks.");
+        assertTrue(errors.isEmpty());
+    }
+
+}
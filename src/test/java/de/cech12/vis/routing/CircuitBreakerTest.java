@@ -0,0 +1,94 @@
+package de.cech12.vis.routing;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.net.ConnectException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+
+    @Test
+    void opensAfterThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60_000);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.tryAcquireTrial());
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.isAvailable());
+        assertFalse(breaker.tryAcquireTrial());
+    }
+
+    @Test
+    void successResetsFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, 60_000);
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    void isAvailableDoesNotTakeTheTrial() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 0);
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertTrue(breaker.isAvailable());
+        assertTrue(breaker.isAvailable());
+        assertTrue(breaker.tryAcquireTrial());
+        //only one trial request at a time
+        assertFalse(breaker.isAvailable());
+        assertFalse(breaker.tryAcquireTrial());
+    }
+
+    @Test
+    void successfulTrialClosesCircuit() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 0);
+        breaker.recordFailure();
+        assertTrue(breaker.tryAcquireTrial());
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.tryAcquireTrial());
+        assertTrue(breaker.tryAcquireTrial());
+    }
+
+    @Test
+    void failedTrialKeepsCircuitOpen() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 5, 60_000);
+        for (int i = 0; i < 5; i++) {
+            breaker.recordFailure();
+        }
+        assertTrue(breaker.isOpen());
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.isAvailable());
+    }
+
+    @Test
+    void ignoredTrialReleasesTheTrial() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 0);
+        breaker.recordFailure();
+        assertTrue(breaker.tryAcquireTrial());
+        breaker.recordIgnored();
+        assertTrue(breaker.isOpen());
+        assertTrue(breaker.tryAcquireTrial());
+    }
+
+    @Test
+    void countsOnlyProviderFailures() {
+        assertTrue(CircuitBreaker.isProviderFailure(new TimeoutException()));
+        assertTrue(CircuitBreaker.isProviderFailure(new ConnectException()));
+        assertTrue(CircuitBreaker.isProviderFailure(new ExecutionException(new TimeoutException())));
+        assertFalse(CircuitBreaker.isProviderFailure(new CancellationException()));
+        assertFalse(CircuitBreaker.isProviderFailure(new FileNotFoundException("credentials.json")));
+        assertFalse(CircuitBreaker.isProviderFailure(new IllegalArgumentException()));
+    }
+
+}
@@ -0,0 +1,152 @@
+package de.cech12.vis.routing;
+
+import de.cech12.vis.metrics.Metrics;
+import de.cech12.vis.utils.ConfigUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProviderRouterTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @BeforeEach
+    void configure() {
+        ConfigUtils.setProperty(ProviderRouter.CONFIG_HEDGE_ACTIVE, "true");
+        ConfigUtils.setProperty(ProviderRouter.CONFIG_HEDGE_DEFAULT_DELAY, "20");
+        ConfigUtils.setProperty(ProviderRouter.CONFIG_BREAKER_FAILURES, "2");
+        ConfigUtils.setProperty(ProviderRouter.CONFIG_BREAKER_OPEN, "60");
+    }
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private ProviderRouter<String> router(String... names) {
+        Map<String, String> services = new LinkedHashMap<>();
+        for (String name : names) {
+            services.put(name, name);
+        }
+        return new ProviderRouter<>("Test", services, executor);
+    }
+
+    @Test
+    void lastProviderIsCalledWithOpenCircuit() {
+        ProviderRouter<String> router = router("only");
+        AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 4; i++) {
+            assertThrows(TimeoutException.class, () -> router.call(service -> {
+                calls.incrementAndGet();
+                throw new TimeoutException();
+            }));
+        }
+        assertTrue(router.getProviders().get(0).getCircuitBreaker().isOpen());
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    void callerFaultsDoNotOpenCircuit() {
+        ProviderRouter<String> router = router("only");
+        for (int i = 0; i < 4; i++) {
+            assertThrows(IllegalArgumentException.class, () -> router.call(service -> {
+                throw new IllegalArgumentException();
+            }));
+        }
+        assertFalse(router.getProviders().get(0).getCircuitBreaker().isOpen());
+    }
+
+    @Test
+    void exhaustedProviderQuotaFailsOverToNextProvider() throws Exception {
+        ConfigUtils.setProperty(ProviderRouter.CONFIG_HEDGE_ACTIVE, "false");
+        ConfigUtils.setProperty(ProviderRouter.CONFIG_QUOTA_WAIT, "50");
+        ProviderRouter<String> router = router("limited", "unlimited");
+        assertEquals("limited.test", router.getProviders().get(0).getQuota());
+        ConfigUtils.setProperty("quota.limited.test.requests.per.minute", "1");
+        assertEquals("limited", router.call(service -> service));
+        assertEquals("unlimited", router.call(service -> service));
+        assertFalse(router.getProviders().get(0).getCircuitBreaker().isOpen());
+    }
+
+    @Test
+    void failsOverToNextProvider() throws Exception {
+        ConfigUtils.setProperty(ProviderRouter.CONFIG_HEDGE_ACTIVE, "false");
+        ProviderRouter<String> router = router("primary", "secondary");
+        String result = router.call(service -> {
+            if (service.equals("primary")) {
+                throw new TimeoutException();
+            }
+            return service;
+        });
+        assertEquals("secondary", result);
+    }
+
+    @Test
+    void openCircuitIsSkipped() throws Exception {
+        ConfigUtils.setProperty(ProviderRouter.CONFIG_HEDGE_ACTIVE, "false");
+        ProviderRouter<String> router = router("primary", "secondary");
+        AtomicInteger primaryCalls = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            router.call(service -> {
+                if (service.equals("primary")) {
+                    primaryCalls.incrementAndGet();
+                    throw new TimeoutException();
+                }
+                return service;
+            });
+        }
+        assertEquals(2, primaryCalls.get());
+    }
+
+    @Test
+    void hedgedCallAwaitsCancelledAttempt() throws Exception {
+        ProviderRouter<String> router = router("primary", "secondary");
+        AtomicBoolean primaryEnded = new AtomicBoolean();
+        String result = router.call(service -> {
+            if (service.equals("primary")) {
+                //ignores the cancellation, like a request, which is still serialized
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+                while (System.nanoTime() < end) {
+                    Thread.onSpinWait();
+                }
+                primaryEnded.set(true);
+                return service;
+            }
+            return service;
+        }, true);
+        assertEquals("secondary", result);
+        assertTrue(primaryEnded.get());
+    }
+
+    @Test
+    void losingHedgedAttemptIsCancelledNotFailed() throws Exception {
+        ProviderRouter<String> router = router("loser", "winner");
+        long cancelled = Metrics.getCount("test.loser.cancelled");
+        long errors = Metrics.getCount("test.loser.errors");
+        String result = router.call(service -> {
+            if (service.equals("loser")) {
+                Thread.sleep(5000); //interrupted, when the hedged request wins
+            }
+            return service;
+        }, true);
+        assertEquals("winner", result);
+        assertEquals(cancelled + 1, Metrics.getCount("test.loser.cancelled"));
+        assertEquals(errors, Metrics.getCount("test.loser.errors"));
+        assertFalse(router.getProviders().get(0).getCircuitBreaker().isOpen());
+    }
+
+}
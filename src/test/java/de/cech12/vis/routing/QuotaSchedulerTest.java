@@ -0,0 +1,210 @@
+package de.cech12.vis.routing;
+
+import de.cech12.vis.service.CancellationToken;
+import de.cech12.vis.utils.ConfigUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuotaSchedulerTest {
+
+    private static final AtomicInteger APIS = new AtomicInteger();
+
+    private final QuotaScheduler scheduler = QuotaScheduler.get();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+        ConfigUtils.setProperty(QuotaScheduler.CONFIG_QUEUE_MAX, "64");
+    }
+
+    /**
+     * @return name of a new API with the given quota (the scheduler is shared, so every test uses its own APIs)
+     */
+    private String api(int requestsPerMinute, int unitsPerMinute) {
+        String api = "test" + APIS.incrementAndGet();
+        scheduler.register(api, requestsPerMinute, unitsPerMinute);
+        return api;
+    }
+
+    private static long deadline(long millis) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Takes all requests of the bucket, so the next call has to wait.
+     */
+    private void drain(String api, int requests) throws Exception {
+        for (int i = 0; i < requests; i++) {
+            scheduler.acquire(api, 0, deadline(1000));
+        }
+    }
+
+    /**
+     * Waits until the given number of calls waits for the quota.
+     */
+    private void awaitQueueLength(String api, int length) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.getQueueLength(api) != length && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(length, scheduler.getQueueLength(api));
+    }
+
+    private Future<?> acquireAsync(String api, CancellationToken.Priority priority, List<CancellationToken.Priority> admitted) {
+        return executor.submit(() -> new CancellationToken(priority).call(() -> {
+            scheduler.acquire(api, 0, deadline(5000));
+            admitted.add(priority);
+            return null;
+        }));
+    }
+
+    @Test
+    void unlimitedQuotaAdmitsImmediately() throws Exception {
+        String api = api(0, 0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            scheduler.acquire(api, 1_000_000, deadline(1000));
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    void requestBucketLimitsBursts() throws Exception {
+        String api = api(60, 0);
+        //the bucket starts full
+        drain(api, 60);
+        //the next request is available after one second
+        assertThrows(TimeoutException.class, () -> scheduler.acquire(api, 0, deadline(200)));
+        assertEquals(0, scheduler.getQueueLength(api));
+    }
+
+    @Test
+    void unitBucketRefills() throws Exception {
+        //100 units per second
+        String api = api(0, 6000);
+        scheduler.acquire(api, 6000, deadline(1000));
+        long start = System.nanoTime();
+        scheduler.acquire(api, 20, deadline(2000));
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waited >= 150, "waited " + waited + " ms");
+    }
+
+    @Test
+    void largerCallsThanTheQuotaAreAdmitted() throws Exception {
+        String api = api(0, 100);
+        //a call with more units than the quota per minute waits for the full bucket instead of forever
+        scheduler.acquire(api, 1000, deadline(1000));
+    }
+
+    @Test
+    void higherPriorityIsAdmittedFirst() throws Exception {
+        //one request per 500 ms, so all calls wait, before the first one is admitted
+        String api = api(120, 0);
+        drain(api, 120);
+        List<CancellationToken.Priority> admitted = new CopyOnWriteArrayList<>();
+        Future<?> prefetch = acquireAsync(api, CancellationToken.Priority.PREFETCH, admitted);
+        awaitQueueLength(api, 1);
+        Future<?> background = acquireAsync(api, CancellationToken.Priority.BACKGROUND, admitted);
+        awaitQueueLength(api, 2);
+        Future<?> interactive = acquireAsync(api, CancellationToken.Priority.INTERACTIVE, admitted);
+        awaitQueueLength(api, 3);
+        assertTrue(scheduler.isCongested());
+        interactive.get(5, TimeUnit.SECONDS);
+        background.get(5, TimeUnit.SECONDS);
+        prefetch.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(CancellationToken.Priority.INTERACTIVE, CancellationToken.Priority.BACKGROUND,
+                CancellationToken.Priority.PREFETCH), admitted);
+    }
+
+    @Test
+    void samePriorityIsAdmittedInOrderOfArrival() throws Exception {
+        String api = api(120, 0);
+        drain(api, 120);
+        List<String> admitted = new CopyOnWriteArrayList<>();
+        Future<?> first = executor.submit(() -> {
+            scheduler.acquire(api, 0, deadline(5000));
+            return admitted.add("first");
+        });
+        awaitQueueLength(api, 1);
+        Future<?> second = executor.submit(() -> {
+            scheduler.acquire(api, 0, deadline(5000));
+            return admitted.add("second");
+        });
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("first", "second"), admitted);
+    }
+
+    @Test
+    void fullBackgroundLaneRejectsCalls() throws Exception {
+        ConfigUtils.setProperty(QuotaScheduler.CONFIG_QUEUE_MAX, "1");
+        String api = api(1, 0);
+        drain(api, 1);
+        List<CancellationToken.Priority> admitted = new CopyOnWriteArrayList<>();
+        CancellationToken waiting = new CancellationToken(CancellationToken.Priority.PREFETCH);
+        Future<?> prefetch = executor.submit(() -> waiting.call(() -> {
+            scheduler.acquire(api, 0, deadline(5000));
+            return null;
+        }));
+        awaitQueueLength(api, 1);
+        assertThrows(RejectedExecutionException.class, () -> new CancellationToken(CancellationToken.Priority.PREFETCH).call(() -> {
+            scheduler.acquire(api, 0, deadline(5000));
+            return null;
+        }));
+        //other lanes are not affected
+        Future<?> background = acquireAsync(api, CancellationToken.Priority.BACKGROUND, admitted);
+        awaitQueueLength(api, 2);
+        background.cancel(true);
+        waiting.cancel();
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> prefetch.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(CancellationException.class, ex.getCause());
+        assertTrue(admitted.isEmpty());
+    }
+
+    @Test
+    void cancelledCallStopsWaiting() throws Exception {
+        String api = api(1, 0);
+        drain(api, 1);
+        CancellationToken token = new CancellationToken();
+        Future<?> call = executor.submit(() -> token.call(() -> {
+            scheduler.acquire(api, 0, deadline(60_000));
+            return null;
+        }));
+        awaitQueueLength(api, 1);
+        token.cancel();
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> call.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(CancellationException.class, ex.getCause());
+        assertEquals(0, scheduler.getQueueLength(api));
+    }
+
+    @Test
+    void exhaustedQuotaPausesCalls() throws Exception {
+        ConfigUtils.setProperty(QuotaScheduler.CONFIG_EXHAUSTED_PAUSE, "300");
+        String api = api(0, 0);
+        scheduler.onQuotaExhausted(api);
+        assertTrue(scheduler.isCongested());
+        assertThrows(TimeoutException.class, () -> scheduler.acquire(api, 0, deadline(100)));
+        long start = System.nanoTime();
+        scheduler.acquire(api, 0, deadline(2000));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+}
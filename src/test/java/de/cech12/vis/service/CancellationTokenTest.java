@@ -0,0 +1,116 @@
+package de.cech12.vis.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CancellationTokenTest {
+
+    @Test
+    void cancelRunsListenersOnce() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger calls = new AtomicInteger();
+        token.onCancel(calls::incrementAndGet);
+        token.cancel();
+        token.cancel();
+        assertTrue(token.isCancelled());
+        assertEquals(1, calls.get());
+        //listeners of a cancelled token are called directly
+        token.onCancel(calls::incrementAndGet);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void removedListenerIsNotCalled() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger calls = new AtomicInteger();
+        token.onCancel(calls::incrementAndGet).run();
+        token.cancel();
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    void parentCancelsChild() {
+        CancellationToken parent = new CancellationToken();
+        CancellationToken child = parent.child();
+        CancellationToken otherChild = parent.child();
+        child.cancel();
+        assertFalse(parent.isCancelled());
+        assertFalse(otherChild.isCancelled());
+        parent.cancel();
+        assertTrue(otherChild.isCancelled());
+    }
+
+    @Test
+    void childInheritsPriority() {
+        CancellationToken parent = new CancellationToken(CancellationToken.Priority.PREFETCH);
+        CancellationToken child = parent.child();
+        assertEquals(CancellationToken.Priority.PREFETCH, child.getPriority());
+        //raising the parent raises its children, too
+        parent.raisePriority(CancellationToken.Priority.INTERACTIVE);
+        assertEquals(CancellationToken.Priority.INTERACTIVE, child.getPriority());
+    }
+
+    @Test
+    void childKeepsHigherOwnPriority() {
+        CancellationToken parent = new CancellationToken(CancellationToken.Priority.PREFETCH);
+        CancellationToken child = parent.child();
+        child.raisePriority(CancellationToken.Priority.BACKGROUND);
+        assertEquals(CancellationToken.Priority.BACKGROUND, child.getPriority());
+        assertEquals(CancellationToken.Priority.PREFETCH, parent.getPriority());
+    }
+
+    @Test
+    void priorityIsNeverLowered() {
+        CancellationToken token = new CancellationToken(CancellationToken.Priority.INTERACTIVE);
+        token.raisePriority(CancellationToken.Priority.PREFETCH);
+        assertEquals(CancellationToken.Priority.INTERACTIVE, token.getPriority());
+    }
+
+    @Test
+    void childKeepsConversionId() {
+        CancellationToken token = new CancellationToken().child(42);
+        assertEquals(42, token.getConversionId());
+        assertEquals(42, token.child().getConversionId());
+    }
+
+    @Test
+    void callBindsTokenToThread() throws Exception {
+        CancellationToken token = new CancellationToken();
+        assertSame(token, token.call(CancellationToken::current));
+        assertSame(CancellationToken.NONE, CancellationToken.current());
+    }
+
+    @Test
+    void callOfCancelledTokenThrows() {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        assertThrows(CancellationException.class, () -> token.call(() -> null));
+    }
+
+    @Test
+    void wrappedExecutorBindsToken() throws Exception {
+        CancellationToken token = new CancellationToken();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<CancellationToken> current = CompletableFuture.supplyAsync(CancellationToken::current, token.wrap(executor));
+            assertSame(token, current.get(5, TimeUnit.SECONDS));
+            //the thread of the executor is not bound to the token afterwards
+            assertSame(CancellationToken.NONE, CompletableFuture.supplyAsync(CancellationToken::current, executor).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
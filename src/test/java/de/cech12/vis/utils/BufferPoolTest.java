@@ -0,0 +1,67 @@
+package de.cech12.vis.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BufferPoolTest {
+
+    private static final int SIZE = 256 * 1024; //initial size of a buffer
+
+    @Test
+    void releasedBufferIsReused() {
+        BufferPool pool = new BufferPool(2, 4 * SIZE, 8 * SIZE);
+        BufferPool.Buffer buffer = pool.acquire();
+        buffer.write(1);
+        buffer.close();
+        assertEquals(SIZE, pool.getRetainedBytes());
+        BufferPool.Buffer reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.size());
+        assertEquals(0, pool.getRetainedBytes());
+    }
+
+    @Test
+    void oversizedBufferIsDropped() {
+        BufferPool pool = new BufferPool(2, SIZE, 8 * SIZE);
+        BufferPool.Buffer buffer = pool.acquire();
+        buffer.write(new byte[SIZE + 1], 0, SIZE + 1);
+        buffer.close();
+        assertEquals(0, pool.getRetainedBytes());
+        assertNotSame(buffer, pool.acquire());
+    }
+
+    @Test
+    void retainedBytesAreLimited() {
+        BufferPool pool = new BufferPool(8, 4 * SIZE, 2 * SIZE);
+        BufferPool.Buffer first = pool.acquire();
+        BufferPool.Buffer second = pool.acquire();
+        BufferPool.Buffer third = pool.acquire();
+        first.close();
+        second.close();
+        third.close();
+        assertEquals(2 * SIZE, pool.getRetainedBytes());
+    }
+
+    @Test
+    void numberOfBuffersIsLimited() {
+        BufferPool pool = new BufferPool(1, 4 * SIZE, 8 * SIZE);
+        BufferPool.Buffer first = pool.acquire();
+        BufferPool.Buffer second = pool.acquire();
+        first.close();
+        second.close();
+        assertEquals(SIZE, pool.getRetainedBytes());
+    }
+
+    @Test
+    void doubleCloseKeepsBufferOnce() {
+        BufferPool pool = new BufferPool(2, 4 * SIZE, 8 * SIZE);
+        BufferPool.Buffer buffer = pool.acquire();
+        buffer.close();
+        buffer.close();
+        assertEquals(SIZE, pool.getRetainedBytes());
+    }
+
+}